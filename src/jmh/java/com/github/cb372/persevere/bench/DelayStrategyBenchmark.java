@@ -0,0 +1,63 @@
+package com.github.cb372.persevere.bench;
+
+import com.github.cb372.persevere.delay.DelayStrategies;
+import com.github.cb372.persevere.delay.DelayStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of choosing a delay, with one strategy instance shared by several threads,
+ * as it would be when many calls use the same strategy.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class DelayStrategyBenchmark {
+
+    @Param({"fixedDelay", "exponential", "random", "fullJitter", "decorrelatedJitter"})
+    public String strategyName;
+
+    @Param({"3", "40"})
+    public int completedRetries;
+
+    private DelayStrategy strategy;
+
+    @Setup
+    public void setUp() {
+        if ("fixedDelay".equals(strategyName)) {
+            strategy = DelayStrategies.fixedDelay(100);
+        } else if ("exponential".equals(strategyName)) {
+            strategy = DelayStrategies.exponential(10, 2.0, 10000);
+        } else if ("random".equals(strategyName)) {
+            strategy = DelayStrategies.random(100, 200);
+        } else if ("fullJitter".equals(strategyName)) {
+            strategy = DelayStrategies.fullJitter(10, 2.0, 10000);
+        } else if ("decorrelatedJitter".equals(strategyName)) {
+            strategy = DelayStrategies.decorrelatedJitter(10, 10000);
+        } else {
+            throw new IllegalArgumentException("Unknown strategy: " + strategyName);
+        }
+    }
+
+    @Benchmark
+    public long getNextDelayMs() {
+        return strategy.getNextDelayMs(completedRetries);
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.github.cb372.persevere.bench;
+
+import com.github.cb372.persevere.ExecutionResult;
+import com.github.cb372.persevere.action.GiveUp;
+import com.github.cb372.persevere.action.RetryableAction;
+import com.github.cb372.persevere.delay.DelayStrategies;
+import com.github.cb372.persevere.delay.DelayStrategy;
+import com.github.cb372.persevere.impl.PersevereRunner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead Persevere adds around an action: submitting the first task,
+ * scheduling retries, completing the future and cancelling.
+ *
+ * The actions themselves do no work and all retries are immediate, so the numbers are pure library overhead.
+ * Run with {@code -t <threads>} to see how it behaves under contention, and with {@code -prof gc}
+ * (the default for the gradle jmh task) to see allocation per call.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersevereBenchmark {
+
+    @Param({"1", "4"})
+    public int poolSize;
+
+    @Param({"3"})
+    public int retries;
+
+    private ScheduledThreadPoolExecutor executor;
+    private PersevereRunner runner;
+    private PersevereRunner inlineRunner;
+    private RetryableAction<String> succeedsImmediately;
+    private RetryableAction<String> failsUntilLastRetry;
+    private RetryableAction<String> alwaysFails;
+    private DelayStrategy noDelay;
+    private DelayStrategy longDelay;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        executor = new ScheduledThreadPoolExecutor(poolSize);
+        // otherwise cancelled retries pile up in the delay queue
+        executor.setRemoveOnCancelPolicy(true);
+        runner = new PersevereRunner(executor);
+        inlineRunner = runner.withInlineFirstAttempt();
+        noDelay = DelayStrategies.retryImmediately();
+        longDelay = DelayStrategies.fixedDelay(60000);
+        succeedsImmediately = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                return "ok";
+            }
+        };
+        final IOException failure = new IOException("Argh!");
+        failsUntilLastRetry = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                if (retryCount < retries) {
+                    throw failure;
+                }
+                return "ok";
+            }
+        };
+        alwaysFails = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                throw failure;
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public ExecutionResult<String> immediateSuccess() throws ExecutionException, InterruptedException {
+        return runner.persevere(succeedsImmediately, noDelay, retries).get();
+    }
+
+    @Benchmark
+    public ExecutionResult<String> immediateSuccessInline() throws ExecutionException, InterruptedException {
+        return inlineRunner.persevere(succeedsImmediately, noDelay, retries).get();
+    }
+
+    @Benchmark
+    public ExecutionResult<String> successAfterRetries() throws ExecutionException, InterruptedException {
+        return runner.persevere(failsUntilLastRetry, noDelay, retries).get();
+    }
+
+    @Benchmark
+    public ExecutionResult<String> failureAfterRetries() throws ExecutionException, InterruptedException {
+        return runner.persevere(alwaysFails, noDelay, retries).get();
+    }
+
+    /**
+     * Start a call whose first attempt fails and whose retry is a long way off, then cancel it.
+     */
+    @Benchmark
+    public boolean cancelWhileWaitingToRetry() {
+        Future<ExecutionResult<String>> future = runner.persevere(alwaysFails, longDelay, retries);
+        return future.cancel(true);
+    }
+
+}
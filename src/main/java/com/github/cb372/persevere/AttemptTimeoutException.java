@@ -0,0 +1,16 @@
+package com.github.cb372.persevere;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The exception recorded for an attempt that did not finish within the attempt timeout.
+ * It is treated like any other failure, so the action will be retried if it has retries left.
+ */
+public final class AttemptTimeoutException extends TimeoutException {
+    private static final long serialVersionUID = 1L;
+
+    public AttemptTimeoutException(long timeoutMs) {
+        super("Attempt did not finish within " + timeoutMs + "ms");
+    }
+
+}
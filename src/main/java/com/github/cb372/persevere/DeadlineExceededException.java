@@ -0,0 +1,20 @@
+package com.github.cb372.persevere;
+
+/**
+ * The exception in a failed {@link ExecutionResult} when an action could have been retried,
+ * but the next retry would not have started before the call's deadline.
+ *
+ * If an attempt was made, the cause is the exception thrown by the last attempt.
+ */
+public final class DeadlineExceededException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException() {
+        super("Deadline exceeded");
+    }
+
+    public DeadlineExceededException(Exception cause) {
+        super("Deadline exceeded", cause);
+    }
+
+}
@@ -51,7 +51,7 @@ public final class ExecutionResult<T> {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
 
-        ExecutionResult that = (ExecutionResult) o;
+        ExecutionResult<?> that = (ExecutionResult<?>) o;
 
         if (retries != that.retries) return false;
         if (success != that.success) return false;
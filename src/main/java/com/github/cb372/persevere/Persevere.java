@@ -1,21 +1,31 @@
 package com.github.cb372.persevere;
 
+import com.github.cb372.persevere.action.AsyncRetryableAction;
+import com.github.cb372.persevere.action.BatchRetryableAction;
 import com.github.cb372.persevere.action.RetryableAction;
 import com.github.cb372.persevere.delay.DelayStrategy;
+import com.github.cb372.persevere.hedge.HedgingPolicy;
 import com.github.cb372.persevere.impl.PersevereRunner;
+import com.github.cb372.persevere.scheduler.ExecutorServiceScheduler;
+import com.github.cb372.persevere.scheduler.Scheduler;
+import com.github.cb372.persevere.scheduler.VirtualThreadScheduler;
 
-import java.util.concurrent.CountDownLatch;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Author: chris
  * Created: 5/2/13
  */
 public final class Persevere {
-    private static volatile ScheduledExecutorService executor = null;
-    private static volatile boolean createdOurOwnExecutor = false;
+    private static volatile Scheduler scheduler = null;
+    private static volatile ScheduledExecutorService ourOwnExecutor = null;
+    private static volatile VirtualThreadScheduler ourOwnVirtualThreadScheduler = null;
 
     private Persevere() {
         // static methods only
@@ -25,19 +35,60 @@ public final class Persevere {
         if (threadPoolSize <= 0) {
             throw new IllegalArgumentException("Thread pool size must be >= 1");
         }
-        Persevere.executor = new ScheduledThreadPoolExecutor(threadPoolSize);
-        Persevere.createdOurOwnExecutor = true;
+        shutdownOurOwn();
+        ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(threadPoolSize);
+        Persevere.scheduler = new ExecutorServiceScheduler(executor);
+        Persevere.ourOwnExecutor = executor;
+        Persevere.ourOwnVirtualThreadScheduler = null;
     }
 
     public static void init(ScheduledExecutorService executor) {
-        if (Persevere.executor != null) {
+        if (Persevere.scheduler != null) {
             throw new IllegalStateException("Persevere is already initialized");
         }
         if (executor == null) {
             throw new IllegalArgumentException("Please provide a ScheduledExecutorService");
         }
-        Persevere.executor = executor;
-        Persevere.createdOurOwnExecutor = false;
+        Persevere.scheduler = new ExecutorServiceScheduler(executor);
+        Persevere.ourOwnExecutor = null;
+        Persevere.ourOwnVirtualThreadScheduler = null;
+    }
+
+    /**
+     * Initialize Persevere with a custom {@link Scheduler},
+     * e.g. a {@link com.github.cb372.persevere.scheduler.HashedWheelScheduler} if you expect
+     * a very large number of retries to be pending at the same time.
+     *
+     * The caller is responsible for shutting down the scheduler.
+     */
+    public static void init(Scheduler scheduler) {
+        if (Persevere.scheduler != null) {
+            throw new IllegalStateException("Persevere is already initialized");
+        }
+        if (scheduler == null) {
+            throw new IllegalArgumentException("Please provide a Scheduler");
+        }
+        Persevere.scheduler = scheduler;
+        Persevere.ourOwnExecutor = null;
+        Persevere.ourOwnVirtualThreadScheduler = null;
+    }
+
+    /**
+     * Initialize Persevere to run each attempt on its own virtual thread,
+     * with a single platform thread to handle delays between retries.
+     * Use this for blocking actions that need more concurrency than a fixed thread pool can give.
+     *
+     * On JVMs without virtual threads (before Java 21), attempts run on an unbounded pool
+     * of platform threads instead. See {@link VirtualThreadScheduler}.
+     *
+     * If Persevere was already running on threads that it created itself, those are shut down.
+     */
+    public static void initVirtualThreads() {
+        shutdownOurOwn();
+        VirtualThreadScheduler scheduler = new VirtualThreadScheduler();
+        Persevere.scheduler = scheduler;
+        Persevere.ourOwnExecutor = null;
+        Persevere.ourOwnVirtualThreadScheduler = scheduler;
     }
 
     /**
@@ -55,15 +106,141 @@ public final class Persevere {
     public static <T> Future<ExecutionResult<T>> persevere(RetryableAction<T> action,
                                                            DelayStrategy delayStrategy,
                                                            int maxRetries) {
-        if (Persevere.executor == null) {
+        return runner().persevere(action, delayStrategy, maxRetries);
+    }
+
+    /**
+     * Perform the given action, retrying if it fails, but giving up once the given time budget is used up.
+     *
+     * A retry will not be scheduled if it could not start before the deadline.
+     * Instead the result will be a failure whose exception is a {@link DeadlineExceededException}.
+     * An attempt that is already running when the deadline passes is not interrupted.
+     *
+     * @param action The action to perform
+     * @param delayStrategy The strategy for inserting delays between retries
+     * @param maxRetries
+     *   The maximum number of times to retry.
+     *   If this is 0, the action will be tried once and not retried.
+     *   If it is negative, the action will be retried until it succeeds or the deadline is reached.
+     * @param timeout The total time budget for the call, including all attempts and delays
+     * @param unit The unit of the timeout
+     * @param <T> result type
+     * @return a future of the result of performing the action
+     */
+    public static <T> Future<ExecutionResult<T>> persevere(RetryableAction<T> action,
+                                                           DelayStrategy delayStrategy,
+                                                           int maxRetries,
+                                                           long timeout,
+                                                           TimeUnit unit) {
+        return runner().persevere(action, delayStrategy, maxRetries, timeout, unit);
+    }
+
+    /**
+     * Perform the given action, retrying if it fails, without requiring a thread to block on the outcome.
+     *
+     * The returned stage is completed by the thread that performs the final attempt,
+     * so any dependent stages will run on one of Persevere's threads unless an async variant is used.
+     *
+     * @param action The action to perform
+     * @param delayStrategy The strategy for inserting delays between retries
+     * @param maxRetries
+     *   The maximum number of times to retry.
+     *   If this is 0, the action will be tried once and not retried.
+     *   If it is negative, the action will be retried indefinitely until it succeeds.
+     * @param <T> result type
+     * @return a completion stage of the result of performing the action
+     */
+    public static <T> CompletionStage<ExecutionResult<T>> persevereAsync(RetryableAction<T> action,
+                                                                         DelayStrategy delayStrategy,
+                                                                         int maxRetries) {
+        return runner().persevereAsync(action, delayStrategy, maxRetries);
+    }
+
+    /**
+     * Perform the given natively asynchronous action, retrying if it fails.
+     * Persevere's threads are only used to start each attempt, not to wait for it,
+     * so a small pool can drive a very large number of concurrent attempts.
+     *
+     * @param action The action to perform
+     * @param delayStrategy The strategy for inserting delays between retries
+     * @param maxRetries
+     *   The maximum number of times to retry.
+     *   If this is 0, the action will be tried once and not retried.
+     *   If it is negative, the action will be retried indefinitely until it succeeds.
+     * @param <T> result type
+     * @return a completion stage of the result of performing the action
+     */
+    public static <T> CompletionStage<ExecutionResult<T>> persevereAsyncAction(AsyncRetryableAction<T> action,
+                                                                               DelayStrategy delayStrategy,
+                                                                               int maxRetries) {
+        return runner().persevereAsyncAction(action, delayStrategy, maxRetries);
+    }
+
+    /**
+     * Perform the given action with hedging: if an attempt is slow, start another one in parallel
+     * and take whichever succeeds first. This is intended for reducing the tail latency of idempotent reads.
+     *
+     * @param action The action to perform
+     * @param hedgingPolicy Decides how long to wait for an attempt before starting another one
+     * @param maxAttempts The maximum number of attempts, including the first one
+     * @param <T> result type
+     * @return a future of the result of the first attempt to succeed
+     */
+    public static <T> Future<ExecutionResult<T>> hedge(RetryableAction<T> action,
+                                                       HedgingPolicy hedgingPolicy,
+                                                       int maxAttempts) {
+        return runner().hedge(action, hedgingPolicy, maxAttempts);
+    }
+
+    /**
+     * Perform the given action on every item of a batch, retrying each item independently if it fails.
+     * Much cheaper than calling {@link #persevere} for each item, because scheduling is shared across the batch.
+     *
+     * @param inputs The items to process
+     * @param action The action to perform on each item
+     * @param delayStrategy The strategy for inserting delays between retries of an item
+     * @param maxRetries
+     *   The maximum number of times to retry each item.
+     *   If this is 0, each item will be tried once and not retried.
+     *   If it is negative, each item will be retried indefinitely until it succeeds.
+     * @param maxConcurrency The maximum number of attempts in flight at once
+     * @param <I> the type of the items
+     * @param <T> result type
+     * @return a future of the results for each item, in the same order as the inputs
+     */
+    public static <I, T> CompletableFuture<List<ExecutionResult<T>>> persevereBatch(List<? extends I> inputs,
+                                                                                    BatchRetryableAction<I, T> action,
+                                                                                    DelayStrategy delayStrategy,
+                                                                                    int maxRetries,
+                                                                                    int maxConcurrency) {
+        return runner().persevereBatch(inputs, action, delayStrategy, maxRetries, maxConcurrency);
+    }
+
+    /**
+     * Get a runner that uses Persevere's scheduler.
+     * Use this if you want to attach optional components such as a
+     * {@link com.github.cb372.persevere.budget.RetryBudget}.
+     *
+     * @return a runner backed by the scheduler passed to {@code init()}
+     */
+    public static PersevereRunner runner() {
+        Scheduler scheduler = Persevere.scheduler;
+        if (scheduler == null) {
             throw new IllegalStateException("Persevere has not been initialized. Please call init() first.");
         }
-        return new PersevereRunner(executor).persevere(action, delayStrategy, maxRetries);
+        return new PersevereRunner(scheduler);
     }
 
     public static void shutdown() {
-        if (Persevere.executor != null && Persevere.createdOurOwnExecutor) {
-            Persevere.executor.shutdown();
+        shutdownOurOwn();
+    }
+
+    private static void shutdownOurOwn() {
+        if (Persevere.ourOwnExecutor != null) {
+            Persevere.ourOwnExecutor.shutdown();
+        }
+        if (Persevere.ourOwnVirtualThreadScheduler != null) {
+            Persevere.ourOwnVirtualThreadScheduler.shutdown();
         }
     }
 
@@ -0,0 +1,463 @@
+package com.github.cb372.persevere;
+
+import com.github.cb372.persevere.action.AsyncRetryableAction;
+import com.github.cb372.persevere.action.BatchRetryableAction;
+import com.github.cb372.persevere.action.RetryableAction;
+import com.github.cb372.persevere.budget.RetryBudget;
+import com.github.cb372.persevere.circuit.CircuitBreaker;
+import com.github.cb372.persevere.delay.DelayStrategies;
+import com.github.cb372.persevere.delay.DelayStrategy;
+import com.github.cb372.persevere.hedge.HedgingPolicy;
+import com.github.cb372.persevere.impl.PersevereRunner;
+import com.github.cb372.persevere.limit.ConcurrencyLimiter;
+import com.github.cb372.persevere.listener.RetryListener;
+import com.github.cb372.persevere.policy.RetryPolicy;
+import com.github.cb372.persevere.scheduler.DaemonThreadFactory;
+import com.github.cb372.persevere.scheduler.ExecutorServiceScheduler;
+import com.github.cb372.persevere.scheduler.Scheduler;
+import com.github.cb372.persevere.scheduler.VirtualThreadScheduler;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * An independent instance of Persevere, with its own scheduler, defaults and lifecycle.
+ *
+ * Unlike the static {@link Persevere} facade, you can create as many clients as you like,
+ * e.g. one per dependency, so that a slow dependency's retries cannot starve the others of threads,
+ * and each one's pool and retry behaviour can be tuned separately.
+ *
+ * <pre>
+ * PersevereClient client = PersevereClient.builder()
+ *     .name("payments")
+ *     .threadPoolSize(4)
+ *     .delayStrategy(DelayStrategies.fullJitter(100, 2.0, 5000))
+ *     .maxRetries(5)
+ *     .circuitBreaker(CircuitBreaker.failureRate(0.5, 30, TimeUnit.SECONDS))
+ *     .build();
+ * </pre>
+ *
+ * {@link #shutdown()} drains gracefully: new calls are rejected, but calls already in progress
+ * carry on retrying until they complete, and only then is the client's own thread pool shut down.
+ */
+public final class PersevereClient {
+    private final PersevereRunner runner;
+    private final DelayStrategy defaultDelayStrategy;
+    private final int defaultMaxRetries;
+    private final ScheduledExecutorService ownExecutor;
+    private final VirtualThreadScheduler ownVirtualThreadScheduler;
+
+    private final AtomicInteger callsInProgress = new AtomicInteger();
+    private volatile boolean shutdown = false;
+    private final AtomicBoolean terminated = new AtomicBoolean(false);
+    private final CountDownLatch terminationLatch = new CountDownLatch(1);
+
+    private final BiConsumer<Object, Throwable> onCallComplete = new BiConsumer<Object, Throwable>() {
+        @Override
+        public void accept(Object result, Throwable throwable) {
+            if (callsInProgress.decrementAndGet() == 0 && shutdown) {
+                terminate();
+            }
+        }
+    };
+
+    private PersevereClient(Builder builder,
+                            Scheduler scheduler,
+                            ScheduledExecutorService ownExecutor,
+                            VirtualThreadScheduler ownVirtualThreadScheduler) {
+        PersevereRunner runner = new PersevereRunner(scheduler);
+        if (builder.retryBudget != null) {
+            runner = runner.withRetryBudget(builder.retryBudget);
+        }
+        if (builder.circuitBreaker != null) {
+            runner = runner.withCircuitBreaker(builder.circuitBreaker);
+        }
+        if (builder.attemptTimeoutUnit != null) {
+            runner = runner.withAttemptTimeout(builder.attemptTimeout, builder.attemptTimeoutUnit);
+        }
+        if (builder.listener != null) {
+            runner = runner.withRetryListener(builder.listener);
+        }
+        if (builder.limiter != null) {
+            runner = runner.withConcurrencyLimiter(builder.limiter);
+        }
+        if (builder.retryPolicy != null) {
+            runner = runner.withRetryPolicy(builder.retryPolicy);
+        }
+        if (builder.inlineFirstAttempt) {
+            runner = runner.withInlineFirstAttempt();
+        }
+        this.runner = runner;
+        this.defaultDelayStrategy = builder.delayStrategy;
+        this.defaultMaxRetries = builder.maxRetries;
+        this.ownExecutor = ownExecutor;
+        this.ownVirtualThreadScheduler = ownVirtualThreadScheduler;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Perform the given action, retrying if it fails, using the client's default delay strategy and max retries.
+     */
+    public <T> Future<ExecutionResult<T>> persevere(RetryableAction<T> action) {
+        return persevere(action, defaultDelayStrategy, defaultMaxRetries);
+    }
+
+    /**
+     * @see Persevere#persevere(RetryableAction, DelayStrategy, int)
+     */
+    public <T> Future<ExecutionResult<T>> persevere(RetryableAction<T> action, DelayStrategy delayStrategy, int maxRetries) {
+        beginCall();
+        try {
+            return track(runner.persevere(action, delayStrategy, maxRetries));
+        } catch (RuntimeException e) {
+            // the call never started, so it is not in progress any more
+            onCallComplete.accept(null, e);
+            throw e;
+        }
+    }
+
+    /**
+     * @see Persevere#persevere(RetryableAction, DelayStrategy, int, long, TimeUnit)
+     */
+    public <T> Future<ExecutionResult<T>> persevere(RetryableAction<T> action, DelayStrategy delayStrategy, int maxRetries,
+                                                    long timeout, TimeUnit unit) {
+        beginCall();
+        try {
+            return track(runner.persevere(action, delayStrategy, maxRetries, timeout, unit));
+        } catch (RuntimeException e) {
+            // the call never started, so it is not in progress any more
+            onCallComplete.accept(null, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Perform the given action, retrying if it fails, using the client's default delay strategy and max retries,
+     * without requiring a thread to block on the outcome.
+     */
+    public <T> CompletionStage<ExecutionResult<T>> persevereAsync(RetryableAction<T> action) {
+        return persevereAsync(action, defaultDelayStrategy, defaultMaxRetries);
+    }
+
+    /**
+     * @see Persevere#persevereAsync(RetryableAction, DelayStrategy, int)
+     */
+    public <T> CompletionStage<ExecutionResult<T>> persevereAsync(RetryableAction<T> action, DelayStrategy delayStrategy, int maxRetries) {
+        beginCall();
+        try {
+            return track(runner.persevereAsync(action, delayStrategy, maxRetries));
+        } catch (RuntimeException e) {
+            // the call never started, so it is not in progress any more
+            onCallComplete.accept(null, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Perform the given natively asynchronous action, retrying if it fails,
+     * using the client's default delay strategy and max retries.
+     */
+    public <T> CompletionStage<ExecutionResult<T>> persevereAsyncAction(AsyncRetryableAction<T> action) {
+        return persevereAsyncAction(action, defaultDelayStrategy, defaultMaxRetries);
+    }
+
+    /**
+     * @see Persevere#persevereAsyncAction(AsyncRetryableAction, DelayStrategy, int)
+     */
+    public <T> CompletionStage<ExecutionResult<T>> persevereAsyncAction(AsyncRetryableAction<T> action, DelayStrategy delayStrategy, int maxRetries) {
+        beginCall();
+        try {
+            return track(runner.persevereAsyncAction(action, delayStrategy, maxRetries));
+        } catch (RuntimeException e) {
+            // the call never started, so it is not in progress any more
+            onCallComplete.accept(null, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Perform the given action on every item of a batch, using the client's default delay strategy and max retries.
+     */
+    public <I, T> CompletableFuture<List<ExecutionResult<T>>> persevereBatch(List<? extends I> inputs,
+                                                                             BatchRetryableAction<I, T> action,
+                                                                             int maxConcurrency) {
+        return persevereBatch(inputs, action, defaultDelayStrategy, defaultMaxRetries, maxConcurrency);
+    }
+
+    /**
+     * @see Persevere#persevereBatch(List, BatchRetryableAction, DelayStrategy, int, int)
+     */
+    public <I, T> CompletableFuture<List<ExecutionResult<T>>> persevereBatch(List<? extends I> inputs,
+                                                                             BatchRetryableAction<I, T> action,
+                                                                             DelayStrategy delayStrategy,
+                                                                             int maxRetries,
+                                                                             int maxConcurrency) {
+        beginCall();
+        try {
+            return track(runner.persevereBatch(inputs, action, delayStrategy, maxRetries, maxConcurrency));
+        } catch (RuntimeException e) {
+            // the call never started, so it is not in progress any more
+            onCallComplete.accept(null, e);
+            throw e;
+        }
+    }
+
+    /**
+     * @see Persevere#hedge(RetryableAction, HedgingPolicy, int)
+     */
+    public <T> Future<ExecutionResult<T>> hedge(RetryableAction<T> action, HedgingPolicy hedgingPolicy, int maxAttempts) {
+        beginCall();
+        try {
+            return track(runner.hedge(action, hedgingPolicy, maxAttempts));
+        } catch (RuntimeException e) {
+            // the call never started, so it is not in progress any more
+            onCallComplete.accept(null, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Stop accepting new calls, and shut down the client's own thread pool (if it has one)
+     * once all calls in progress have completed. Calls in progress carry on retrying as usual.
+     * This method does not wait; use {@link #awaitTermination(long, TimeUnit)} for that.
+     */
+    public void shutdown() {
+        shutdown = true;
+        if (callsInProgress.get() == 0) {
+            terminate();
+        }
+    }
+
+    /**
+     * Wait for all calls in progress to complete after {@link #shutdown()}.
+     *
+     * @return true if all calls completed, false if the timeout elapsed first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminationLatch.await(timeout, unit);
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public boolean isTerminated() {
+        return terminated.get();
+    }
+
+    private void beginCall() {
+        callsInProgress.incrementAndGet();
+        if (shutdown) {
+            onCallComplete.accept(null, null);
+            throw new IllegalStateException("PersevereClient has been shut down");
+        }
+    }
+
+    /**
+     * Every runner method returns a {@link CompletableFuture} under the covers,
+     * so we can find out when the call completes without wrapping the future.
+     */
+    private <F> F track(F future) {
+        ((CompletableFuture<?>) future).whenComplete(onCallComplete);
+        return future;
+    }
+
+    private void terminate() {
+        if (!terminated.compareAndSet(false, true)) {
+            return;
+        }
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+        if (ownVirtualThreadScheduler != null) {
+            ownVirtualThreadScheduler.shutdown();
+        }
+        terminationLatch.countDown();
+    }
+
+    /**
+     * Builds a {@link PersevereClient}.
+     *
+     * Choose at most one of {@link #threadPoolSize(int)}, {@link #executor(ScheduledExecutorService)},
+     * {@link #scheduler(Scheduler)} and {@link #virtualThreads()}. If none is chosen,
+     * the client gets its own pool with one thread per available processor.
+     *
+     * Unless set otherwise, calls that don't specify a delay strategy and max retries
+     * use exponential backoff with full jitter (starting at 100ms, capped at 10 seconds) and 3 retries.
+     */
+    public static final class Builder {
+        private String name = "persevere";
+        private int threadPoolSize = 0;
+        private ScheduledExecutorService executor;
+        private Scheduler scheduler;
+        private boolean virtualThreads = false;
+        private DelayStrategy delayStrategy = DelayStrategies.fullJitter(100, 2.0, 10000);
+        private int maxRetries = 3;
+        private RetryBudget retryBudget;
+        private CircuitBreaker circuitBreaker;
+        private long attemptTimeout;
+        private TimeUnit attemptTimeoutUnit;
+        private RetryListener listener;
+        private ConcurrencyLimiter limiter;
+        private RetryPolicy retryPolicy;
+        private boolean inlineFirstAttempt = false;
+
+        private Builder() {
+        }
+
+        /**
+         * @param name used to name the threads of the client's own pool, e.g. after the dependency it calls
+         */
+        public Builder name(String name) {
+            if (name == null) {
+                throw new IllegalArgumentException("Please provide a name");
+            }
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Give the client its own pool of the given size. It is shut down when the client is.
+         * Its threads are daemon threads, so use {@link PersevereClient#awaitTermination} after shutting down
+         * if calls in progress must finish before the JVM exits.
+         */
+        public Builder threadPoolSize(int threadPoolSize) {
+            if (threadPoolSize <= 0) {
+                throw new IllegalArgumentException("Thread pool size must be >= 1");
+            }
+            this.threadPoolSize = threadPoolSize;
+            return this;
+        }
+
+        /**
+         * Use the given executor. The caller is responsible for shutting it down.
+         */
+        public Builder executor(ScheduledExecutorService executor) {
+            if (executor == null) {
+                throw new IllegalArgumentException("Please provide a ScheduledExecutorService");
+            }
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Use the given scheduler. The caller is responsible for shutting it down.
+         */
+        public Builder scheduler(Scheduler scheduler) {
+            if (scheduler == null) {
+                throw new IllegalArgumentException("Please provide a Scheduler");
+            }
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Run each attempt on its own virtual thread. See {@link VirtualThreadScheduler}.
+         */
+        public Builder virtualThreads() {
+            this.virtualThreads = true;
+            return this;
+        }
+
+        /**
+         * @param delayStrategy the delay strategy for calls that don't specify one
+         */
+        public Builder delayStrategy(DelayStrategy delayStrategy) {
+            if (delayStrategy == null) {
+                throw new IllegalArgumentException("Please provide a DelayStrategy");
+            }
+            this.delayStrategy = delayStrategy;
+            return this;
+        }
+
+        /**
+         * @param maxRetries the max retries for calls that don't specify it. Negative means retry indefinitely.
+         */
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /** @see PersevereRunner#withRetryBudget(RetryBudget) */
+        public Builder retryBudget(RetryBudget retryBudget) {
+            this.retryBudget = retryBudget;
+            return this;
+        }
+
+        /** @see PersevereRunner#withCircuitBreaker(CircuitBreaker) */
+        public Builder circuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /** @see PersevereRunner#withAttemptTimeout(long, TimeUnit) */
+        public Builder attemptTimeout(long timeout, TimeUnit unit) {
+            if (timeout <= 0) {
+                throw new IllegalArgumentException("Attempt timeout must be greater than zero");
+            }
+            this.attemptTimeout = timeout;
+            this.attemptTimeoutUnit = unit;
+            return this;
+        }
+
+        /** @see PersevereRunner#withRetryListener(RetryListener) */
+        public Builder retryListener(RetryListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /** @see PersevereRunner#withConcurrencyLimiter(ConcurrencyLimiter) */
+        public Builder concurrencyLimiter(ConcurrencyLimiter limiter) {
+            this.limiter = limiter;
+            return this;
+        }
+
+        /** @see PersevereRunner#withRetryPolicy(RetryPolicy) */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /** @see PersevereRunner#withInlineFirstAttempt() */
+        public Builder inlineFirstAttempt() {
+            this.inlineFirstAttempt = true;
+            return this;
+        }
+
+        public PersevereClient build() {
+            int choices = (threadPoolSize > 0 ? 1 : 0) + (executor != null ? 1 : 0)
+                    + (scheduler != null ? 1 : 0) + (virtualThreads ? 1 : 0);
+            if (choices > 1) {
+                throw new IllegalStateException("Choose only one of threadPoolSize, executor, scheduler and virtualThreads");
+            }
+            if (scheduler != null) {
+                return new PersevereClient(this, scheduler, null, null);
+            }
+            if (executor != null) {
+                return new PersevereClient(this, new ExecutorServiceScheduler(executor), null, null);
+            }
+            if (virtualThreads) {
+                VirtualThreadScheduler ownScheduler = new VirtualThreadScheduler();
+                return new PersevereClient(this, ownScheduler, null, ownScheduler);
+            }
+            int poolSize = threadPoolSize > 0 ? threadPoolSize : Runtime.getRuntime().availableProcessors();
+            ScheduledThreadPoolExecutor ownExecutor = new ScheduledThreadPoolExecutor(poolSize, new DaemonThreadFactory(name + "-"));
+            // don't keep cancelled retries in the delay queue until they would have run
+            ownExecutor.setRemoveOnCancelPolicy(true);
+            return new PersevereClient(this, new ExecutorServiceScheduler(ownExecutor), ownExecutor, null);
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.github.cb372.persevere.action;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * An action that is natively asynchronous, e.g. a call made using a non-blocking HTTP client.
+ *
+ * Unlike {@link RetryableAction}, an attempt does not tie up one of Persevere's threads
+ * while it is in progress. The next retry (if any) is scheduled when the returned stage completes.
+ */
+public interface AsyncRetryableAction<T> {
+
+    /**
+     * Start performing some action, returning a stage that will complete with the result.
+     *
+     * <ul>
+     *   <li>If the action succeeds, the stage should complete normally with a result of type T.</li>
+     *   <li>If it fails, the stage should complete exceptionally (or this method may throw).
+     *       It will be retried, unless all retries have already been used.</li>
+     *   <li>If it fails and should not be retried, the stage should complete exceptionally with {@link GiveUp}.</li>
+     * </ul>
+     *
+     * If the stage is also a {@link java.util.concurrent.Future}, cancelling the Persevere future
+     * will cancel it.
+     *
+     * @param retryCount
+     *  How many times the action has been retried. This will be 0 on the first try, 1 on the first retry, etc.
+     * @return a stage that completes with the result of the attempt
+     * @throws Exception
+     */
+    public CompletionStage<T> execute(int retryCount) throws GiveUp, Exception;
+
+}
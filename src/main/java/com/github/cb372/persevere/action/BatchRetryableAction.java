@@ -0,0 +1,29 @@
+package com.github.cb372.persevere.action;
+
+/**
+ * An action to perform on each item of a batch.
+ * Each item succeeds, fails or is retried independently of the others.
+ *
+ * @param <I> the type of the items in the batch
+ * @param <T> result type
+ */
+public interface BatchRetryableAction<I, T> {
+
+    /**
+     * Perform the action on one item and return a result.
+     *
+     * <ul>
+     *   <li>If the action succeeds, it should return a result of type T.</li>
+     *   <li>If it fails, it should throw an exception. It will be retried, unless all retries for this item have already been used.</li>
+     *   <li>If it fails and should not be retried, it should throw {@link GiveUp}.</li>
+     * </ul>
+     *
+     * @param item the item to process
+     * @param retryCount
+     *  How many times the action has been retried for this item. This will be 0 on the first try, 1 on the first retry, etc.
+     * @return result
+     * @throws Exception
+     */
+    public T execute(I item, int retryCount) throws GiveUp, Exception;
+
+}
@@ -8,6 +8,7 @@ package com.github.cb372.persevere.action;
  * Created: 5/2/13
  */
 public final class GiveUp extends Exception {
+    private static final long serialVersionUID = 1L;
 
     public GiveUp(String message) {
         super(message);
@@ -0,0 +1,74 @@
+package com.github.cb372.persevere.budget;
+
+import com.github.cb372.persevere.impl.SlidingWindowCounter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A budget for retries that can be shared by many calls to the same dependency.
+ *
+ * Retries are capped at a percentage of first attempts made over a sliding window,
+ * plus a small fixed allowance so that low-traffic callers can still retry.
+ * When a dependency goes down, this bounds the extra load caused by retries to that percentage,
+ * instead of multiplying it by up to (maxRetries + 1).
+ *
+ * The budget is lock-free. Under heavy contention it may allow slightly more retries than the limit,
+ * so treat it as a soft limit.
+ */
+public final class RetryBudget {
+    private static final int BUCKETS_PER_WINDOW = 10;
+
+    private final double retryRatio;
+    private final long minRetriesPerWindow;
+    private final SlidingWindowCounter firstAttempts;
+    private final SlidingWindowCounter retries;
+
+    /**
+     * @param retryRatio the maximum number of retries allowed, as a fraction of first attempts. e.g. 0.1 means 10%.
+     * @param minRetriesPerWindow the number of retries that are always allowed per window, regardless of traffic
+     * @param window the length of the sliding window
+     * @param unit the unit of the window
+     */
+    public RetryBudget(double retryRatio, long minRetriesPerWindow, long window, TimeUnit unit) {
+        if (retryRatio < 0.0) {
+            throw new IllegalArgumentException("Retry ratio must not be negative");
+        }
+        if (minRetriesPerWindow < 0) {
+            throw new IllegalArgumentException("Minimum retries must not be negative");
+        }
+        this.retryRatio = retryRatio;
+        this.minRetriesPerWindow = minRetriesPerWindow;
+        this.firstAttempts = new SlidingWindowCounter(window, unit, BUCKETS_PER_WINDOW);
+        this.retries = new SlidingWindowCounter(window, unit, BUCKETS_PER_WINDOW);
+    }
+
+    /**
+     * A budget allowing retries of up to the given fraction of first attempts over a 10 second window,
+     * plus 10 retries per window.
+     */
+    public static RetryBudget ratio(double retryRatio) {
+        return new RetryBudget(retryRatio, 10, 10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Record that a new call has been made.
+     */
+    public void recordFirstAttempt() {
+        firstAttempts.increment();
+    }
+
+    /**
+     * Try to withdraw a retry from the budget.
+     *
+     * @return true if the retry may go ahead, false if the budget is exhausted
+     */
+    public boolean tryAcquireRetry() {
+        long allowed = minRetriesPerWindow + (long) (retryRatio * firstAttempts.sum());
+        if (retries.sum() >= allowed) {
+            return false;
+        }
+        retries.increment();
+        return true;
+    }
+
+}
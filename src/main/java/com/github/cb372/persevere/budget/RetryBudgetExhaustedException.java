@@ -0,0 +1,16 @@
+package com.github.cb372.persevere.budget;
+
+/**
+ * The exception in a failed {@link com.github.cb372.persevere.ExecutionResult}
+ * when an action could have been retried, but the shared {@link RetryBudget} was exhausted.
+ *
+ * The cause is the exception thrown by the last attempt.
+ */
+public final class RetryBudgetExhaustedException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public RetryBudgetExhaustedException(Exception cause) {
+        super("Retry budget exhausted", cause);
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.github.cb372.persevere.cache;
+
+/**
+ * The result of looking up a value in a {@link RetryingCache}.
+ */
+public final class CachedResult<V> {
+    /**
+     * Is there a value, either freshly loaded or cached
+     */
+    public final boolean success;
+
+    /**
+     * The value. Will be null if there is no value.
+     */
+    public final V value;
+
+    /**
+     * Is the value stale, i.e. past its time to live, because loading a fresh one failed
+     */
+    public final boolean stale;
+
+    /**
+     * The exception from the failed attempt to load a fresh value, if the value is stale or there is no value.
+     * Otherwise null.
+     */
+    public final Exception exception;
+
+    private CachedResult(boolean success, V value, boolean stale, Exception exception) {
+        this.success = success;
+        this.value = value;
+        this.stale = stale;
+        this.exception = exception;
+    }
+
+    public static <V> CachedResult<V> fresh(V value) {
+        return new CachedResult<V>(true, value, false, null);
+    }
+
+    public static <V> CachedResult<V> stale(V value, Exception exception) {
+        return new CachedResult<V>(true, value, true, exception);
+    }
+
+    public static <V> CachedResult<V> failure(Exception exception) {
+        if (exception == null) {
+            throw new IllegalArgumentException("Exception should not be null if there is no value");
+        }
+        return new CachedResult<V>(false, null, false, exception);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CachedResult<?> that = (CachedResult<?>) o;
+
+        if (success != that.success) return false;
+        if (stale != that.stale) return false;
+        if (exception != null ? !exception.equals(that.exception) : that.exception != null) return false;
+        if (value != null ? !value.equals(that.value) : that.value != null) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (success ? 1 : 0);
+        result = 31 * result + (value != null ? value.hashCode() : 0);
+        result = 31 * result + (stale ? 1 : 0);
+        result = 31 * result + (exception != null ? exception.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        if (!success) {
+            return String.format("Failure. Exception message: %s", exception.getMessage());
+        } else if (stale) {
+            return String.format("Stale value: %s. Exception message: %s", value, exception.getMessage());
+        } else {
+            return String.format("Fresh value: %s", value);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.github.cb372.persevere.cache;
+
+import com.github.cb372.persevere.ExecutionResult;
+import com.github.cb372.persevere.action.GiveUp;
+import com.github.cb372.persevere.action.RetryableAction;
+import com.github.cb372.persevere.coalesce.RequestCoalescer;
+import com.github.cb372.persevere.delay.DelayStrategy;
+import com.github.cb372.persevere.impl.PersevereRunner;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A cache in front of read actions, which loads missing or expired values with retries,
+ * and falls back to the last good value when loading fails.
+ *
+ * <ul>
+ *     <li>A value younger than its time to live is returned straight from the cache, with no retry chain at all.</li>
+ *     <li>Once a value is older than the refresh-ahead point (a fraction of its time to live), the next lookup
+ *     returns it and also reloads it in the background, so that frequently used values never expire.</li>
+ *     <li>A missing or expired value is loaded with retries. Concurrent lookups of the same key share one load.</li>
+ *     <li>If loading fails after all retries, the last good value is returned, marked as stale,
+ *     so that callers keep being served during an outage.</li>
+ * </ul>
+ *
+ * The cache holds at most maxSize keys. When it is full, keys are evicted in roughly least recently used order
+ * (the CLOCK algorithm: a key that has been looked up since it was last considered gets a second chance).
+ * A value that is too stale to be served any more (older than its time to live plus the max stale)
+ * is dropped when it is looked up, or when the clock hand passes it. The hand moves a couple of steps
+ * every time a value is stored, so dead values are dropped even while the cache is not full.
+ * Lookups and evictions are lock-free.
+ */
+public final class RetryingCache<K, V> {
+    private final RequestCoalescer<K> loads;
+    private final DelayStrategy delayStrategy;
+    private final int maxRetries;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long refreshAheadNanos;
+    private final long maxStaleNanos;
+
+    // how far the clock hand moves each time a value is stored, if the cache is not full
+    private static final int SWEEP_STEPS = 2;
+
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+    // the CLOCK: every key in the cache, in the order it will be considered for eviction
+    private final ConcurrentLinkedQueue<K> clock = new ConcurrentLinkedQueue<K>();
+    // the keys in the clock, so that a key is never queued twice. It may briefly include invalidated keys.
+    private final Set<K> queued = ConcurrentHashMap.<K>newKeySet();
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+
+    private RetryingCache(Builder builder) {
+        this.loads = new RequestCoalescer<K>(builder.runner, Math.min(builder.maxSize, 1024));
+        this.delayStrategy = builder.delayStrategy;
+        this.maxRetries = builder.maxRetries;
+        this.maxSize = builder.maxSize;
+        this.ttlNanos = builder.ttlNanos;
+        this.refreshAheadNanos = (long) (builder.ttlNanos * builder.refreshAheadFraction);
+        this.maxStaleNanos = builder.maxStaleNanos;
+    }
+
+    /**
+     * @param runner used to load values, so its retry budget, circuit breaker etc. apply
+     */
+    public static Builder builder(PersevereRunner runner) {
+        return new Builder(runner);
+    }
+
+    /**
+     * Look up the value for the given key, loading it with the given action if it is missing or expired.
+     *
+     * @param key the key. Lookups with equal keys must load the same value.
+     * @param loader loads the value, with retries. Only used if the value needs to be (re)loaded.
+     */
+    public CompletionStage<CachedResult<V>> get(final K key, RetryableAction<V> loader) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            entry.accessed = true;
+            long age = System.nanoTime() - entry.loadedAtNanos;
+            if (isDead(age)) {
+                entries.remove(key, entry);
+            } else if (age < ttlNanos) {
+                if (age >= refreshAheadNanos && entry.refreshing.compareAndSet(false, true)) {
+                    refresh(key, entry, loader);
+                }
+                return entry.fresh;
+            }
+        }
+        return load(key, loader).thenApply(new Function<ExecutionResult<V>, CachedResult<V>>() {
+            @Override
+            public CachedResult<V> apply(ExecutionResult<V> result) {
+                if (result.success) {
+                    return CachedResult.fresh(result.result);
+                }
+                Entry<V> latest = entries.get(key);
+                if (latest != null) {
+                    long age = System.nanoTime() - latest.loadedAtNanos;
+                    if (age < ttlNanos) {
+                        // somebody else managed to load it in the meantime
+                        return CachedResult.fresh(latest.value);
+                    }
+                    if (!isDead(age)) {
+                        return CachedResult.stale(latest.value, result.exception);
+                    }
+                }
+                return CachedResult.failure(result.exception);
+            }
+        });
+    }
+
+    /**
+     * Remove the value for the given key, so that the next lookup loads it again.
+     */
+    public void invalidate(K key) {
+        entries.remove(key);
+        // the key stays queued until the clock hand reaches it, but it must not hold up eviction forever
+        sweep(SWEEP_STEPS);
+    }
+
+    /**
+     * @return the number of keys in the cache, including those whose values have expired but are kept for fallback
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    // visible for testing
+    int getQueuedCount() {
+        return queued.size();
+    }
+
+    private void refresh(final K key, final Entry<V> entry, RetryableAction<V> loader) {
+        load(key, loader).whenComplete(new BiConsumer<ExecutionResult<V>, Throwable>() {
+            @Override
+            public void accept(ExecutionResult<V> result, Throwable throwable) {
+                if (throwable != null || !result.success) {
+                    // keep serving the current value, and try again on the next lookup
+                    entry.refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Load the value with retries, sharing the load with concurrent lookups of the same key.
+     * The value is stored by the load itself, so it is stored once however many lookups share it.
+     */
+    private CompletionStage<ExecutionResult<V>> load(final K key, final RetryableAction<V> loader) {
+        return loads.persevereAsync(key, new RetryableAction<V>() {
+            @Override
+            public V execute(int retryCount) throws GiveUp, Exception {
+                V value = loader.execute(retryCount);
+                store(key, value);
+                return value;
+            }
+        }, delayStrategy, maxRetries);
+    }
+
+    private void store(K key, V value) {
+        entries.put(key, new Entry<V>(value, System.nanoTime()));
+        if (queued.add(key)) {
+            clock.offer(key);
+        }
+        sweep(SWEEP_STEPS);
+    }
+
+    private boolean isDead(long age) {
+        return age - ttlNanos >= maxStaleNanos;
+    }
+
+    /**
+     * Move the clock hand: drop keys that were invalidated or whose values are dead,
+     * and evict keys until the cache is within its max size.
+     *
+     * @param steps how many keys to look at if the cache is not over its max size
+     */
+    private void sweep(int steps) {
+        if (!evicting.compareAndSet(false, true)) {
+            // somebody else is already sweeping
+            return;
+        }
+        try {
+            // every key gets at most one second chance, so this terminates
+            int budget = 2 * queued.size() + 1;
+            while (budget-- > 0) {
+                boolean full = queued.size() > maxSize;
+                if (!full && steps-- <= 0) {
+                    return;
+                }
+                K key = clock.poll();
+                if (key == null) {
+                    return;
+                }
+                Entry<V> entry = entries.get(key);
+                if (entry != null && isDead(System.nanoTime() - entry.loadedAtNanos)) {
+                    entries.remove(key, entry);
+                    entry = null;
+                }
+                if (entry == null) {
+                    dequeue(key);
+                } else if (!full) {
+                    clock.offer(key);
+                } else if (entry.accessed) {
+                    entry.accessed = false;
+                    clock.offer(key);
+                } else if (entries.remove(key, entry)) {
+                    dequeue(key);
+                } else {
+                    // reloaded while we were looking at it
+                    clock.offer(key);
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private void dequeue(K key) {
+        queued.remove(key);
+        // the key may have been stored again since we found it missing
+        if (entries.containsKey(key) && queued.add(key)) {
+            clock.offer(key);
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long loadedAtNanos;
+        // shared by every lookup that hits this entry, so a hit allocates nothing.
+        // A minimal stage, so that one caller cannot complete or obtrude it for everybody else
+        final CompletionStage<CachedResult<V>> fresh;
+        final AtomicBoolean refreshing = new AtomicBoolean(false);
+        volatile boolean accessed = false;
+
+        Entry(V value, long loadedAtNanos) {
+            this.value = value;
+            this.loadedAtNanos = loadedAtNanos;
+            this.fresh = CompletableFuture.completedStage(CachedResult.fresh(value));
+        }
+    }
+
+    /**
+     * Builds a {@link RetryingCache}. A max size, time to live and delay strategy are required.
+     */
+    public static final class Builder {
+        private final PersevereRunner runner;
+        private DelayStrategy delayStrategy;
+        private int maxRetries = 3;
+        private int maxSize = 0;
+        private long ttlNanos = 0L;
+        private double refreshAheadFraction = 1.0;
+        private long maxStaleNanos = Long.MAX_VALUE / 2;
+
+        private Builder(PersevereRunner runner) {
+            if (runner == null) {
+                throw new IllegalArgumentException("Please provide a PersevereRunner");
+            }
+            this.runner = runner;
+        }
+
+        public Builder delayStrategy(DelayStrategy delayStrategy) {
+            this.delayStrategy = delayStrategy;
+            return this;
+        }
+
+        /**
+         * @param maxRetries the max retries when loading a value. Defaults to 3.
+         */
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public Builder maxSize(int maxSize) {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("Max size must be >= 1");
+            }
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * @param ttl how long a value is fresh for
+         */
+        public Builder timeToLive(long ttl, TimeUnit unit) {
+            if (ttl <= 0) {
+                throw new IllegalArgumentException("Time to live must be greater than zero");
+            }
+            this.ttlNanos = unit.toNanos(ttl);
+            return this;
+        }
+
+        /**
+         * @param fraction the fraction of its time to live after which a value is reloaded in the background
+         *                 the next time it is looked up, e.g. 0.8. By default values are not refreshed ahead.
+         */
+        public Builder refreshAhead(double fraction) {
+            if (!(fraction > 0.0 && fraction < 1.0)) {
+                throw new IllegalArgumentException("Refresh-ahead fraction must be between 0 and 1");
+            }
+            this.refreshAheadFraction = fraction;
+            return this;
+        }
+
+        /**
+         * @param maxStale how long after expiring a value may still be served as stale if loading fails.
+         *                 By default there is no limit, other than eviction.
+         */
+        public Builder maxStale(long maxStale, TimeUnit unit) {
+            if (maxStale < 0) {
+                throw new IllegalArgumentException("Max stale must not be negative");
+            }
+            this.maxStaleNanos = unit.toNanos(maxStale);
+            return this;
+        }
+
+        public <K, V> RetryingCache<K, V> build() {
+            if (delayStrategy == null) {
+                throw new IllegalStateException("Please provide a DelayStrategy");
+            }
+            if (maxSize == 0) {
+                throw new IllegalStateException("Please provide a max size");
+            }
+            if (ttlNanos == 0L) {
+                throw new IllegalStateException("Please provide a time to live");
+            }
+            return new RetryingCache<K, V>(this);
+        }
+    }
+
+}
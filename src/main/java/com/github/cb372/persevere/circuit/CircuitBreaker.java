@@ -0,0 +1,240 @@
+package com.github.cb372.persevere.circuit;
+
+import com.github.cb372.persevere.impl.SlidingWindowCounter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A circuit breaker that can be shared by all actions calling the same dependency.
+ *
+ * <ul>
+ *   <li>While CLOSED, all attempts are permitted, and the failure rate over a sliding window is tracked.
+ *       If it reaches the threshold (and enough attempts have been made), the breaker opens.</li>
+ *   <li>While OPEN, no attempts are permitted. After the open duration has elapsed, the breaker becomes half-open.</li>
+ *   <li>While HALF_OPEN, a limited number of trial attempts are permitted.
+ *       If they all succeed the breaker closes, but a single failure opens it again.</li>
+ * </ul>
+ *
+ * All state transitions are made by compare-and-set on a single immutable snapshot, so the breaker is lock-free.
+ *
+ * Each permission belongs to the generation of the state that granted it, and a new generation starts
+ * whenever the breaker changes state (or starts a new round of half-open trials).
+ * Outcomes reported against an earlier generation are ignored, so e.g. a slow attempt that was permitted
+ * while CLOSED cannot be mistaken for a half-open trial.
+ */
+public final class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Returned by {@link #tryAcquirePermission()} when an attempt is not permitted.
+     */
+    public static final long NOT_PERMITTED = -1L;
+
+    private static final int BUCKETS_PER_WINDOW = 10;
+
+    private final double failureRateThreshold;
+    private final int minimumCalls;
+    private final long openNanos;
+    private final int halfOpenTrials;
+    private final SlidingWindowCounter calls;
+    private final SlidingWindowCounter failures;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>(Snapshot.CLOSED);
+
+    /**
+     * @param failureRateThreshold the fraction of failed attempts (between 0 and 1) at which the breaker opens
+     * @param minimumCalls the minimum number of attempts in the window before the failure rate is considered
+     * @param window the length of the sliding window over which the failure rate is calculated
+     * @param windowUnit the unit of window
+     * @param openDuration how long the breaker stays open before allowing trial attempts
+     * @param openUnit the unit of openDuration
+     * @param halfOpenTrials the number of trial attempts that must succeed before the breaker closes again
+     */
+    public CircuitBreaker(double failureRateThreshold,
+                          int minimumCalls,
+                          long window, TimeUnit windowUnit,
+                          long openDuration, TimeUnit openUnit,
+                          int halfOpenTrials) {
+        if (failureRateThreshold <= 0.0 || failureRateThreshold > 1.0) {
+            throw new IllegalArgumentException("Failure rate threshold must be greater than 0 and at most 1");
+        }
+        if (minimumCalls <= 0) {
+            throw new IllegalArgumentException("Minimum calls must be greater than zero");
+        }
+        if (openDuration < 0) {
+            throw new IllegalArgumentException("Open duration must not be negative");
+        }
+        if (halfOpenTrials <= 0) {
+            throw new IllegalArgumentException("Half-open trials must be greater than zero");
+        }
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumCalls = minimumCalls;
+        this.openNanos = openUnit.toNanos(openDuration);
+        this.halfOpenTrials = halfOpenTrials;
+        this.calls = new SlidingWindowCounter(window, windowUnit, BUCKETS_PER_WINDOW);
+        this.failures = new SlidingWindowCounter(window, windowUnit, BUCKETS_PER_WINDOW);
+    }
+
+    /**
+     * A breaker that opens when the given fraction of at least 20 attempts in a 10 second window fail,
+     * and stays open for the given duration before allowing a single trial attempt.
+     */
+    public static CircuitBreaker failureRate(double failureRateThreshold, long openDuration, TimeUnit unit) {
+        return new CircuitBreaker(failureRateThreshold, 20, 10, TimeUnit.SECONDS, openDuration, unit, 1);
+    }
+
+    public State getState() {
+        return snapshot.get().state;
+    }
+
+    /**
+     * @return true if the breaker is open and would reject an attempt made now.
+     * Unlike {@link #tryAcquirePermission()}, this does not use up a half-open trial.
+     */
+    public boolean isRejecting() {
+        Snapshot s = snapshot.get();
+        switch (s.state) {
+            case OPEN:
+                return System.nanoTime() - s.since < openNanos;
+            case HALF_OPEN:
+                return s.trials >= halfOpenTrials && System.nanoTime() - s.since < openNanos;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Ask whether an attempt may be made now.
+     * If it is, the outcome of the attempt must be reported using {@link #onSuccess(long)} or {@link #onFailure(long)},
+     * or the permission given back using {@link #releasePermission(long)}, passing the permission returned here.
+     *
+     * @return the permission, or {@link #NOT_PERMITTED} if the attempt is not permitted
+     */
+    public long tryAcquirePermission() {
+        while (true) {
+            Snapshot s = snapshot.get();
+            Snapshot next;
+            if (s.state == State.CLOSED) {
+                return s.generation;
+            } else if (s.state == State.HALF_OPEN && s.trials < halfOpenTrials) {
+                next = new Snapshot(State.HALF_OPEN, s.since, s.trials + 1, s.successes, s.generation);
+            } else {
+                // Either OPEN, or HALF_OPEN with all trials in progress.
+                // In the latter case, if the trials never reported back (e.g. they were cancelled),
+                // start a new round of trials once the open duration has elapsed again.
+                long now = System.nanoTime();
+                if (now - s.since < openNanos) {
+                    return NOT_PERMITTED;
+                }
+                next = new Snapshot(State.HALF_OPEN, now, 1, 0, s.generation + 1);
+            }
+            if (snapshot.compareAndSet(s, next)) {
+                return next.generation;
+            }
+        }
+    }
+
+    /**
+     * Give back a permission without reporting an outcome, because the attempt was never made
+     * or its outcome says nothing about the dependency (e.g. it was cancelled, or gave up).
+     * While half-open, this frees the trial for another attempt.
+     *
+     * @param permission the permission returned by {@link #tryAcquirePermission()}
+     */
+    public void releasePermission(long permission) {
+        while (true) {
+            Snapshot s = snapshot.get();
+            if (s.generation != permission || s.state != State.HALF_OPEN || s.trials == 0) {
+                return;
+            }
+            if (snapshot.compareAndSet(s, new Snapshot(State.HALF_OPEN, s.since, s.trials - 1, s.successes, s.generation))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Record that a permitted attempt succeeded.
+     *
+     * @param permission the permission returned by {@link #tryAcquirePermission()}
+     */
+    public void onSuccess(long permission) {
+        while (true) {
+            Snapshot s = snapshot.get();
+            if (s.generation != permission) {
+                return;
+            }
+            switch (s.state) {
+                case CLOSED:
+                    calls.increment();
+                    return;
+                case HALF_OPEN:
+                    Snapshot next = (s.successes + 1 >= halfOpenTrials)
+                            ? new Snapshot(State.CLOSED, 0L, 0, 0, s.generation + 1)
+                            : new Snapshot(State.HALF_OPEN, s.since, s.trials, s.successes + 1, s.generation);
+                    if (snapshot.compareAndSet(s, next)) {
+                        if (next.state == State.CLOSED) {
+                            calls.reset();
+                            failures.reset();
+                        }
+                        return;
+                    }
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Record that a permitted attempt failed.
+     *
+     * @param permission the permission returned by {@link #tryAcquirePermission()}
+     */
+    public void onFailure(long permission) {
+        Snapshot s = snapshot.get();
+        if (s.generation != permission) {
+            return;
+        }
+        switch (s.state) {
+            case CLOSED:
+                calls.increment();
+                failures.increment();
+                long total = calls.sum();
+                if (total >= minimumCalls && failures.sum() >= failureRateThreshold * total) {
+                    trip(s);
+                }
+                return;
+            case HALF_OPEN:
+                trip(s);
+                return;
+            default:
+                return;
+        }
+    }
+
+    private void trip(Snapshot expected) {
+        // if the CAS fails, another thread has already changed the state
+        snapshot.compareAndSet(expected, new Snapshot(State.OPEN, System.nanoTime(), 0, 0, expected.generation + 1));
+    }
+
+    private static final class Snapshot {
+        static final Snapshot CLOSED = new Snapshot(State.CLOSED, 0L, 0, 0, 0L);
+
+        final State state;
+        final long since;
+        final int trials;
+        final int successes;
+        final long generation;
+
+        Snapshot(State state, long since, int trials, int successes, long generation) {
+            this.state = state;
+            this.since = since;
+            this.trials = trials;
+            this.successes = successes;
+            this.generation = generation;
+        }
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.github.cb372.persevere.circuit;
+
+/**
+ * The exception in a failed {@link com.github.cb372.persevere.ExecutionResult}
+ * when an attempt was not made because the {@link CircuitBreaker} was open.
+ */
+public final class CircuitOpenException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException() {
+        super("Circuit breaker is open");
+    }
+
+}
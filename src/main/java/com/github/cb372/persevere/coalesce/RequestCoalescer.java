@@ -0,0 +1,216 @@
+package com.github.cb372.persevere.coalesce;
+
+import com.github.cb372.persevere.ExecutionResult;
+import com.github.cb372.persevere.action.AsyncRetryableAction;
+import com.github.cb372.persevere.action.RetryableAction;
+import com.github.cb372.persevere.delay.DelayStrategy;
+import com.github.cb372.persevere.impl.PersevereRunner;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Coalesces concurrent calls with the same key into a single retry chain ("single-flight").
+ *
+ * The first call for a key starts the action as usual. Any call with the same key made while that one is
+ * still in progress does not start the action again: it waits for the same chain of attempts and gets the same
+ * {@link ExecutionResult}. Once the chain completes, the next call for the key starts a new one.
+ * This stops a thundering herd of identical calls (e.g. for a cold cache key) from each retrying against
+ * a struggling dependency.
+ *
+ * Each caller gets its own future. Cancelling it only detaches that caller;
+ * the shared chain is cancelled when every caller waiting on it has cancelled.
+ *
+ * Calls in progress are tracked in a {@link ConcurrentHashMap}, whose lookups are lock-free and whose updates
+ * lock only a single bin, so calls for different keys don't contend with each other.
+ * It is up to the caller to only use the same key for actions that return the same type.
+ *
+ * @param <K> the type of key identifying identical calls. Keys must have sensible equals and hashCode.
+ */
+public final class RequestCoalescer<K> {
+    private final PersevereRunner runner;
+    private final ConcurrentMap<K, Flight> inFlight;
+
+    /**
+     * @param runner the runner used to start the action for each key
+     */
+    public RequestCoalescer(PersevereRunner runner) {
+        this(runner, 16);
+    }
+
+    /**
+     * @param runner the runner used to start the action for each key
+     * @param expectedKeys roughly how many keys you expect to be in flight at once, to size the map
+     */
+    public RequestCoalescer(PersevereRunner runner, int expectedKeys) {
+        if (runner == null) {
+            throw new IllegalArgumentException("Please provide a PersevereRunner");
+        }
+        if (expectedKeys < 1) {
+            throw new IllegalArgumentException("Expected keys must be >= 1");
+        }
+        this.runner = runner;
+        this.inFlight = new ConcurrentHashMap<K, Flight>(expectedKeys);
+    }
+
+    /**
+     * Perform the given action, retrying if it fails, unless a call with the same key is already in progress,
+     * in which case wait for that call's result instead.
+     *
+     * @see PersevereRunner#persevere(RetryableAction, DelayStrategy, int)
+     */
+    public <T> Future<ExecutionResult<T>> persevere(K key, RetryableAction<T> action, DelayStrategy delayStrategy, int maxRetries) {
+        return coalesce(key, action, null, delayStrategy, maxRetries);
+    }
+
+    /**
+     * Like {@link #persevere(Object, RetryableAction, DelayStrategy, int)}, but returns a {@link CompletionStage}.
+     */
+    public <T> CompletionStage<ExecutionResult<T>> persevereAsync(K key, RetryableAction<T> action, DelayStrategy delayStrategy, int maxRetries) {
+        return coalesce(key, action, null, delayStrategy, maxRetries);
+    }
+
+    /**
+     * Perform the given natively asynchronous action, retrying if it fails,
+     * unless a call with the same key is already in progress, in which case wait for that call's result instead.
+     *
+     * @see PersevereRunner#persevereAsyncAction(AsyncRetryableAction, DelayStrategy, int)
+     */
+    public <T> CompletionStage<ExecutionResult<T>> persevereAsyncAction(K key, AsyncRetryableAction<T> action, DelayStrategy delayStrategy, int maxRetries) {
+        return coalesce(key, null, action, delayStrategy, maxRetries);
+    }
+
+    /**
+     * @return the number of keys with a call in progress
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private <T> CompletableFuture<ExecutionResult<T>> coalesce(K key,
+                                                               RetryableAction<T> action,
+                                                               AsyncRetryableAction<T> asyncAction,
+                                                               DelayStrategy delayStrategy,
+                                                               int maxRetries) {
+        if (key == null) {
+            throw new IllegalArgumentException("Please provide a key");
+        }
+        while (true) {
+            Flight flight = inFlight.get(key);
+            if (flight == null) {
+                Flight newFlight = new Flight(key);
+                flight = inFlight.putIfAbsent(key, newFlight);
+                if (flight == null) {
+                    // we won the race, so we start the chain. We already count as a waiter.
+                    newFlight.start(action, asyncAction, delayStrategy, maxRetries);
+                    return newFlight.subscribe();
+                }
+            }
+            if (flight.join()) {
+                return flight.subscribe();
+            }
+            // everybody waiting on that flight cancelled, so it is being torn down. Start a new one.
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * One shared retry chain, and the number of callers waiting on it.
+     */
+    private final class Flight implements BiConsumer<ExecutionResult<?>, Throwable> {
+        private final K key;
+        private final CompletableFuture<ExecutionResult<?>> result = new CompletableFuture<ExecutionResult<?>>();
+        private final AtomicInteger waiters = new AtomicInteger(1);
+        private volatile CompletableFuture<? extends ExecutionResult<?>> chain;
+
+        Flight(K key) {
+            this.key = key;
+        }
+
+        <T> void start(RetryableAction<T> action,
+                       AsyncRetryableAction<T> asyncAction,
+                       DelayStrategy delayStrategy,
+                       int maxRetries) {
+            CompletionStage<ExecutionResult<T>> stage;
+            try {
+                stage = action != null
+                        ? runner.persevereAsync(action, delayStrategy, maxRetries)
+                        : runner.persevereAsyncAction(asyncAction, delayStrategy, maxRetries);
+            } catch (RuntimeException e) {
+                inFlight.remove(key, this);
+                result.completeExceptionally(e);
+                throw e;
+            }
+            CompletableFuture<ExecutionResult<T>> started = stage.toCompletableFuture();
+            chain = started;
+            started.whenComplete(this);
+        }
+
+        /**
+         * Called when the shared chain completes.
+         */
+        @Override
+        public void accept(ExecutionResult<?> executionResult, Throwable throwable) {
+            // remove first, so that calls arriving after completion start a fresh chain
+            inFlight.remove(key, this);
+            if (throwable == null) {
+                result.complete(executionResult);
+            } else {
+                result.completeExceptionally(throwable);
+            }
+        }
+
+        /**
+         * @return false if every waiter has already cancelled, so this flight must not be joined
+         */
+        boolean join() {
+            while (true) {
+                int current = waiters.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (waiters.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void leave() {
+            if (waiters.decrementAndGet() == 0) {
+                inFlight.remove(key, this);
+                chain.cancel(false);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> CompletableFuture<ExecutionResult<T>> subscribe() {
+            final CompletableFuture<ExecutionResult<T>> subscriber = new CompletableFuture<ExecutionResult<T>>() {
+                @Override
+                public boolean cancel(boolean mayInterruptIfRunning) {
+                    boolean cancelled = super.cancel(mayInterruptIfRunning);
+                    if (cancelled) {
+                        leave();
+                    }
+                    return cancelled;
+                }
+            };
+            result.whenComplete(new BiConsumer<ExecutionResult<?>, Throwable>() {
+                @Override
+                public void accept(ExecutionResult<?> executionResult, Throwable throwable) {
+                    if (throwable == null) {
+                        subscriber.complete((ExecutionResult<T>) executionResult);
+                    } else {
+                        subscriber.completeExceptionally(throwable);
+                    }
+                }
+            });
+            return subscriber;
+        }
+    }
+
+}
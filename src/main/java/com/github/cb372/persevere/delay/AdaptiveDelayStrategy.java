@@ -0,0 +1,159 @@
+package com.github.cb372.persevere.delay;
+
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A closed-loop delay strategy, shared between all calls to the same dependency,
+ * that adapts its delays to the dependency's observed error rate and latency.
+ *
+ * It keeps exponentially weighted moving averages of the attempt error rate and of the latency of successful attempts.
+ * The delay before the first retry is the larger of minDelay and the average success latency
+ * while the dependency is healthy, rising towards maxDelay as the error rate approaches 100%.
+ * Equal jitter is applied to spread retries out.
+ *
+ * A call only backs off further with each of its own retries if its last attempt failed in a way
+ * that suggests the dependency is overloaded: by default a timeout ({@link TimeoutException},
+ * which includes attempt timeouts, or an {@link InterruptedIOException} such as a socket timeout),
+ * plus any other exception types given to the constructor. The delay is then multiplied by the multiplier
+ * for each retry, and is also at least (multiplier - 1) times the time the call has taken so far,
+ * because slow attempts are themselves load on the dependency. All of this is capped at maxDelay.
+ * Other failures are retried after the delay given by the error rate alone.
+ * If the last exception is not known, e.g. when called via {@link #getNextDelayMs(int)}, the call backs off.
+ *
+ * So while the dependency is down, callers back off hard; as soon as attempts (including new calls' first attempts)
+ * start to succeed again, the error rate falls and pending retries come back quickly.
+ *
+ * Use {@link DelayStrategies#adaptive(long, double, long)} to create one. Updates are lock-free.
+ */
+public final class AdaptiveDelayStrategy implements FeedbackDelayStrategy, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final double DEFAULT_SMOOTHING = 0.1;
+    private static final double NANOS_PER_MS = (double) TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final Class<?>[] DEFAULT_OVERLOAD_EXCEPTIONS = { TimeoutException.class, InterruptedIOException.class };
+
+    private final long minDelayMs;
+    private final double multiplier;
+    private final long maxDelayMs;
+    private final double smoothing;
+    private final Class<?>[] overloadExceptions;
+
+    // doubles, stored as raw long bits so they can be updated with CAS
+    private final AtomicLong errorRate = new AtomicLong(Double.doubleToRawLongBits(0.0));
+    private final AtomicLong successLatencyNanos = new AtomicLong(Double.doubleToRawLongBits(0.0));
+
+    /**
+     * @param minDelayMs the shortest delay, used when the dependency is healthy
+     * @param multiplier how much the delay grows with each retry of the same call
+     * @param maxDelayMs the longest delay, approached when every attempt is failing
+     * @param smoothing the weight of each new observation in the moving averages, between 0 (exclusive) and 1.
+     *                  Larger values react faster but are noisier.
+     * @param overloadExceptions exception types that, like timeouts, mean the dependency is overloaded,
+     *                           e.g. an exception for an HTTP 503 response
+     */
+    @SafeVarargs
+    public AdaptiveDelayStrategy(long minDelayMs, double multiplier, long maxDelayMs, double smoothing,
+                                 Class<? extends Exception>... overloadExceptions) {
+        if (minDelayMs <= 0) {
+            throw new IllegalArgumentException("Min delay must be greater than zero");
+        }
+        if (maxDelayMs < minDelayMs) {
+            throw new IllegalArgumentException("Max delay must be greater than or equal to min delay");
+        }
+        if (multiplier < 1.0 || Double.isNaN(multiplier) || Double.isInfinite(multiplier)) {
+            throw new IllegalArgumentException("Multiplier must be greater than or equal to 1.0");
+        }
+        if (!(smoothing > 0.0 && smoothing <= 1.0)) {
+            throw new IllegalArgumentException("Smoothing must be greater than 0 and at most 1");
+        }
+        this.minDelayMs = minDelayMs;
+        this.multiplier = multiplier;
+        this.maxDelayMs = maxDelayMs;
+        this.smoothing = smoothing;
+        this.overloadExceptions = Arrays.copyOf(DEFAULT_OVERLOAD_EXCEPTIONS, DEFAULT_OVERLOAD_EXCEPTIONS.length + overloadExceptions.length);
+        for (int i = 0; i < overloadExceptions.length; i++) {
+            this.overloadExceptions[DEFAULT_OVERLOAD_EXCEPTIONS.length + i] = overloadExceptions[i];
+        }
+    }
+
+    public AdaptiveDelayStrategy(long minDelayMs, double multiplier, long maxDelayMs) {
+        this(minDelayMs, multiplier, maxDelayMs, DEFAULT_SMOOTHING);
+    }
+
+    @Override
+    public void onAttemptSucceeded(long attemptNanos) {
+        update(errorRate, 0.0);
+        update(successLatencyNanos, (double) attemptNanos);
+    }
+
+    @Override
+    public void onAttemptFailed(Exception exception, long attemptNanos) {
+        update(errorRate, 1.0);
+    }
+
+    @Override
+    public long getNextDelayMs(int completedRetries) {
+        return getNextDelayMs(completedRetries, null, 0L);
+    }
+
+    @Override
+    public long getNextDelayMs(int completedRetries, Exception lastException, long elapsedNanos) {
+        double error = getErrorRate();
+        double floor = Math.max((double) minDelayMs, getSuccessLatencyNanos() / NANOS_PER_MS);
+        floor = Math.min(floor, (double) maxDelayMs);
+        // squared, so that occasional errors barely slow retries down, but an outage quickly pushes them to the max
+        double delay = floor + (maxDelayMs - floor) * error * error;
+        if (lastException == null || isOverload(lastException)) {
+            delay *= Math.pow(multiplier, Math.max(0, completedRetries));
+            delay = Math.max(delay, (multiplier - 1.0) * elapsedNanos / NANOS_PER_MS);
+        }
+        long ceiling = delay >= maxDelayMs ? maxDelayMs : (long) delay;
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+    }
+
+    /**
+     * @return the moving average of the attempt error rate, between 0 and 1
+     */
+    public double getErrorRate() {
+        return Double.longBitsToDouble(errorRate.get());
+    }
+
+    /**
+     * @return the moving average of the latency of successful attempts, in nanoseconds
+     */
+    public double getSuccessLatencyNanos() {
+        return Double.longBitsToDouble(successLatencyNanos.get());
+    }
+
+    /**
+     * @return true if the exception means the dependency is overloaded, so the call should back off
+     */
+    public boolean isOverload(Exception exception) {
+        for (Class<?> type : overloadExceptions) {
+            if (type.isInstance(exception)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void update(AtomicLong average, double observation) {
+        while (true) {
+            long currentBits = average.get();
+            double current = Double.longBitsToDouble(currentBits);
+            double updated = current + smoothing * (observation - current);
+            if (average.compareAndSet(currentBits, Double.doubleToRawLongBits(updated))) {
+                return;
+            }
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package com.github.cb372.persevere.delay;
 
-import java.util.Random;
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Author: chris
@@ -8,48 +9,249 @@ import java.util.Random;
  */
 public final class DelayStrategies {
 
-    public static DelayStrategy fixedDelay(final long delayMs) {
+    public static DelayStrategy fixedDelay(long delayMs) {
         if (delayMs < 0) {
             throw new IllegalArgumentException("Delay must not be negative");
         }
-        return new DelayStrategy() {
-            @Override
-            public long getNextDelayMs(int completedRetries) {
-                return delayMs;
-            }
-        };
+        return new FixedDelay(delayMs);
     }
 
     public static DelayStrategy retryImmediately() {
         return fixedDelay(0L);
     }
 
-    public static DelayStrategy random(final int min, final int max) {
+    public static DelayStrategy random(int min, int max) {
         if (max <= min) {
             throw new IllegalArgumentException("Max must be greater than min");
         }
-        final Random random = new Random();
-        return new DelayStrategy() {
-            @Override
-            public long getNextDelayMs(int completedRetries) {
-                return min + random.nextInt(max - min);
-            }
-        };
+        return new RandomDelay(min, max);
     }
 
-    public static DelayStrategy exponential(final int firstDelay, final double multiplier) {
+    /**
+     * Exponentially increasing delay, with no cap other than {@link Long#MAX_VALUE}.
+     * After a few dozen retries the delays are effectively infinite, which is rarely what you want
+     * when retrying indefinitely.
+     *
+     * @deprecated use {@link #exponential(long, double, long)} with an explicit max delay
+     */
+    @Deprecated
+    public static DelayStrategy exponential(int firstDelay, double multiplier) {
+        return exponential(firstDelay, multiplier, Long.MAX_VALUE);
+    }
+
+    /**
+     * Exponentially increasing delay, capped at maxDelay.
+     * The delay never overflows, however many retries have been completed.
+     */
+    public static DelayStrategy exponential(long firstDelay, double multiplier, long maxDelay) {
+        checkExponentialArgs(firstDelay, multiplier, maxDelay);
+        return new Exponential(firstDelay, multiplier, maxDelay);
+    }
+
+    /**
+     * "Full jitter": a random delay between zero and the capped exponential delay.
+     * This spreads out retries from clients that failed at the same time, so they don't hit the server in waves.
+     */
+    public static DelayStrategy fullJitter(long firstDelay, double multiplier, long maxDelay) {
+        checkExponentialArgs(firstDelay, multiplier, maxDelay);
+        return new FullJitter(firstDelay, multiplier, maxDelay);
+    }
+
+    /**
+     * "Equal jitter": half of the capped exponential delay, plus a random delay of up to the other half.
+     * This guarantees some backoff while still spreading out retries.
+     */
+    public static DelayStrategy equalJitter(long firstDelay, double multiplier, long maxDelay) {
+        checkExponentialArgs(firstDelay, multiplier, maxDelay);
+        return new EqualJitter(firstDelay, multiplier, maxDelay);
+    }
+
+    /**
+     * "Decorrelated jitter": a random delay between firstDelay and three times the previous delay, capped at maxDelay.
+     *
+     * A {@link DelayStrategy} is stateless and may be shared between calls, so the previous delay is not known.
+     * Instead, the upper bound grows as firstDelay * 3^completedRetries, which is the largest value
+     * the previous delay could have had. The spread of delays is similar, without any per-call state.
+     */
+    public static DelayStrategy decorrelatedJitter(long firstDelay, long maxDelay) {
+        checkExponentialArgs(firstDelay, 3.0, maxDelay);
+        return new DecorrelatedJitter(firstDelay, maxDelay);
+    }
+
+    /**
+     * A closed-loop strategy that adapts to the dependency's observed error rate and latency.
+     * Share one instance between all calls to the same dependency.
+     *
+     * @see AdaptiveDelayStrategy
+     */
+    public static AdaptiveDelayStrategy adaptive(long minDelay, double multiplier, long maxDelay) {
+        return new AdaptiveDelayStrategy(minDelay, multiplier, maxDelay);
+    }
+
+    /**
+     * Like {@link #adaptive(long, double, long)}, but also backing off further with each retry of a call
+     * after the given exceptions, not just after timeouts.
+     *
+     * @see AdaptiveDelayStrategy
+     */
+    @SafeVarargs
+    public static AdaptiveDelayStrategy adaptive(long minDelay, double multiplier, long maxDelay,
+                                                 Class<? extends Exception>... overloadExceptions) {
+        return new AdaptiveDelayStrategy(minDelay, multiplier, maxDelay, AdaptiveDelayStrategy.DEFAULT_SMOOTHING, overloadExceptions);
+    }
+
+    /*
+     * The built-in strategies are serializable, so that they can be saved along with pending retries
+     * in a RetryJournal.
+     * They are named classes with fixed serialVersionUIDs, so that journals can be recovered by later versions.
+     */
+
+    private static final class FixedDelay implements DelayStrategy, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long delayMs;
+
+        FixedDelay(long delayMs) {
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public long getNextDelayMs(int completedRetries) {
+            return delayMs;
+        }
+    }
+
+    private static final class RandomDelay implements DelayStrategy, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int min;
+        private final int max;
+
+        RandomDelay(int min, int max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public long getNextDelayMs(int completedRetries) {
+            return min + ThreadLocalRandom.current().nextInt(max - min);
+        }
+    }
+
+    private static final class Exponential implements DelayStrategy, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long firstDelay;
+        private final double multiplier;
+        private final long maxDelay;
+
+        Exponential(long firstDelay, double multiplier, long maxDelay) {
+            this.firstDelay = firstDelay;
+            this.multiplier = multiplier;
+            this.maxDelay = maxDelay;
+        }
+
+        @Override
+        public long getNextDelayMs(int completedRetries) {
+            return cappedExponential(firstDelay, multiplier, maxDelay, completedRetries);
+        }
+    }
+
+    private static final class FullJitter implements DelayStrategy, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long firstDelay;
+        private final double multiplier;
+        private final long maxDelay;
+
+        FullJitter(long firstDelay, double multiplier, long maxDelay) {
+            this.firstDelay = firstDelay;
+            this.multiplier = multiplier;
+            this.maxDelay = maxDelay;
+        }
+
+        @Override
+        public long getNextDelayMs(int completedRetries) {
+            long ceiling = cappedExponential(firstDelay, multiplier, maxDelay, completedRetries);
+            return randomBetween(0L, ceiling);
+        }
+    }
+
+    private static final class EqualJitter implements DelayStrategy, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long firstDelay;
+        private final double multiplier;
+        private final long maxDelay;
+
+        EqualJitter(long firstDelay, double multiplier, long maxDelay) {
+            this.firstDelay = firstDelay;
+            this.multiplier = multiplier;
+            this.maxDelay = maxDelay;
+        }
+
+        @Override
+        public long getNextDelayMs(int completedRetries) {
+            long ceiling = cappedExponential(firstDelay, multiplier, maxDelay, completedRetries);
+            long half = ceiling / 2;
+            return half + randomBetween(0L, ceiling - half);
+        }
+    }
+
+    private static final class DecorrelatedJitter implements DelayStrategy, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long firstDelay;
+        private final long maxDelay;
+
+        DecorrelatedJitter(long firstDelay, long maxDelay) {
+            this.firstDelay = firstDelay;
+            this.maxDelay = maxDelay;
+        }
+
+        @Override
+        public long getNextDelayMs(int completedRetries) {
+            long ceiling = cappedExponential(firstDelay, 3.0, maxDelay, completedRetries);
+            return randomBetween(Math.min(firstDelay, ceiling), ceiling);
+        }
+    }
+
+    private static void checkExponentialArgs(long firstDelay, double multiplier, long maxDelay) {
         if (firstDelay <= 0) {
             throw new IllegalArgumentException("First delay must be greater than zero");
         }
-        if (multiplier < 1.0) {
+        if (multiplier < 1.0 || Double.isNaN(multiplier) || Double.isInfinite(multiplier)) {
             throw new IllegalArgumentException("Multiplier must be greater than or equal to 1.0");
         }
-        return new DelayStrategy() {
-            @Override
-            public long getNextDelayMs(int completedRetries) {
-                return (long) (firstDelay * Math.pow(multiplier, completedRetries));
-            }
-        };
+        if (maxDelay <= 0) {
+            throw new IllegalArgumentException("Max delay must be greater than zero");
+        }
+    }
+
+    private static long cappedExponential(long firstDelay, double multiplier, long maxDelay, int completedRetries) {
+        if (completedRetries <= 0) {
+            return Math.min(firstDelay, maxDelay);
+        }
+        // Math.pow returns infinity rather than overflowing, and the comparison is done as a double,
+        // so this is safe for any number of retries
+        double delay = firstDelay * Math.pow(multiplier, completedRetries);
+        if (delay >= maxDelay) {
+            return maxDelay;
+        }
+        return (long) delay;
+    }
+
+    /**
+     * @return a random value in the range [min, max] (inclusive)
+     */
+    private static long randomBetween(long min, long max) {
+        if (max <= min) {
+            return min;
+        }
+        if (max == Long.MAX_VALUE) {
+            return ThreadLocalRandom.current().nextLong(min, max);
+        }
+        return ThreadLocalRandom.current().nextLong(min, max + 1);
     }
 
 }
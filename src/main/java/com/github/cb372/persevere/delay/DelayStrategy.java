@@ -15,4 +15,18 @@ public interface DelayStrategy {
      */
     public long getNextDelayMs(int completedRetries);
 
+    /**
+     * Like {@link #getNextDelayMs(int)}, but with more information about the call,
+     * for strategies that want to react to what is actually happening.
+     * By default the extra information is ignored.
+     *
+     * @param completedRetries How many retries have been completed
+     * @param lastException the exception thrown by the attempt that just failed
+     * @param elapsedNanos how long ago the call started
+     * @return required delay in ms
+     */
+    public default long getNextDelayMs(int completedRetries, Exception lastException, long elapsedNanos) {
+        return getNextDelayMs(completedRetries);
+    }
+
 }
@@ -0,0 +1,28 @@
+package com.github.cb372.persevere.delay;
+
+/**
+ * A {@link DelayStrategy} that is told the outcome of every attempt made with it,
+ * so that it can adapt its delays to how the dependency is behaving.
+ *
+ * Feedback is given synchronously on the thread that finished the attempt,
+ * so implementations must be fast and thread-safe.
+ */
+public interface FeedbackDelayStrategy extends DelayStrategy {
+
+    /**
+     * An attempt succeeded.
+     *
+     * @param attemptNanos how long the attempt took
+     */
+    public void onAttemptSucceeded(long attemptNanos);
+
+    /**
+     * An attempt failed with a retryable exception.
+     * Exceptions that cause the action to give up are not reported, as they say nothing about the dependency's health.
+     *
+     * @param exception the exception thrown by the attempt
+     * @param attemptNanos how long the attempt took
+     */
+    public void onAttemptFailed(Exception exception, long attemptNanos);
+
+}
@@ -0,0 +1,330 @@
+package com.github.cb372.persevere.flow;
+
+import com.github.cb372.persevere.ExecutionResult;
+import com.github.cb372.persevere.action.BatchRetryableAction;
+import com.github.cb372.persevere.action.GiveUp;
+import com.github.cb372.persevere.action.RetryableAction;
+import com.github.cb372.persevere.delay.DelayStrategy;
+import com.github.cb372.persevere.impl.PersevereRunner;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link Flow.Processor} that performs an action on each element of a stream, retrying it if it fails,
+ * and emits the {@link ExecutionResult} of each element downstream.
+ *
+ * Up to maxConcurrency elements are processed at once. Elements are only requested from upstream
+ * as results are emitted downstream, so at most maxConcurrency elements are ever held (in flight or awaiting emission),
+ * and a slow subscriber slows the whole stream down rather than filling up memory.
+ *
+ * In ordered mode, results are emitted in the order the elements arrived,
+ * so one element's retries hold back the results of later elements (though not their processing).
+ * In unordered mode, results are emitted as soon as they are ready.
+ *
+ * An element whose action fails after all retries, or throws {@link GiveUp}, is emitted as a failed result;
+ * it does not fail the stream. An error from upstream is passed on once the results of all elements received
+ * before it have been emitted. Cancelling the subscription cancels upstream and any pending retries.
+ *
+ * The processor supports a single subscriber.
+ */
+public final class RetryingProcessor<I, T> implements Flow.Processor<I, ExecutionResult<T>> {
+    private final PersevereRunner runner;
+    private final BatchRetryableAction<I, T> action;
+    private final DelayStrategy delayStrategy;
+    private final int maxRetries;
+    private final int maxConcurrency;
+    private final boolean ordered;
+
+    // results ready to emit, or in ordered mode, every element in arrival order
+    private final ConcurrentLinkedQueue<Element> queue = new ConcurrentLinkedQueue<Element>();
+    // elements whose retries are still going, so that they can be cancelled
+    private final Set<Element> active = ConcurrentHashMap.newKeySet();
+    // elements received but not yet emitted
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicReference<Flow.Subscriber<? super ExecutionResult<T>>> subscriber =
+            new AtomicReference<Flow.Subscriber<? super ExecutionResult<T>>>();
+
+    private volatile Flow.Subscriber<? super ExecutionResult<T>> downstream;
+    private volatile Flow.Subscription upstream;
+    private volatile boolean upstreamDone = false;
+    private volatile Throwable upstreamError;
+    private volatile Throwable badRequest;
+    private volatile boolean cancelled = false;
+    // only touched while draining
+    private boolean terminated = false;
+
+    /**
+     * @param runner performs the action on each element, so its retry budget, circuit breaker etc. apply
+     * @param action the action to perform on each element
+     * @param delayStrategy the delay between retries of an element
+     * @param maxRetries the max retries per element. Negative means retry indefinitely.
+     * @param maxConcurrency the max number of elements held at once, in flight or awaiting emission
+     * @param ordered whether to emit results in the order the elements arrived
+     */
+    public RetryingProcessor(PersevereRunner runner,
+                             BatchRetryableAction<I, T> action,
+                             DelayStrategy delayStrategy,
+                             int maxRetries,
+                             int maxConcurrency,
+                             boolean ordered) {
+        if (runner == null) {
+            throw new IllegalArgumentException("Please provide a PersevereRunner");
+        }
+        if (action == null) {
+            throw new IllegalArgumentException("Please provide an action");
+        }
+        if (delayStrategy == null) {
+            throw new IllegalArgumentException("Please provide a DelayStrategy");
+        }
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("Max concurrency must be >= 1");
+        }
+        this.runner = runner;
+        this.action = action;
+        this.delayStrategy = delayStrategy;
+        this.maxRetries = maxRetries;
+        this.maxConcurrency = maxConcurrency;
+        this.ordered = ordered;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ExecutionResult<T>> s) {
+        if (s == null) {
+            throw new NullPointerException("Subscriber must not be null");
+        }
+        if (!subscriber.compareAndSet(null, s)) {
+            s.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            s.onError(new IllegalStateException("RetryingProcessor supports only one subscriber"));
+            return;
+        }
+        s.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    badRequest = new IllegalArgumentException("Requested " + n + " elements, but must request > 0");
+                    cancelAll();
+                } else {
+                    addRequest(n);
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                cancelAll();
+            }
+        });
+        // only now may the subscriber be signalled
+        downstream = s;
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        if (cancelled || badRequest != null) {
+            subscription.cancel();
+            return;
+        }
+        subscription.request(maxConcurrency);
+    }
+
+    @Override
+    public void onNext(I item) {
+        if (item == null) {
+            throw new NullPointerException("Element must not be null");
+        }
+        if (cancelled || badRequest != null) {
+            return;
+        }
+        pending.incrementAndGet();
+        Element element = new Element(item);
+        if (ordered) {
+            queue.offer(element);
+        }
+        active.add(element);
+        try {
+            CompletableFuture<ExecutionResult<T>> future =
+                    runner.persevereAsync(element, delayStrategy, maxRetries).toCompletableFuture();
+            element.future = future;
+            if (cancelled) {
+                future.cancel(false);
+            }
+            future.whenComplete(element);
+        } catch (RuntimeException e) {
+            element.accept(null, e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (throwable == null) {
+            throw new NullPointerException("Throwable must not be null");
+        }
+        upstreamError = throwable;
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    private void addRequest(long n) {
+        while (true) {
+            long current = requested.get();
+            if (current == Long.MAX_VALUE) {
+                return;
+            }
+            long updated = current + n;
+            if (updated < 0) {
+                updated = Long.MAX_VALUE;
+            }
+            if (requested.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    private void cancelAll() {
+        Flow.Subscription s = upstream;
+        if (s != null) {
+            s.cancel();
+        }
+        for (Element element : active) {
+            CompletableFuture<?> future = element.future;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Emit whatever can be emitted. Only one thread drains at a time; a thread that finds another draining
+     * leaves it a note to go round again, so no signal is missed and the subscriber is never called concurrently.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super ExecutionResult<T>> s = downstream;
+            if (s != null && !terminated) {
+                if (badRequest != null) {
+                    terminated = true;
+                    queue.clear();
+                    s.onError(badRequest);
+                } else if (cancelled) {
+                    terminated = true;
+                    queue.clear();
+                } else {
+                    emit(s);
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void emit(Flow.Subscriber<? super ExecutionResult<T>> s) {
+        long r = requested.get();
+        long emitted = 0L;
+        while (emitted != r && !cancelled) {
+            Element head = queue.peek();
+            if (head == null || head.result == null) {
+                break;
+            }
+            queue.poll();
+            pending.decrementAndGet();
+            s.onNext(head.result);
+            emitted++;
+        }
+        if (emitted != 0L) {
+            if (r != Long.MAX_VALUE) {
+                requested.addAndGet(-emitted);
+            }
+            Flow.Subscription up = upstream;
+            if (!upstreamDone && !cancelled && up != null) {
+                // replace the elements we have let go of
+                up.request(emitted);
+            }
+        }
+        if (!cancelled && upstreamDone && pending.get() == 0) {
+            terminated = true;
+            Throwable error = upstreamError;
+            if (error != null) {
+                s.onError(error);
+            } else {
+                s.onComplete();
+            }
+        }
+    }
+
+    /**
+     * One element of the stream, and the action to perform on it.
+     */
+    private final class Element implements RetryableAction<T>, BiConsumer<ExecutionResult<T>, Throwable> {
+        private final I item;
+        volatile CompletableFuture<ExecutionResult<T>> future;
+        volatile ExecutionResult<T> result;
+
+        Element(I item) {
+            this.item = item;
+        }
+
+        @Override
+        public T execute(int retryCount) throws GiveUp, Exception {
+            return action.execute(item, retryCount);
+        }
+
+        /**
+         * Called when the element's retries are over.
+         */
+        @Override
+        public void accept(ExecutionResult<T> executionResult, Throwable throwable) {
+            active.remove(this);
+            if (throwable instanceof CancellationException && cancelled) {
+                return;
+            }
+            if (throwable == null) {
+                result = executionResult;
+            } else if (throwable instanceof Exception) {
+                result = ExecutionResult.failure((Exception) throwable, 0);
+            } else {
+                result = ExecutionResult.failure(new ExecutionException(throwable), 0);
+            }
+            if (!ordered) {
+                queue.offer(this);
+            }
+            drain();
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.github.cb372.persevere.hedge;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public final class HedgingPolicies {
+
+    private HedgingPolicies() {
+        // static methods only
+    }
+
+    /**
+     * Start a hedged attempt if the latest attempt has not finished after a fixed delay.
+     */
+    public static HedgingPolicy fixed(final long delayMs) {
+        if (delayMs < 0) {
+            throw new IllegalArgumentException("Delay must not be negative");
+        }
+        return new HedgingPolicy() {
+            @Override
+            public long getHedgeDelayMs() {
+                return delayMs;
+            }
+
+            @Override
+            public void recordLatency(long latencyNanos) {
+            }
+        };
+    }
+
+    /**
+     * Start a hedged attempt if the latest attempt has taken longer than the given percentile
+     * of recently observed latencies, e.g. 0.95 for the p95.
+     *
+     * Until enough latencies have been observed, the fallback delay is used.
+     *
+     * @param percentile the percentile, between 0 and 1
+     * @param fallbackDelayMs the delay to use until at least minSamples latencies have been recorded
+     * @param minSamples the number of latencies to record before trusting the percentile
+     */
+    public static HedgingPolicy percentile(double percentile, long fallbackDelayMs, int minSamples) {
+        return new PercentileHedgingPolicy(percentile, fallbackDelayMs, minSamples);
+    }
+
+    /**
+     * Tracks the most recent latencies in a lock-free ring buffer,
+     * and periodically recalculates the percentile from a sorted copy of it.
+     */
+    private static final class PercentileHedgingPolicy implements HedgingPolicy {
+        private static final int RING_SIZE = 1024;
+        private static final int RECALCULATE_EVERY = 64;
+
+        private final double percentile;
+        private final int minSamples;
+        private final AtomicLongArray latencies = new AtomicLongArray(RING_SIZE);
+        private final AtomicLong recorded = new AtomicLong();
+        private volatile long hedgeDelayMs;
+
+        PercentileHedgingPolicy(double percentile, long fallbackDelayMs, int minSamples) {
+            if (percentile <= 0.0 || percentile >= 1.0) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 1");
+            }
+            if (fallbackDelayMs < 0) {
+                throw new IllegalArgumentException("Fallback delay must not be negative");
+            }
+            if (minSamples <= 0 || minSamples > RING_SIZE) {
+                throw new IllegalArgumentException("Min samples must be between 1 and " + RING_SIZE);
+            }
+            this.percentile = percentile;
+            this.minSamples = minSamples;
+            this.hedgeDelayMs = fallbackDelayMs;
+        }
+
+        @Override
+        public long getHedgeDelayMs() {
+            return hedgeDelayMs;
+        }
+
+        @Override
+        public void recordLatency(long latencyNanos) {
+            long count = recorded.incrementAndGet();
+            latencies.set((int) ((count - 1) % RING_SIZE), latencyNanos);
+            if (count >= minSamples && (count == minSamples || count % RECALCULATE_EVERY == 0)) {
+                recalculate((int) Math.min(count, RING_SIZE));
+            }
+        }
+
+        private void recalculate(int samples) {
+            long[] sorted = new long[samples];
+            for (int i = 0; i < samples; i++) {
+                sorted[i] = latencies.get(i);
+            }
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * samples) - 1;
+            long nanos = sorted[Math.max(0, Math.min(index, samples - 1))];
+            hedgeDelayMs = TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+    }
+
+}
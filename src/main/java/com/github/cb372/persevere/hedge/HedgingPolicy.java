@@ -0,0 +1,23 @@
+package com.github.cb372.persevere.hedge;
+
+/**
+ * Decides how long to wait for an attempt before starting another one in parallel.
+ *
+ * Implementations must be thread-safe, as a policy is typically shared by all hedged calls to a dependency.
+ */
+public interface HedgingPolicy {
+
+    /**
+     * @return how long to wait for the latest attempt to finish before starting a hedged attempt
+     */
+    public long getHedgeDelayMs();
+
+    /**
+     * Record the latency of an attempt that succeeded.
+     * Policies that adapt to observed latency can use this; others can ignore it.
+     *
+     * @param latencyNanos how long the attempt took
+     */
+    public void recordLatency(long latencyNanos);
+
+}
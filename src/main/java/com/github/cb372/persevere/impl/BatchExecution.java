@@ -0,0 +1,400 @@
+package com.github.cb372.persevere.impl;
+
+import com.github.cb372.persevere.ExecutionResult;
+import com.github.cb372.persevere.action.BatchRetryableAction;
+import com.github.cb372.persevere.action.GiveUp;
+import com.github.cb372.persevere.budget.RetryBudget;
+import com.github.cb372.persevere.budget.RetryBudgetExhaustedException;
+import com.github.cb372.persevere.circuit.CircuitBreaker;
+import com.github.cb372.persevere.circuit.CircuitOpenException;
+import com.github.cb372.persevere.delay.DelayStrategy;
+import com.github.cb372.persevere.delay.FeedbackDelayStrategy;
+import com.github.cb372.persevere.limit.ConcurrencyLimiter;
+import com.github.cb372.persevere.listener.RetryListener;
+import com.github.cb372.persevere.policy.RetryPolicy;
+import com.github.cb372.persevere.scheduler.Scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs a batch call: the same action on every item of a list, with each item retried independently.
+ *
+ * Items that are ready to be attempted wait in a shared queue, drained by at most maxConcurrency workers,
+ * so the number of tasks submitted to the scheduler does not grow with the size of the batch.
+ * Items whose retries fall due within the same {@link #COALESCE_WINDOW_MS} window share a bucket,
+ * and each bucket is scheduled as a single task that moves its items back onto the queue.
+ *
+ * The result lists the outcome for each item, in the same order as the inputs.
+ */
+final class BatchExecution<I, T> {
+    /**
+     * Retry times are rounded up to a multiple of this, so that items failing at around the same time
+     * are retried by the same scheduled task.
+     */
+    static final long COALESCE_WINDOW_MS = 10L;
+
+    private final BatchRetryableAction<I, T> action;
+    private final Scheduler scheduler;
+    private final int maxRetries;
+    private final DelayStrategy delayStrategy;
+    private final FeedbackDelayStrategy feedback;
+    private final int maxConcurrency;
+    private final RetryBudget retryBudget;
+    private final CircuitBreaker circuitBreaker;
+    private final RetryListener listener;
+    private final ConcurrencyLimiter limiter;
+    private final RetryPolicy retryPolicy;
+    private final long startNanos;
+
+    private final CompletableFuture<List<ExecutionResult<T>>> future = new CompletableFuture<List<ExecutionResult<T>>>();
+    private final AtomicReferenceArray<ExecutionResult<T>> results;
+    private final AtomicInteger remaining;
+    private final Queue<Item<I>> ready = new ConcurrentLinkedQueue<Item<I>>();
+    private final AtomicInteger workers = new AtomicInteger();
+    private final ConcurrentMap<Long, Bucket> buckets = new ConcurrentHashMap<Long, Bucket>();
+
+    private final Runnable worker = new Runnable() {
+        @Override
+        public void run() {
+            work();
+        }
+    };
+
+    BatchExecution(List<? extends I> inputs,
+                   BatchRetryableAction<I, T> action,
+                   Scheduler scheduler,
+                   int maxRetries,
+                   DelayStrategy delayStrategy,
+                   int maxConcurrency,
+                   RetryBudget retryBudget,
+                   CircuitBreaker circuitBreaker,
+                   RetryListener listener,
+                   ConcurrencyLimiter limiter,
+                   RetryPolicy retryPolicy) {
+        this.action = action;
+        this.scheduler = scheduler;
+        this.maxRetries = maxRetries;
+        this.delayStrategy = delayStrategy;
+        this.feedback = (delayStrategy instanceof FeedbackDelayStrategy) ? (FeedbackDelayStrategy) delayStrategy : null;
+        this.maxConcurrency = maxConcurrency;
+        this.retryBudget = retryBudget;
+        this.circuitBreaker = circuitBreaker;
+        this.listener = listener;
+        this.limiter = limiter;
+        this.retryPolicy = retryPolicy;
+        this.startNanos = System.nanoTime();
+        this.results = new AtomicReferenceArray<ExecutionResult<T>>(inputs.size());
+        this.remaining = new AtomicInteger(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            ready.offer(new Item<I>(i, inputs.get(i)));
+        }
+    }
+
+    CompletableFuture<List<ExecutionResult<T>>> start() {
+        if (remaining.get() == 0) {
+            future.complete(new ArrayList<ExecutionResult<T>>());
+            return future;
+        }
+        future.whenComplete(new BiConsumer<List<ExecutionResult<T>>, Throwable>() {
+            @Override
+            public void accept(List<ExecutionResult<T>> results, Throwable throwable) {
+                if (throwable instanceof CancellationException) {
+                    for (Bucket bucket : buckets.values()) {
+                        bucket.cancel();
+                    }
+                    ready.clear();
+                    if (listener != null) {
+                        listener.onCancelled();
+                    }
+                }
+            }
+        });
+        if (retryBudget != null) {
+            for (int i = 0; i < results.length(); i++) {
+                retryBudget.recordFirstAttempt();
+            }
+        }
+        dispatch();
+        return future;
+    }
+
+    /**
+     * Start workers until either the queue is empty or the concurrency limit has been reached.
+     */
+    private void dispatch() {
+        while (!ready.isEmpty() && !future.isDone()) {
+            int current = workers.get();
+            if (current >= maxConcurrency) {
+                // a running worker will pick the items up
+                return;
+            }
+            if (workers.compareAndSet(current, current + 1)) {
+                try {
+                    scheduler.submit(worker);
+                } catch (RejectedExecutionException e) {
+                    // the scheduler is shutting down, so nothing would ever pick up the queued items
+                    workers.decrementAndGet();
+                    Item<I> item;
+                    while ((item = ready.poll()) != null) {
+                        fail(item, e);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private void work() {
+        try {
+            Item<I> item;
+            while (!future.isDone() && (item = ready.poll()) != null) {
+                if (!attempt(item)) {
+                    return;
+                }
+            }
+        } finally {
+            workers.decrementAndGet();
+        }
+        // an item may have been queued after we found the queue empty but before we stopped counting as a worker
+        dispatch();
+    }
+
+    /**
+     * @return false if the worker was interrupted and should stop
+     */
+    private boolean attempt(Item<I> item) {
+        if (limiter != null) {
+            if (!limiter.tryAcquire()) {
+                // wait for a permit without using up an attempt, as nothing was attempted
+                retryLater(item, PersevereTask.permitBackoffMs(++item.rejections));
+                return true;
+            }
+            item.rejections = 0;
+        }
+        long breakerPermission = (circuitBreaker == null) ? CircuitBreaker.NOT_PERMITTED : circuitBreaker.tryAcquirePermission();
+        if (circuitBreaker != null && breakerPermission == CircuitBreaker.NOT_PERMITTED) {
+            if (limiter != null) {
+                limiter.release();
+            }
+            fail(item, new CircuitOpenException());
+            return true;
+        }
+        long attemptStartNanos = 0L;
+        if (listener != null) {
+            listener.onAttemptStarted(item.retries);
+        }
+        if (listener != null || limiter != null || feedback != null) {
+            attemptStartNanos = System.nanoTime();
+        }
+        T result;
+        try {
+            result = action.execute(item.input, item.retries);
+        } catch (InterruptedException e) {
+            // cancelled or the scheduler is shutting down, so don't retry this item
+            if (limiter != null) {
+                limiter.release();
+            }
+            if (circuitBreaker != null) {
+                circuitBreaker.releasePermission(breakerPermission);
+            }
+            fail(item, e);
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            if (limiter != null) {
+                if (isFatal(e)) {
+                    limiter.release();
+                } else {
+                    limiter.onFailure();
+                }
+            }
+            onFailure(item, e, attemptStartNanos, breakerPermission);
+            return true;
+        }
+        if (limiter != null) {
+            limiter.onSuccess(System.nanoTime() - attemptStartNanos);
+        }
+        if (feedback != null) {
+            feedback.onAttemptSucceeded(System.nanoTime() - attemptStartNanos);
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.onSuccess(breakerPermission);
+        }
+        complete(item, ExecutionResult.success(result, item.retries));
+        if (listener != null) {
+            listener.onSuccess(item.retries, System.nanoTime() - startNanos);
+        }
+        return true;
+    }
+
+    private void onFailure(Item<I> item, Exception e, long attemptStartNanos, long breakerPermission) {
+        if (listener != null) {
+            listener.onAttemptFailed(item.retries, e, System.nanoTime() - attemptStartNanos);
+        }
+        if (isFatal(e)) {
+            if (circuitBreaker != null) {
+                circuitBreaker.releasePermission(breakerPermission);
+            }
+            fail(item, e);
+            return;
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.onFailure(breakerPermission);
+        }
+        if (feedback != null) {
+            feedback.onAttemptFailed(e, System.nanoTime() - attemptStartNanos);
+        }
+        if (maxRetries >= 0 && item.retries >= maxRetries) {
+            fail(item, e);
+            return;
+        }
+        if (retryBudget != null && !retryBudget.tryAcquireRetry()) {
+            fail(item, new RetryBudgetExhaustedException(e));
+            return;
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long delayMs = (retryPolicy == null)
+                ? delayStrategy.getNextDelayMs(item.retries, e, elapsedNanos)
+                : retryPolicy.getNextDelayMs(e, item.retries, elapsedNanos, delayStrategy);
+        item.retries++;
+        if (listener != null) {
+            listener.onRetryScheduled(item.retries, delayMs);
+        }
+        if (delayMs <= 0) {
+            // the current worker will pick it up again
+            ready.offer(item);
+        } else {
+            retryLater(item, delayMs);
+        }
+    }
+
+    private boolean isFatal(Exception e) {
+        if (e instanceof GiveUp) {
+            return true;
+        }
+        return retryPolicy != null && retryPolicy.isFatal(e);
+    }
+
+    private void retryLater(Item<I> item, long delayMs) {
+        long nowMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        // saturate rather than overflow, so that an absurdly long delay doesn't wrap round to "now"
+        long dueMs = saturatedAdd(nowMs, delayMs);
+        if (dueMs < Long.MAX_VALUE - COALESCE_WINDOW_MS) {
+            dueMs = ((dueMs + COALESCE_WINDOW_MS - 1) / COALESCE_WINDOW_MS) * COALESCE_WINDOW_MS;
+        }
+        Long key = dueMs;
+        while (true) {
+            Bucket bucket = buckets.get(key);
+            if (bucket == null) {
+                Bucket newBucket = new Bucket(key);
+                bucket = buckets.putIfAbsent(key, newBucket);
+                if (bucket == null) {
+                    bucket = newBucket;
+                    bucket.schedule(dueMs - nowMs);
+                }
+            }
+            if (bucket.add(item)) {
+                return;
+            }
+            // that bucket has just fired, so try again with a new one
+            buckets.remove(key, bucket);
+        }
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        return (sum < a) ? Long.MAX_VALUE : sum;
+    }
+
+    private void fail(Item<I> item, Exception e) {
+        complete(item, ExecutionResult.<T>failure(e, item.retries));
+        if (listener != null) {
+            listener.onFailure(item.retries, e, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void complete(Item<I> item, ExecutionResult<T> result) {
+        results.set(item.index, result);
+        if (remaining.decrementAndGet() == 0) {
+            List<ExecutionResult<T>> list = new ArrayList<ExecutionResult<T>>(results.length());
+            for (int i = 0; i < results.length(); i++) {
+                list.add(results.get(i));
+            }
+            future.complete(list);
+        }
+    }
+
+    private static final class Item<I> {
+        final int index;
+        final I input;
+        int retries;  // only touched by the thread currently attempting the item
+        int rejections;  // the number of times in a row the limiter has been full, likewise
+
+        Item(int index, I input) {
+            this.index = index;
+            this.input = input;
+        }
+    }
+
+    /**
+     * The items due to be retried at the same time, and the scheduled task that will release them.
+     */
+    private final class Bucket implements Runnable {
+        private final Long key;
+        private final List<Item<I>> items = new ArrayList<Item<I>>();
+        private boolean fired;
+        private volatile Future<?> timer;
+
+        Bucket(Long key) {
+            this.key = key;
+        }
+
+        void schedule(long delayMs) {
+            timer = scheduler.schedule(this, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        synchronized boolean add(Item<I> item) {
+            if (fired) {
+                return false;
+            }
+            items.add(item);
+            return true;
+        }
+
+        void cancel() {
+            Future<?> t = timer;
+            if (t != null) {
+                t.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            buckets.remove(key, this);
+            synchronized (this) {
+                fired = true;
+            }
+            if (future.isDone()) {
+                return;
+            }
+            for (Item<I> item : items) {
+                ready.offer(item);
+            }
+            dispatch();
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.github.cb372.persevere.impl;
+
+import com.github.cb372.persevere.ExecutionResult;
+import com.github.cb372.persevere.action.GiveUp;
+import com.github.cb372.persevere.action.RetryableAction;
+import com.github.cb372.persevere.hedge.HedgingPolicy;
+import com.github.cb372.persevere.scheduler.Scheduler;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs a hedged call: up to maxAttempts attempts of the same action, which may be in flight concurrently.
+ *
+ * The first attempt is submitted immediately. Whenever the latest attempt has been running for longer than
+ * the {@link HedgingPolicy}'s delay, or as soon as any attempt fails, another attempt is started.
+ * The first attempt to succeed wins, and all the others are cancelled.
+ *
+ * This object is registered as the {@link PersevereFuture}'s current task,
+ * so cancelling the future cancels all in-flight attempts and the pending hedge timer.
+ * The winning attempt completes the future in the same way, so the losers are cancelled through that path too.
+ */
+final class HedgedExecution<T> implements Future<Void> {
+    private final RetryableAction<T> action;
+    private final HedgingPolicy policy;
+    private final Scheduler scheduler;
+    private final PersevereFuture<T> future;
+    private final int maxAttempts;
+
+    private final AtomicInteger launched = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger winner = new AtomicInteger(-1);
+    private final AtomicReferenceArray<Future<?>> attemptFutures;
+    private volatile Future<?> hedgeTimer;
+
+    HedgedExecution(RetryableAction<T> action, HedgingPolicy policy, Scheduler scheduler, PersevereFuture<T> future, int maxAttempts) {
+        this.action = action;
+        this.policy = policy;
+        this.scheduler = scheduler;
+        this.future = future;
+        this.maxAttempts = maxAttempts;
+        this.attemptFutures = new AtomicReferenceArray<Future<?>>(maxAttempts);
+    }
+
+    void start() {
+        future.setCurrentTaskFuture(this);
+        launchNextAttempt();
+    }
+
+    private void launchNextAttempt() {
+        if (future.isDone()) {
+            return;
+        }
+        int attempt = launched.getAndIncrement();
+        if (attempt >= maxAttempts) {
+            return;
+        }
+        attemptFutures.set(attempt, scheduler.submit(new Attempt(attempt)));
+        if (attempt + 1 < maxAttempts) {
+            hedgeTimer = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // only hedge if nothing else has started an attempt in the meantime
+                    if (launched.get() == attempt + 1) {
+                        launchNextAttempt();
+                    }
+                }
+            }, policy.getHedgeDelayMs(), TimeUnit.MILLISECONDS);
+        }
+        if (future.isDone()) {
+            // we lost a race with completion or cancellation
+            cancelAllExcept(winner.get());
+        }
+    }
+
+    private void complete(ExecutionResult<T> result, int attempt) {
+        // record the winner before completing, so that it is not cancelled along with the others
+        if (winner.compareAndSet(-1, attempt)) {
+            future.complete(result);
+        }
+    }
+
+    private void cancelAllExcept(int winner) {
+        Future<?> timer = hedgeTimer;
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        for (int i = 0; i < maxAttempts; i++) {
+            Future<?> attemptFuture = attemptFutures.get(i);
+            if (i != winner && attemptFuture != null) {
+                attemptFuture.cancel(true);
+            }
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        cancelAllExcept(winner.get());
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+        future.get();
+        return null;
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        future.get(timeout, unit);
+        return null;
+    }
+
+    private final class Attempt implements Runnable {
+        private final int attempt;
+
+        Attempt(int attempt) {
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                T result = action.execute(attempt);
+                policy.recordLatency(System.nanoTime() - start);
+                complete(ExecutionResult.success(result, attempt), attempt);
+            } catch (GiveUp g) {
+                complete(ExecutionResult.<T>failure(g, attempt), attempt);
+            } catch (InterruptedException e) {
+                // if the call is over, we were cancelled because another attempt won, so nothing to do.
+                // Otherwise the action was interrupted by something else, which is just another failure.
+                if (!future.isDone()) {
+                    onFailure(e);
+                }
+            } catch (Exception e) {
+                onFailure(e);
+            }
+        }
+
+        private void onFailure(Exception e) {
+            if (failed.incrementAndGet() >= maxAttempts) {
+                complete(ExecutionResult.<T>failure(e, attempt), attempt);
+            } else {
+                // no point waiting for the hedge delay
+                launchNextAttempt();
+            }
+        }
+    }
+
+}
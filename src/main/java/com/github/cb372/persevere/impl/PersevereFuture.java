@@ -2,78 +2,174 @@ package com.github.cb372.persevere.impl;
 
 import com.github.cb372.persevere.ExecutionResult;
 
-import javax.annotation.concurrent.GuardedBy;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Supplier;
 
 /**
+ * The future returned to callers of {@link PersevereRunner}.
+ *
+ * It is both a {@link Future} and a {@link java.util.concurrent.CompletionStage},
+ * so callers can either block on the result or register callbacks that will be run
+ * by the thread that completes the final attempt.
+ *
+ * Completing it from outside with {@link #complete} or {@link #completeExceptionally}
+ * (including via {@link #orTimeout} or {@link #completeOnTimeout}) stops any further attempts,
+ * just like cancelling it does. Its result cannot be overwritten with the {@code obtrude} methods.
+ *
  * Author: chris
  * Created: 5/2/13
  */
-public class PersevereFuture<T> implements Future<ExecutionResult<T>> {
-    private final CountDownLatch complete = new CountDownLatch(1);
-    private volatile ExecutionResult<T> result;
-    @GuardedBy("this") private Future<?> currentTaskFuture;
-    @GuardedBy("this") private boolean cancelled;
+public class PersevereFuture<T> extends CompletableFuture<ExecutionResult<T>> {
+    /*
+     * The whole state machine lives in a single field, updated with CAS:
+     *  - null or a task future: pending, with that task (if any) making the attempts
+     *  - COMPLETED: a result has been passed to markComplete, or the future was completed from outside
+     *  - CANCELLED: cancel has been called
+     * Both terminal states are sticky.
+     */
+    private static final Future<?> COMPLETED = new CompletableFuture<Void>();
+    private static final Future<?> CANCELLED = new CompletableFuture<Void>();
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<PersevereFuture, Future> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(PersevereFuture.class, Future.class, "currentTaskFuture");
+
+    private volatile Future<?> currentTaskFuture;
 
     /**
      * Mark the future as complete (either succeeded or failed).
      * After this method has been called, {@link #isDone()} will return true.
      *
+     * Any dependent stages are run synchronously by the calling thread.
+     *
      * @param result the result of performing the action
      */
-    protected synchronized void markComplete(ExecutionResult<T> result) {
+    protected void markComplete(ExecutionResult<T> result) {
         if (result == null) {
             throw new IllegalArgumentException("Result must not be null");
         }
-        if (!isDone()) {
-            this.result = result;
-            complete.countDown();
+        Future<?> current;
+        do {
+            current = currentTaskFuture;
+            if (current == CANCELLED || current == COMPLETED) {
+                return;
+            }
+        } while (!STATE.compareAndSet(this, current, COMPLETED));
+        super.complete(result);
+    }
+
+    /**
+     * Register the task that is making the attempts, so that cancelling this future also cancels it.
+     * This should be called once, before the task is first submitted.
+     *
+     * If this future has already been cancelled, the task is cancelled instead.
+     *
+     * @param taskFuture the task, or the future of the first attempt
+     */
+    protected void setCurrentTaskFuture(Future<?> taskFuture) {
+        if (!STATE.compareAndSet(this, null, taskFuture)) {
+            Future<?> current = currentTaskFuture;
+            if (current == CANCELLED || current == COMPLETED) {
+                taskFuture.cancel(false);
+            }
         }
     }
 
-    protected synchronized void setCurrentTaskFuture(Future<?> currentTaskFuture) {
-        this.currentTaskFuture = currentTaskFuture;
+    /**
+     * Complete the future with the given result, and stop making attempts.
+     *
+     * @return true if this call completed the future, false if it was already done
+     */
+    @Override
+    public boolean complete(ExecutionResult<T> value) {
+        return stopAttempts() && super.complete(value);
+    }
+
+    /**
+     * Complete the future with the given exception, and stop making attempts.
+     *
+     * @return true if this call completed the future, false if it was already done
+     */
+    @Override
+    public boolean completeExceptionally(Throwable ex) {
+        if (ex == null) {
+            throw new NullPointerException();
+        }
+        return stopAttempts() && super.completeExceptionally(ex);
     }
 
     @Override
-    public synchronized boolean cancel(boolean mayInterruptIfRunning) {
-        if (isDone()) {
-            return false;
-        } else {
-            if (currentTaskFuture != null) {
-                currentTaskFuture.cancel(mayInterruptIfRunning);
-            }
-            cancelled = true;
-            complete.countDown();
-            return true;
+    public CompletableFuture<ExecutionResult<T>> completeAsync(final Supplier<? extends ExecutionResult<T>> supplier,
+                                                               Executor executor) {
+        if (supplier == null || executor == null) {
+            throw new NullPointerException();
         }
+        // the superclass would complete the future directly, bypassing complete()
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    complete(supplier.get());
+                } catch (Throwable e) {
+                    completeExceptionally(e);
+                }
+            }
+        });
+        return this;
     }
 
+    /**
+     * Not supported, as it would overwrite the result that callers may already have seen.
+     */
     @Override
-    public synchronized boolean isCancelled() {
-        return cancelled;
+    public void obtrudeValue(ExecutionResult<T> value) {
+        throw new UnsupportedOperationException("The result of a PersevereFuture cannot be overwritten");
     }
 
+    /**
+     * Not supported, as it would overwrite the result that callers may already have seen.
+     */
     @Override
-    public boolean isDone() {
-        return (complete.getCount() == 0);
+    public void obtrudeException(Throwable ex) {
+        throw new UnsupportedOperationException("The result of a PersevereFuture cannot be overwritten");
     }
 
     @Override
-    public ExecutionResult<T> get() throws InterruptedException, ExecutionException {
-        complete.await();
-        if (isCancelled()) {
-            throw new CancellationException();
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        Future<?> current;
+        do {
+            current = currentTaskFuture;
+            if (current == CANCELLED || current == COMPLETED) {
+                return false;
+            }
+        } while (!STATE.compareAndSet(this, current, CANCELLED));
+        if (current != null) {
+            current.cancel(mayInterruptIfRunning);
         }
-        return result;
+        return super.cancel(mayInterruptIfRunning);
     }
 
-    @Override
-    public ExecutionResult<T> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-        complete.await(timeout, unit);
-        if (isCancelled()) {
-            throw new CancellationException();
+    /**
+     * Move to the COMPLETED state on behalf of a caller completing the future from outside,
+     * and cancel the task that is making the attempts.
+     *
+     * @return false if the future was already done
+     */
+    private boolean stopAttempts() {
+        Future<?> current;
+        do {
+            current = currentTaskFuture;
+            if (current == CANCELLED || current == COMPLETED) {
+                return false;
+            }
+        } while (!STATE.compareAndSet(this, current, COMPLETED));
+        if (current != null) {
+            current.cancel(false);
         }
-        return result;
+        return true;
     }
+
 }
@@ -1,37 +1,371 @@
 package com.github.cb372.persevere.impl;
 
 import com.github.cb372.persevere.ExecutionResult;
+import com.github.cb372.persevere.action.AsyncRetryableAction;
+import com.github.cb372.persevere.action.BatchRetryableAction;
 import com.github.cb372.persevere.action.RetryableAction;
+import com.github.cb372.persevere.budget.RetryBudget;
+import com.github.cb372.persevere.circuit.CircuitBreaker;
+import com.github.cb372.persevere.circuit.CircuitOpenException;
 import com.github.cb372.persevere.delay.DelayStrategy;
+import com.github.cb372.persevere.hedge.HedgingPolicy;
+import com.github.cb372.persevere.limit.ConcurrencyLimiter;
+import com.github.cb372.persevere.listener.RetryListener;
+import com.github.cb372.persevere.policy.RetryPolicy;
+import com.github.cb372.persevere.scheduler.ExecutorServiceScheduler;
+import com.github.cb372.persevere.scheduler.FairScheduler;
+import com.github.cb372.persevere.scheduler.Prioritized;
+import com.github.cb372.persevere.scheduler.Scheduler;
 
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 /**
  * The class that kick-starts the whole process.
- * Creates the first {@link PersevereTask} and submits it to the {@link ScheduledExecutorService}.
- * This starts a chain reaction where one task may create and submit the next one.
+ * Creates a {@link PersevereTask} and submits it to the {@link Scheduler}.
+ * Each attempt may then reschedule the same task to make the next one.
+ *
+ * A runner is immutable. Optional components such as a {@link RetryBudget}
+ * are attached using the {@code with...} methods, which return a new runner.
  *
  * Author: chris
  * Created: 4/23/13
  */
 public final class PersevereRunner {
-    private final ScheduledExecutorService executor;
+    private final Scheduler scheduler;
+    private final RetryBudget retryBudget;
+    private final CircuitBreaker circuitBreaker;
+    private final long attemptTimeoutNanos;
+    private final RetryListener listener;
+    private final ConcurrencyLimiter limiter;
+    private final RetryPolicy retryPolicy;
+    private final boolean inlineFirstAttempt;
+    private final int priority;
+    private final Object tenant;
 
     public PersevereRunner(ScheduledExecutorService executor) {
-        this.executor = executor;
+        this(new ExecutorServiceScheduler(executor));
+    }
+
+    public PersevereRunner(Scheduler scheduler) {
+        this(scheduler, null, null, PersevereTask.Config.NO_TIMEOUT, null, null, null, false, Prioritized.DEFAULT_PRIORITY, null);
+    }
+
+    private PersevereRunner(Scheduler scheduler,
+                            RetryBudget retryBudget,
+                            CircuitBreaker circuitBreaker,
+                            long attemptTimeoutNanos,
+                            RetryListener listener,
+                            ConcurrencyLimiter limiter,
+                            RetryPolicy retryPolicy,
+                            boolean inlineFirstAttempt,
+                            int priority,
+                            Object tenant) {
+        this.scheduler = scheduler;
+        this.retryBudget = retryBudget;
+        this.circuitBreaker = circuitBreaker;
+        this.attemptTimeoutNanos = attemptTimeoutNanos;
+        this.listener = listener;
+        this.limiter = limiter;
+        this.retryPolicy = retryPolicy;
+        this.inlineFirstAttempt = inlineFirstAttempt;
+        this.priority = priority;
+        this.tenant = tenant;
+    }
+
+    /**
+     * @param retryBudget a budget shared with other runners calling the same dependency.
+     *                    If a retry is needed but the budget is exhausted, the action fails
+     *                    with a {@link com.github.cb372.persevere.budget.RetryBudgetExhaustedException}.
+     * @return a copy of this runner that uses the given retry budget
+     */
+    public PersevereRunner withRetryBudget(RetryBudget retryBudget) {
+        return new PersevereRunner(scheduler, retryBudget, circuitBreaker, attemptTimeoutNanos, listener, limiter, retryPolicy, inlineFirstAttempt, priority, tenant);
+    }
+
+    /**
+     * @param circuitBreaker a circuit breaker shared with other runners calling the same dependency.
+     *                       It is consulted before every attempt. While it is open, attempts are not made
+     *                       and the action fails with a {@link CircuitOpenException}.
+     * @return a copy of this runner that uses the given circuit breaker
+     */
+    public PersevereRunner withCircuitBreaker(CircuitBreaker circuitBreaker) {
+        return new PersevereRunner(scheduler, retryBudget, circuitBreaker, attemptTimeoutNanos, listener, limiter, retryPolicy, inlineFirstAttempt, priority, tenant);
+    }
+
+    /**
+     * Limit how long a single attempt may take.
+     * If an attempt has not finished within the timeout, it is interrupted and abandoned:
+     * it counts as a failure (with an {@link com.github.cb372.persevere.AttemptTimeoutException}),
+     * the next retry is scheduled, and whatever the attempt eventually returns is ignored.
+     *
+     * The timeout is enforced by a task on the runner's scheduler, so the scheduler needs a free thread to run it.
+     *
+     * @return a copy of this runner that enforces the given attempt timeout
+     */
+    public PersevereRunner withAttemptTimeout(long timeout, TimeUnit unit) {
+        return new PersevereRunner(scheduler, retryBudget, circuitBreaker, toTimeoutNanos(timeout, unit), listener, limiter, retryPolicy, inlineFirstAttempt, priority, tenant);
+    }
+
+    /**
+     * Make the first attempt of each call on the calling thread, rather than handing it to the scheduler.
+     * If it succeeds, the returned future is already complete, saving a thread hop for actions
+     * that usually succeed first time. If it fails, retries are scheduled as usual.
+     *
+     * The calling thread is blocked for the duration of the first attempt, and cancelling the future
+     * does not interrupt it. If the calling thread is interrupted during the first attempt,
+     * the call fails with the {@link InterruptedException}, and the thread's interrupt status is restored.
+     *
+     * @return a copy of this runner that makes the first attempt on the calling thread
+     */
+    public PersevereRunner withInlineFirstAttempt() {
+        return new PersevereRunner(scheduler, retryBudget, circuitBreaker, attemptTimeoutNanos, listener, limiter, retryPolicy, true, priority, tenant);
+    }
+
+    /**
+     * @param retryPolicy decides which exceptions are retried, and with what delay
+     * @return a copy of this runner that uses the given retry policy
+     */
+    public PersevereRunner withRetryPolicy(RetryPolicy retryPolicy) {
+        return new PersevereRunner(scheduler, retryBudget, circuitBreaker, attemptTimeoutNanos, listener, limiter, retryPolicy, inlineFirstAttempt, priority, tenant);
+    }
+
+    /**
+     * @param limiter caps the number of attempts in flight against the dependency.
+     *                While the limiter is full, an attempt waits for a permit, backing off for up to
+     *                {@value PersevereTask#MAX_PERMIT_BACKOFF_MS}ms at a time. Waiting does not use up a retry.
+     *                If the call's deadline passes while waiting, it fails with a
+     *                {@link com.github.cb372.persevere.DeadlineExceededException} caused by a
+     *                {@link com.github.cb372.persevere.limit.ConcurrencyLimitExceededException}.
+     * @return a copy of this runner that uses the given limiter
+     */
+    public PersevereRunner withConcurrencyLimiter(ConcurrencyLimiter limiter) {
+        return new PersevereRunner(scheduler, retryBudget, circuitBreaker, attemptTimeoutNanos, listener, limiter, retryPolicy, inlineFirstAttempt, priority, tenant);
+    }
+
+    /**
+     * @param listener notified of every attempt, retry and outcome.
+     *                 Use {@link com.github.cb372.persevere.listener.RetryListeners#compose} to attach several.
+     * @return a copy of this runner that notifies the given listener
+     */
+    public PersevereRunner withRetryListener(RetryListener listener) {
+        return new PersevereRunner(scheduler, retryBudget, circuitBreaker, attemptTimeoutNanos, listener, limiter, retryPolicy, inlineFirstAttempt, priority, tenant);
+    }
+
+    /**
+     * @param priority the priority of this runner's attempts. Higher priorities run first.
+     *                 Only schedulers that understand priorities, such as {@link FairScheduler}, take any notice.
+     * @return a copy of this runner whose attempts have the given priority
+     */
+    public PersevereRunner withPriority(int priority) {
+        return new PersevereRunner(scheduler, retryBudget, circuitBreaker, attemptTimeoutNanos, listener, limiter, retryPolicy, inlineFirstAttempt, priority, tenant);
+    }
+
+    /**
+     * @param tenant the tenant on whose behalf this runner's attempts are made, e.g. a customer ID.
+     *               A {@link FairScheduler} shares its workers fairly between tenants.
+     * @return a copy of this runner whose attempts belong to the given tenant
+     */
+    public PersevereRunner withTenant(Object tenant) {
+        return new PersevereRunner(scheduler, retryBudget, circuitBreaker, attemptTimeoutNanos, listener, limiter, retryPolicy, inlineFirstAttempt, priority, tenant);
+    }
+
+    /**
+     * @return the scheduler on which this runner makes its attempts
+     */
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return the listener attached with {@link #withRetryListener}, or null if there is none
+     */
+    public RetryListener getRetryListener() {
+        return listener;
     }
 
     public <T> Future<ExecutionResult<T>> persevere(RetryableAction<T> action,
                                                     DelayStrategy delayStrategy,
                                                     int maxRetries) {
+        return start(action, null, delayStrategy, maxRetries, PersevereTask.Config.NO_TIMEOUT);
+    }
+
+    /**
+     * Like {@link #persevere(RetryableAction, DelayStrategy, int)}, but with an overall deadline.
+     * No retry will be scheduled if it could not start before the deadline. Instead the action fails
+     * with a {@link com.github.cb372.persevere.DeadlineExceededException}.
+     *
+     * Note that the deadline does not interrupt an attempt that is already in progress.
+     */
+    public <T> Future<ExecutionResult<T>> persevere(RetryableAction<T> action,
+                                                    DelayStrategy delayStrategy,
+                                                    int maxRetries,
+                                                    long timeout,
+                                                    TimeUnit unit) {
+        return start(action, null, delayStrategy, maxRetries, toTimeoutNanos(timeout, unit));
+    }
+
+    /**
+     * Like {@link #persevere(RetryableAction, DelayStrategy, int)}, but returns a {@link CompletionStage}
+     * that is completed directly by the thread that performs the final attempt,
+     * so no thread needs to block waiting for the result.
+     *
+     * Cancelling the stage's {@link CompletionStage#toCompletableFuture() CompletableFuture}
+     * cancels any pending retries.
+     */
+    public <T> CompletionStage<ExecutionResult<T>> persevereAsync(RetryableAction<T> action,
+                                                                  DelayStrategy delayStrategy,
+                                                                  int maxRetries) {
+        return start(action, null, delayStrategy, maxRetries, PersevereTask.Config.NO_TIMEOUT);
+    }
+
+    /**
+     * Like {@link #persevereAsync(RetryableAction, DelayStrategy, int)}, but with an overall deadline.
+     *
+     * @see #persevere(RetryableAction, DelayStrategy, int, long, TimeUnit)
+     */
+    public <T> CompletionStage<ExecutionResult<T>> persevereAsync(RetryableAction<T> action,
+                                                                  DelayStrategy delayStrategy,
+                                                                  int maxRetries,
+                                                                  long timeout,
+                                                                  TimeUnit unit) {
+        return start(action, null, delayStrategy, maxRetries, toTimeoutNanos(timeout, unit));
+    }
+
+    /**
+     * Perform a natively asynchronous action, retrying if it fails.
+     * No thread is held while an attempt is in flight; each retry is scheduled
+     * when the previous attempt's stage completes.
+     */
+    public <T> CompletionStage<ExecutionResult<T>> persevereAsyncAction(AsyncRetryableAction<T> action,
+                                                                        DelayStrategy delayStrategy,
+                                                                        int maxRetries) {
+        return start(null, action, delayStrategy, maxRetries, PersevereTask.Config.NO_TIMEOUT);
+    }
+
+    /**
+     * Like {@link #persevereAsyncAction(AsyncRetryableAction, DelayStrategy, int)}, but with an overall deadline.
+     *
+     * @see #persevere(RetryableAction, DelayStrategy, int, long, TimeUnit)
+     */
+    public <T> CompletionStage<ExecutionResult<T>> persevereAsyncAction(AsyncRetryableAction<T> action,
+                                                                        DelayStrategy delayStrategy,
+                                                                        int maxRetries,
+                                                                        long timeout,
+                                                                        TimeUnit unit) {
+        return start(null, action, delayStrategy, maxRetries, toTimeoutNanos(timeout, unit));
+    }
+
+    /**
+     * Perform the given action with hedging, to reduce tail latency.
+     *
+     * If an attempt has not finished within the delay chosen by the hedging policy, another attempt is started
+     * in parallel, up to a total of maxAttempts. A failed attempt immediately triggers the next one.
+     * The first successful attempt wins, and the others are cancelled (interrupted if they are running).
+     *
+     * Hedging is intended for idempotent reads. It does not use the runner's retry budget, circuit breaker or concurrency limiter.
+     *
+     * @param action The action to perform. The retry count passed to it is the index of the attempt.
+     * @param hedgingPolicy decides how long to wait before starting another attempt
+     * @param maxAttempts the maximum number of attempts, including the first one
+     * @return a future of the result of the first attempt to succeed, or the last failure
+     */
+    public <T> Future<ExecutionResult<T>> hedge(RetryableAction<T> action,
+                                                HedgingPolicy hedgingPolicy,
+                                                int maxAttempts) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("Max attempts must be >= 1");
+        }
         PersevereFuture<T> future = new PersevereFuture<T>();
-        PersevereTask.Config<T> config = new PersevereTask.Config<T>(action, future, executor, maxRetries, delayStrategy);
-        Runnable firstTask = new PersevereTask<T>(config, 0);
-        //noinspection SynchronizationOnLocalVariableOrMethodParameter
-        synchronized (future) {
-            Future<?> f = executor.submit(firstTask);
-            future.setCurrentTaskFuture(f);
+        new HedgedExecution<T>(action, hedgingPolicy, scheduler, future, maxAttempts).start();
+        return future;
+    }
+
+    /**
+     * Perform the given action on every item of a batch, retrying each item independently if it fails.
+     *
+     * This is much cheaper than making a separate call for each item: at most maxConcurrency tasks
+     * are submitted to the scheduler at a time, and items due to be retried at around the same time
+     * are released by a single scheduled task. Retry delays are rounded up to the next
+     * {@value BatchExecution#COALESCE_WINDOW_MS}ms so that they can be coalesced.
+     *
+     * The runner's retry budget, circuit breaker, listener, concurrency limiter and retry policy apply to each item
+     * as if it were a separate call.
+     * The attempt timeout is not applied to batches.
+     *
+     * @param inputs The items to process
+     * @param action The action to perform on each item
+     * @param delayStrategy The strategy for inserting delays between retries of an item
+     * @param maxRetries
+     *   The maximum number of times to retry each item.
+     *   If this is 0, each item will be tried once and not retried.
+     *   If it is negative, each item will be retried indefinitely until it succeeds.
+     * @param maxConcurrency The maximum number of attempts in flight at once
+     * @return a future of the results for each item, in the same order as the inputs
+     */
+    public <I, T> CompletableFuture<List<ExecutionResult<T>>> persevereBatch(List<? extends I> inputs,
+                                                                             BatchRetryableAction<I, T> action,
+                                                                             DelayStrategy delayStrategy,
+                                                                             int maxRetries,
+                                                                             int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("Max concurrency must be >= 1");
+        }
+        return new BatchExecution<I, T>(inputs, action, scheduler, maxRetries, delayStrategy, maxConcurrency,
+                retryBudget, circuitBreaker, listener, limiter, retryPolicy).start();
+    }
+
+    private static long toTimeoutNanos(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be greater than zero");
+        }
+        return unit.toNanos(timeout);
+    }
+
+    private <T> PersevereFuture<T> start(RetryableAction<T> action,
+                                         AsyncRetryableAction<T> asyncAction,
+                                         DelayStrategy delayStrategy,
+                                         int maxRetries,
+                                         long timeoutNanos) {
+        PersevereFuture<T> future = new PersevereFuture<T>();
+        if (circuitBreaker != null && circuitBreaker.isRejecting()) {
+            // don't even bother submitting a task
+            CircuitOpenException e = new CircuitOpenException();
+            future.markComplete(ExecutionResult.<T>failure(e, 0));
+            if (listener != null) {
+                listener.onFailure(0, e, 0L);
+            }
+            return future;
+        }
+        if (listener != null) {
+            future.whenComplete(new BiConsumer<ExecutionResult<T>, Throwable>() {
+                @Override
+                public void accept(ExecutionResult<T> result, Throwable throwable) {
+                    if (throwable instanceof CancellationException) {
+                        listener.onCancelled();
+                    }
+                }
+            });
+        }
+        PersevereTask.Config<T> config = new PersevereTask.Config<T>(
+                action, asyncAction, future, scheduler, maxRetries, delayStrategy, retryBudget, circuitBreaker, timeoutNanos, attemptTimeoutNanos, listener, limiter, retryPolicy,
+                priority, tenant);
+        if (retryBudget != null) {
+            retryBudget.recordFirstAttempt();
+        }
+        PersevereTask<T> task = new PersevereTask<T>(config, 0);
+        // register the task before submitting it, so that a cancellation can never miss it
+        future.setCurrentTaskFuture(task);
+        if (inlineFirstAttempt) {
+            task.runInline();
+        } else {
+            task.submitted(scheduler.submit(task));
         }
         return future;
     }
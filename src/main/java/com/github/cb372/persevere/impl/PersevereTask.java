@@ -2,22 +2,68 @@ package com.github.cb372.persevere.impl;
 
 
 
+import com.github.cb372.persevere.AttemptTimeoutException;
+import com.github.cb372.persevere.DeadlineExceededException;
 import com.github.cb372.persevere.ExecutionResult;
+import com.github.cb372.persevere.action.AsyncRetryableAction;
 import com.github.cb372.persevere.action.GiveUp;
 import com.github.cb372.persevere.action.RetryableAction;
+import com.github.cb372.persevere.budget.RetryBudget;
+import com.github.cb372.persevere.budget.RetryBudgetExhaustedException;
+import com.github.cb372.persevere.circuit.CircuitBreaker;
+import com.github.cb372.persevere.circuit.CircuitOpenException;
 import com.github.cb372.persevere.delay.DelayStrategy;
+import com.github.cb372.persevere.delay.FeedbackDelayStrategy;
+import com.github.cb372.persevere.limit.ConcurrencyLimitExceededException;
+import com.github.cb372.persevere.limit.ConcurrencyLimiter;
+import com.github.cb372.persevere.listener.RetryListener;
+import com.github.cb372.persevere.policy.RetryPolicy;
+import com.github.cb372.persevere.scheduler.Prioritized;
+import com.github.cb372.persevere.scheduler.Scheduler;
 
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.BiConsumer;
 
 /**
+ * Makes the attempts of a single call. The same task is rescheduled for every retry,
+ * so a retry costs no allocation beyond whatever the {@link Scheduler} needs to schedule it.
+ *
+ * Attempts never overlap, and each one is handed to the scheduler by the previous one,
+ * so the mutable per-attempt state is safely published from one attempt to the next.
+ * Once an attempt has rescheduled the task, it must not touch that state again.
+ *
+ * The task is registered as the {@link PersevereFuture}'s current task before it is first submitted,
+ * so cancelling the future cancels the pending retry or in-flight attempt.
+ *
  * Author: chris
  * Created: 5/2/13
  */
-public class PersevereTask<T> implements Runnable {
+public class PersevereTask<T> implements Runnable, Future<Void>, Prioritized {
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<PersevereTask.AttemptWatchdog> WATCHDOG_STATE =
+            AtomicIntegerFieldUpdater.newUpdater(PersevereTask.AttemptWatchdog.class, "state");
+
+    /** The longest an attempt waits before asking a full {@link ConcurrencyLimiter} again */
+    static final long MAX_PERMIT_BACKOFF_MS = 100L;
+
     private final Config<T> config;
-    private final int tryCount;
+    private int tryCount;
+    private long attemptStartNanos;
+    private boolean holdsPermit;
+    private long breakerPermission = CircuitBreaker.NOT_PERMITTED;
+    private int rejections;
+    private boolean runningInline;
+
+    /** The pending retry, running attempt or in-flight async stage, to cancel if the call is cancelled */
+    private volatile Future<?> currentFuture;
+    private volatile boolean cancelled;
 
     public PersevereTask(Config<T> config, int tryCount) {
         this.config = config;
@@ -26,55 +72,509 @@ public class PersevereTask<T> implements Runnable {
 
     @Override
     public void run() {
+        if (cancelled) {
+            return;
+        }
+        if (config.hasDeadline && config.deadlineNanos - System.nanoTime() <= 0) {
+            // e.g. the scheduler was running behind, so don't bother making an attempt we know is too late
+            fail(new DeadlineExceededException());
+            return;
+        }
+        if (config.limiter != null) {
+            if (!config.limiter.tryAcquire()) {
+                // the dependency is saturated, which says nothing about this action, so wait without using up an attempt
+                waitForPermit();
+                return;
+            }
+            holdsPermit = true;
+            rejections = 0;
+        }
+        if (config.circuitBreaker != null) {
+            breakerPermission = config.circuitBreaker.tryAcquirePermission();
+            if (breakerPermission == CircuitBreaker.NOT_PERMITTED) {
+                releasePermit();
+                fail(new CircuitOpenException());
+                return;
+            }
+        }
+        if (config.listener != null) {
+            config.listener.onAttemptStarted(tryCount);
+        }
+        if (config.listener != null || config.limiter != null || config.feedback != null) {
+            attemptStartNanos = System.nanoTime();
+        }
+        if (config.asyncAction != null) {
+            runAsync();
+            return;
+        }
+        if (config.hasAttemptTimeout) {
+            runWithAttemptTimeout();
+            return;
+        }
+        try {
+            T result = config.action.execute(tryCount);
+            onSuccess(result);
+        } catch (InterruptedException e) {
+            onInterrupted(e);
+        } catch (Exception e) {
+            onFailure(e);
+        } catch (Throwable t) {
+            onError(t);
+        }
+    }
+
+    private void runWithAttemptTimeout() {
+        AttemptWatchdog watchdog = new AttemptWatchdog(Thread.currentThread(), null);
+        Future<?> timer = config.scheduler.schedule(watchdog, config.attemptTimeoutNanos, TimeUnit.NANOSECONDS);
         try {
             T result = config.action.execute(tryCount);
-            config.future.markComplete(ExecutionResult.success(result, tryCount));
-        } catch (GiveUp g) {
-            config.future.markComplete(ExecutionResult.<T>failure(g, tryCount));
+            if (watchdog.claimOutcome(timer)) {
+                onSuccess(result);
+            }
         } catch (InterruptedException e) {
-            // cancelled or otherwise interrupted, so stop retrying
+            // either cancelled, or interrupted by the watchdog which has already scheduled the next attempt
+            if (watchdog.claimOutcome(timer)) {
+                onInterrupted(e);
+            }
         } catch (Exception e) {
-            if (canRetry()) {
-                PersevereTask<T> nextTask = new PersevereTask<T>(config, tryCount + 1);
-
-                // Must synchronize to avoid race condition where future is cancelled
-                // between scheduling the next task and updating future.currentTaskFuture
-                synchronized (config.future) {
-                    Future<?> nextFuture = config.executor.schedule(nextTask, config.delayStrategy.getNextDelayMs(tryCount), TimeUnit.MILLISECONDS);
-                    config.future.setCurrentTaskFuture(nextFuture);
+            if (watchdog.claimOutcome(timer)) {
+                onFailure(e);
+            }
+        } catch (Throwable t) {
+            // claim the outcome even so, or the watchdog would interrupt whatever this thread is running by then
+            if (watchdog.claimOutcome(timer)) {
+                onError(t);
+            }
+        }
+    }
+
+    private void runAsync() {
+        CompletionStage<T> stage;
+        try {
+            stage = config.asyncAction.execute(tryCount);
+        } catch (InterruptedException e) {
+            onInterrupted(e);
+            return;
+        } catch (Exception e) {
+            onFailure(e);
+            return;
+        }
+        if (stage instanceof Future) {
+            // so that cancelling the Persevere future also cancels the in-flight attempt
+            track((Future<?>) stage);
+        }
+        final AttemptWatchdog watchdog;
+        final Future<?> timer;
+        if (config.hasAttemptTimeout) {
+            watchdog = new AttemptWatchdog(null, (stage instanceof Future) ? (Future<?>) stage : null);
+            timer = config.scheduler.schedule(watchdog, config.attemptTimeoutNanos, TimeUnit.NANOSECONDS);
+        } else {
+            watchdog = null;
+            timer = null;
+        }
+        stage.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable throwable) {
+                if (watchdog != null && !watchdog.claimOutcome(timer)) {
+                    // the attempt has already timed out
+                    return;
+                }
+                if (throwable == null) {
+                    onSuccess(result);
+                } else {
+                    onAsyncFailure(throwable);
                 }
+            }
+        });
+    }
+
+    private void onAsyncFailure(Throwable throwable) {
+        Throwable cause = throwable;
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof Exception) {
+            onFailure((Exception) cause);
+        } else {
+            onError(cause);
+        }
+    }
+
+    /**
+     * The action threw an Error (or some other non-Exception throwable), which is not something we should retry.
+     */
+    private void onError(Throwable t) {
+        if (holdsPermit) {
+            holdsPermit = false;
+            config.limiter.onFailure();
+        }
+        releaseBreakerPermission();
+        fail(new ExecutionException(t));
+    }
+
+    private void onSuccess(T result) {
+        if (holdsPermit) {
+            holdsPermit = false;
+            config.limiter.onSuccess(System.nanoTime() - attemptStartNanos);
+        }
+        if (config.feedback != null) {
+            config.feedback.onAttemptSucceeded(System.nanoTime() - attemptStartNanos);
+        }
+        if (breakerPermission != CircuitBreaker.NOT_PERMITTED) {
+            config.circuitBreaker.onSuccess(breakerPermission);
+            breakerPermission = CircuitBreaker.NOT_PERMITTED;
+        }
+        config.future.markComplete(ExecutionResult.success(result, tryCount));
+        if (config.listener != null) {
+            config.listener.onSuccess(tryCount, System.nanoTime() - config.startNanos);
+        }
+    }
+
+    private void fail(Exception e) {
+        config.future.markComplete(ExecutionResult.<T>failure(e, tryCount));
+        if (config.listener != null) {
+            config.listener.onFailure(tryCount, e, System.nanoTime() - config.startNanos);
+        }
+    }
+
+    private void onFailure(Exception e) {
+        if (config.listener != null) {
+            config.listener.onAttemptFailed(tryCount, e, System.nanoTime() - attemptStartNanos);
+        }
+        boolean giveUp = isFatal(e);
+        if (holdsPermit) {
+            holdsPermit = false;
+            if (giveUp) {
+                config.limiter.release();
             } else {
-                config.future.markComplete(ExecutionResult.<T>failure(e, tryCount));
+                config.limiter.onFailure();
             }
         }
+        if (breakerPermission != CircuitBreaker.NOT_PERMITTED) {
+            if (giveUp || config.future.isDone()) {
+                // the action gave up, or the attempt was cancelled, which says nothing about the dependency's health
+                config.circuitBreaker.releasePermission(breakerPermission);
+            } else {
+                config.circuitBreaker.onFailure(breakerPermission);
+            }
+            breakerPermission = CircuitBreaker.NOT_PERMITTED;
+        }
+        if (config.feedback != null && !giveUp) {
+            config.feedback.onAttemptFailed(e, System.nanoTime() - attemptStartNanos);
+        }
+        if (giveUp) {
+            fail(e);
+        } else if (config.future.isDone()) {
+            // cancelled while the attempt was in flight, so stop retrying
+        } else if (canRetry()) {
+            if (config.retryBudget != null && !config.retryBudget.tryAcquireRetry()) {
+                fail(new RetryBudgetExhaustedException(e));
+                return;
+            }
+            long elapsedNanos = System.nanoTime() - config.startNanos;
+            long delayMs = (config.retryPolicy == null)
+                    ? config.delayStrategy.getNextDelayMs(tryCount, e, elapsedNanos)
+                    : config.retryPolicy.getNextDelayMs(e, tryCount, elapsedNanos, config.delayStrategy);
+            if (config.hasDeadline && TimeUnit.MILLISECONDS.toNanos(delayMs) >= config.deadlineNanos - System.nanoTime()) {
+                fail(new DeadlineExceededException(e));
+                return;
+            }
+            runningInline = false;
+            int nextTryCount = ++tryCount;
+            RetryListener listener = config.listener;
+            // from here on, the next attempt may already be running, so only use locals
+            track(config.scheduler.schedule(this, delayMs, TimeUnit.MILLISECONDS));
+            if (listener != null) {
+                listener.onRetryScheduled(nextTryCount, delayMs);
+            }
+        } else {
+            fail(e);
+        }
+    }
+
+    private boolean isFatal(Exception e) {
+        if (e instanceof GiveUp) {
+            return true;
+        }
+        return config.retryPolicy != null && config.retryPolicy.isFatal(e);
+    }
+
+    /**
+     * The limiter was full, so try the same attempt again shortly.
+     * Nothing was attempted, so the try count, retry budget, circuit breaker, feedback and listener are left alone.
+     */
+    private void waitForPermit() {
+        long delayMs = permitBackoffMs(++rejections);
+        if (config.hasDeadline && TimeUnit.MILLISECONDS.toNanos(delayMs) >= config.deadlineNanos - System.nanoTime()) {
+            fail(new DeadlineExceededException(new ConcurrencyLimitExceededException(config.limiter.getLimit())));
+            return;
+        }
+        runningInline = false;
+        // from here on, the next attempt may already be running
+        track(config.scheduler.schedule(this, delayMs, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * How long to wait before asking a full limiter again: exponential with jitter, from 1ms up to
+     * {@value #MAX_PERMIT_BACKOFF_MS}ms, so that waiting attempts neither spin nor all wake up at once.
+     *
+     * @param rejections the number of times in a row the limiter has been full, starting at 1
+     */
+    static long permitBackoffMs(int rejections) {
+        long base = 1L << Math.min(rejections - 1, 6);
+        return Math.min(MAX_PERMIT_BACKOFF_MS, base + ThreadLocalRandom.current().nextLong(base));
+    }
+
+    /**
+     * Run the first attempt on the calling thread rather than submitting it to the scheduler.
+     * Any retries are scheduled as usual.
+     */
+    void runInline() {
+        runningInline = true;
+        run();
+        // the task may have been rescheduled, so don't touch its state here
+    }
+
+    private void onInterrupted(InterruptedException e) {
+        releasePermit();
+        releaseBreakerPermission();
+        if (runningInline) {
+            // the caller was interrupted, not cancelled by us, so give the interrupt back and fail the call
+            Thread.currentThread().interrupt();
+            fail(e);
+        }
+        // otherwise we were cancelled, so stop retrying
+    }
+
+    private void releasePermit() {
+        if (holdsPermit) {
+            holdsPermit = false;
+            config.limiter.release();
+        }
+    }
+
+    private void releaseBreakerPermission() {
+        if (breakerPermission != CircuitBreaker.NOT_PERMITTED) {
+            config.circuitBreaker.releasePermission(breakerPermission);
+            breakerPermission = CircuitBreaker.NOT_PERMITTED;
+        }
+    }
+
+    /**
+     * Called with the future of the first attempt, once it has been submitted.
+     */
+    void submitted(Future<?> future) {
+        track(future);
+    }
+
+    /**
+     * Remember the given future so that {@link #cancel(boolean)} can cancel it.
+     *
+     * If the call is cancelled concurrently, at least one of us sees the other's write, so the future is cancelled.
+     * If the next attempt has already run and rescheduled the task by the time this write happens,
+     * the future will be stale and a later pending retry won't be cancelled eagerly,
+     * but that retry will see the cancelled flag and do nothing when it runs.
+     */
+    private void track(Future<?> future) {
+        currentFuture = future;
+        if (cancelled) {
+            future.cancel(false);
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        cancelled = true;
+        Future<?> future = currentFuture;
+        if (future != null) {
+            future.cancel(mayInterruptIfRunning);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return config.future.isDone();
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+        config.future.get();
+        return null;
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        config.future.get(timeout, unit);
+        return null;
+    }
+
+    @Override
+    public int getPriority() {
+        return config.priority;
+    }
+
+    @Override
+    public Object getTenant() {
+        return config.tenant;
+    }
+
+    /**
+     * Only meaningful while the task is being handed to the scheduler, which is when schedulers ask.
+     */
+    @Override
+    public boolean isRetry() {
+        return tryCount > 0;
     }
 
     private boolean canRetry() {
         return (config.maxRetries < 0 || tryCount < config.maxRetries);
     }
 
+    /**
+     * Races with the attempt to decide its outcome.
+     * If the attempt finishes first, the watchdog does nothing.
+     * If the watchdog fires first, the attempt is abandoned (and interrupted, if it is running on a thread)
+     * and treated as a retryable failure, and whatever the attempt eventually returns is ignored.
+     */
+    private final class AttemptWatchdog implements Runnable {
+        private static final int RUNNING = 0;
+        private static final int FINISHED = 1;
+        private static final int TIMING_OUT = 2;
+        private static final int TIMED_OUT = 3;
+
+        private final Thread attemptThread;
+        private final Future<?> attemptFuture;
+        // not private, so that the updater can reach it on JVMs without nestmate access
+        volatile int state = RUNNING;
+
+        AttemptWatchdog(Thread attemptThread, Future<?> attemptFuture) {
+            this.attemptThread = attemptThread;
+            this.attemptFuture = attemptFuture;
+        }
+
+        @Override
+        public void run() {
+            if (!WATCHDOG_STATE.compareAndSet(this, RUNNING, TIMING_OUT)) {
+                return;
+            }
+            if (attemptThread != null) {
+                attemptThread.interrupt();
+            }
+            if (attemptFuture != null) {
+                attemptFuture.cancel(true);
+            }
+            state = TIMED_OUT;
+            onFailure(new AttemptTimeoutException(TimeUnit.NANOSECONDS.toMillis(config.attemptTimeoutNanos)));
+        }
+
+        /**
+         * Called when the attempt finishes.
+         * @return true if the attempt finished in time, so the caller should handle its outcome
+         */
+        boolean claimOutcome(Future<?> timer) {
+            if (WATCHDOG_STATE.compareAndSet(this, RUNNING, FINISHED)) {
+                timer.cancel(false);
+                return true;
+            }
+            if (attemptThread != null) {
+                // Wait for the watchdog to finish interrupting us, then clear the interrupt
+                // so that it doesn't leak into whatever this thread runs next
+                while (state == TIMING_OUT) {
+                    Thread.yield();
+                }
+                Thread.interrupted();
+            }
+            return false;
+        }
+    }
+
     /**
      * The immutable configuration of a {@link com.github.cb372.persevere.impl.PersevereTask}.
      * This config is passed from one task to the next when performing retries.
+     * Exactly one of {@link #action} and {@link #asyncAction} is non-null.
+     * The retry budget, circuit breaker, deadline, attempt timeout, listener, concurrency limiter and retry policy are optional.
+     * The deadline is measured from when the config is created.
      * @param <T> result type of the {@link com.github.cb372.persevere.action.RetryableAction}
      */
     protected static final class Config<T> {
+        static final long NO_TIMEOUT = -1L;
+
         protected final RetryableAction<T> action;
+        protected final AsyncRetryableAction<T> asyncAction;
         protected final PersevereFuture<T> future;
-        protected final ScheduledExecutorService executor;
+        protected final Scheduler scheduler;
         protected final int maxRetries;
         protected final DelayStrategy delayStrategy;
+        protected final RetryBudget retryBudget;
+        protected final CircuitBreaker circuitBreaker;
+        protected final boolean hasDeadline;
+        protected final long deadlineNanos;
+        protected final boolean hasAttemptTimeout;
+        protected final long attemptTimeoutNanos;
+        protected final RetryListener listener;
+        protected final long startNanos;
+        protected final ConcurrencyLimiter limiter;
+        protected final RetryPolicy retryPolicy;
+        protected final FeedbackDelayStrategy feedback;
+        protected final int priority;
+        protected final Object tenant;
 
         public Config(RetryableAction<T> action,
                       PersevereFuture<T> future,
-                      ScheduledExecutorService executor,
+                      Scheduler scheduler,
                       int maxRetries,
                       DelayStrategy delayStrategy) {
+            this(action, null, future, scheduler, maxRetries, delayStrategy, null, null, NO_TIMEOUT, NO_TIMEOUT, null, null, null, Prioritized.DEFAULT_PRIORITY, null);
+        }
+
+        public Config(AsyncRetryableAction<T> asyncAction,
+                      PersevereFuture<T> future,
+                      Scheduler scheduler,
+                      int maxRetries,
+                      DelayStrategy delayStrategy) {
+            this(null, asyncAction, future, scheduler, maxRetries, delayStrategy, null, null, NO_TIMEOUT, NO_TIMEOUT, null, null, null, Prioritized.DEFAULT_PRIORITY, null);
+        }
+
+        Config(RetryableAction<T> action,
+               AsyncRetryableAction<T> asyncAction,
+               PersevereFuture<T> future,
+               Scheduler scheduler,
+               int maxRetries,
+               DelayStrategy delayStrategy,
+               RetryBudget retryBudget,
+               CircuitBreaker circuitBreaker,
+               long timeoutNanos,
+               long attemptTimeoutNanos,
+               RetryListener listener,
+               ConcurrencyLimiter limiter,
+               RetryPolicy retryPolicy,
+               int priority,
+               Object tenant) {
             this.action = action;
+            this.asyncAction = asyncAction;
             this.future = future;
-            this.executor = executor;
+            this.scheduler = scheduler;
             this.maxRetries = maxRetries;
             this.delayStrategy = delayStrategy;
+            this.retryBudget = retryBudget;
+            this.circuitBreaker = circuitBreaker;
+            this.hasDeadline = (timeoutNanos != NO_TIMEOUT);
+            this.deadlineNanos = hasDeadline ? System.nanoTime() + timeoutNanos : 0L;
+            this.hasAttemptTimeout = (attemptTimeoutNanos != NO_TIMEOUT);
+            this.attemptTimeoutNanos = attemptTimeoutNanos;
+            this.listener = listener;
+            this.startNanos = System.nanoTime();
+            this.limiter = limiter;
+            this.retryPolicy = retryPolicy;
+            this.feedback = (delayStrategy instanceof FeedbackDelayStrategy) ? (FeedbackDelayStrategy) delayStrategy : null;
+            this.priority = priority;
+            this.tenant = tenant;
         }
     }
 
@@ -0,0 +1,87 @@
+package com.github.cb372.persevere.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free counter of events in a sliding time window.
+ *
+ * The window is divided into a ring of buckets. Each bucket remembers which
+ * time slot it was last used for, and is lazily reset when the ring wraps around to it.
+ * An increment that races with a reset may occasionally be lost, so counts are approximate.
+ * That is fine for the purposes of rate-based decisions and avoids any locking.
+ */
+public final class SlidingWindowCounter {
+    private final int numBuckets;
+    private final long bucketNanos;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray slots;
+
+    public SlidingWindowCounter(long window, TimeUnit unit, int numBuckets) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be greater than zero");
+        }
+        if (numBuckets <= 0) {
+            throw new IllegalArgumentException("Number of buckets must be greater than zero");
+        }
+        this.numBuckets = numBuckets;
+        this.bucketNanos = Math.max(1L, unit.toNanos(window) / numBuckets);
+        this.counts = new AtomicLongArray(numBuckets);
+        this.slots = new AtomicLongArray(numBuckets);
+        for (int i = 0; i < numBuckets; i++) {
+            slots.set(i, Long.MIN_VALUE);
+        }
+    }
+
+    public void increment() {
+        add(1L);
+    }
+
+    public void add(long delta) {
+        long slot = currentSlot();
+        int index = indexOf(slot);
+        long bucketSlot = slots.get(index);
+        if (bucketSlot != slot) {
+            if (slots.compareAndSet(index, bucketSlot, slot)) {
+                counts.set(index, 0L);
+            }
+        }
+        counts.addAndGet(index, delta);
+    }
+
+    /**
+     * @return the approximate number of events in the current window
+     */
+    public long sum() {
+        long slot = currentSlot();
+        long oldestSlot = slot - numBuckets + 1;
+        long sum = 0L;
+        for (int i = 0; i < numBuckets; i++) {
+            long bucketSlot = slots.get(i);
+            if (bucketSlot >= oldestSlot && bucketSlot <= slot) {
+                sum += counts.get(i);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Forget all events recorded so far.
+     */
+    public void reset() {
+        for (int i = 0; i < numBuckets; i++) {
+            slots.set(i, Long.MIN_VALUE);
+            counts.set(i, 0L);
+        }
+    }
+
+    private long currentSlot() {
+        return System.nanoTime() / bucketNanos;
+    }
+
+    private int indexOf(long slot) {
+        int index = (int) (slot % numBuckets);
+        return index < 0 ? index + numBuckets : index;
+    }
+
+}
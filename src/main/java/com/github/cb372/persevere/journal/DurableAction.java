@@ -0,0 +1,15 @@
+package com.github.cb372.persevere.journal;
+
+import com.github.cb372.persevere.action.RetryableAction;
+
+import java.io.Serializable;
+
+/**
+ * A {@link RetryableAction} that can be saved in a {@link RetryJournal}, so that its retries survive a restart.
+ *
+ * Everything the action needs must be serializable, and the action must be safe to run more than once:
+ * if the process dies after an attempt succeeds but before its completion is journalled,
+ * the action will be run again on recovery.
+ */
+public interface DurableAction<T> extends RetryableAction<T>, Serializable {
+}
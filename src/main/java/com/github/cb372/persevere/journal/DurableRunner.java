@@ -0,0 +1,289 @@
+package com.github.cb372.persevere.journal;
+
+import com.github.cb372.persevere.ExecutionResult;
+import com.github.cb372.persevere.action.GiveUp;
+import com.github.cb372.persevere.action.RetryableAction;
+import com.github.cb372.persevere.delay.DelayStrategy;
+import com.github.cb372.persevere.delay.FeedbackDelayStrategy;
+import com.github.cb372.persevere.impl.PersevereRunner;
+import com.github.cb372.persevere.listener.RetryListener;
+import com.github.cb372.persevere.listener.RetryListenerAdapter;
+import com.github.cb372.persevere.listener.RetryListeners;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * Performs {@link DurableAction}s with a {@link PersevereRunner}, saving each call and its retry state
+ * in a {@link RetryJournal} so that pending retries can be {@link #recover() recovered} after a restart.
+ *
+ * <pre>
+ * RetryJournal journal = RetryJournal.open(new File("/var/lib/myapp/retries.journal"));
+ * DurableRunner durable = new DurableRunner(Persevere.runner(), journal);
+ * durable.recover(); // reschedule anything left over from the last run
+ * Future&lt;ExecutionResult&lt;Void&gt;&gt; future = durable.persevere(sendInvoice, delayStrategy, maxRetries);
+ * </pre>
+ *
+ * The delay strategy must be serializable too. All of the strategies in
+ * {@link com.github.cb372.persevere.delay.DelayStrategies} are.
+ *
+ * The retry state is journalled every time a retry is scheduled, whether its delay came from the delay strategy
+ * or from a {@link com.github.cb372.persevere.policy.RetryPolicy}. This is done by a {@link RetryListener},
+ * composed with any listener already attached to the runner.
+ */
+public final class DurableRunner {
+    private final PersevereRunner runner;
+    private final RetryJournal journal;
+
+    public DurableRunner(PersevereRunner runner, RetryJournal journal) {
+        if (runner == null) {
+            throw new IllegalArgumentException("Please provide a PersevereRunner");
+        }
+        if (journal == null) {
+            throw new IllegalArgumentException("Please provide a RetryJournal");
+        }
+        this.runner = runner;
+        this.journal = journal;
+    }
+
+    /**
+     * Journal the call, then perform the action, retrying if it fails.
+     *
+     * @throws UncheckedIOException if the call could not be journalled, in which case it is not started
+     * @see PersevereRunner#persevere(RetryableAction, DelayStrategy, int)
+     */
+    public <T> Future<ExecutionResult<T>> persevere(DurableAction<T> action, DelayStrategy delayStrategy, int maxRetries) {
+        if (!(delayStrategy instanceof Serializable)) {
+            throw new IllegalArgumentException("The delay strategy must be Serializable to be journalled");
+        }
+        byte[] entry = serialize(new JournalEntry(action, delayStrategy, maxRetries));
+        long id = journal.recordPending(entry, 0, System.currentTimeMillis());
+        DurableCall<T> call = new DurableCall<T>(id, action, delayStrategy, maxRetries, 0);
+        call.run();
+        return call;
+    }
+
+    /**
+     * Reschedule the calls that were pending when the journal was opened, each at the time its next retry was due
+     * (or immediately, if that time has passed). Retry counts carry on from where they were,
+     * so a recovered call makes no more than maxRetries retries in total.
+     *
+     * Entries whose action can no longer be deserialized (e.g. because its class has changed) are skipped,
+     * but kept in the journal.
+     *
+     * @return the futures of the recovered calls. Only the first call to this method recovers anything.
+     */
+    public List<Future<ExecutionResult<Object>>> recover() {
+        List<RetryJournal.PendingRetry> pending = journal.takeRecovered();
+        List<Future<ExecutionResult<Object>>> futures = new ArrayList<Future<ExecutionResult<Object>>>(pending.size());
+        long now = System.currentTimeMillis();
+        for (RetryJournal.PendingRetry retry : pending) {
+            JournalEntry entry;
+            try {
+                entry = deserialize(retry.entry);
+            } catch (IOException e) {
+                continue;
+            } catch (ClassNotFoundException e) {
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            DurableAction<Object> action = (DurableAction<Object>) entry.action;
+            DurableCall<Object> call = new DurableCall<Object>(retry.id, action, entry.delayStrategy, entry.maxRetries, retry.tryCount);
+            long delayMs = Math.max(0L, retry.dueMillis - now);
+            if (delayMs == 0L) {
+                call.run();
+            } else {
+                Future<?> delayedStart = runner.getScheduler().schedule(call, delayMs, TimeUnit.MILLISECONDS);
+                // unless the call has already started, in which case it has registered the underlying call
+                call.chain.compareAndSet(null, delayedStart);
+            }
+            futures.add(call);
+        }
+        return futures;
+    }
+
+    private void journalComplete(long id) {
+        try {
+            journal.recordComplete(id);
+        } catch (RuntimeException e) {
+            // the call stays pending in the journal, so it will be run again on recovery
+        }
+    }
+
+    private static byte[] serialize(JournalEntry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(entry);
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to serialize action for the retry journal", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static JournalEntry deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return (JournalEntry) in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * One journalled call. Completes with the result of the underlying call,
+     * with its retry count adjusted to include any retries made before a restart.
+     */
+    private final class DurableCall<T> extends CompletableFuture<ExecutionResult<T>>
+            implements Runnable, BiConsumer<ExecutionResult<T>, Throwable> {
+        private final long id;
+        private final RetryableAction<T> action;
+        private final DelayStrategy delayStrategy;
+        private final int maxRetries;
+        private final int completedTries;
+        // the delayed start of a recovered call, and then the underlying call
+        final AtomicReference<Future<?>> chain = new AtomicReference<Future<?>>();
+
+        DurableCall(long id, final DurableAction<T> action, DelayStrategy delayStrategy, int maxRetries, final int completedTries) {
+            this.id = id;
+            this.completedTries = completedTries;
+            this.action = completedTries == 0 ? action : new RetryableAction<T>() {
+                @Override
+                public T execute(int retryCount) throws GiveUp, Exception {
+                    return action.execute(retryCount + completedTries);
+                }
+            };
+            this.delayStrategy = completedTries == 0 ? delayStrategy : new ResumedDelayStrategy(delayStrategy, completedTries);
+            this.maxRetries = maxRetries < 0 ? maxRetries : Math.max(0, maxRetries - completedTries);
+        }
+
+        /**
+         * Start the underlying call.
+         */
+        @Override
+        public void run() {
+            if (isDone()) {
+                return;
+            }
+            RetryListener journalling = new RetryListenerAdapter() {
+                @Override
+                public void onRetryScheduled(int retryCount, long delayMs) {
+                    try {
+                        long now = System.currentTimeMillis();
+                        // saturate, so that an absurdly long delay isn't recovered as already due
+                        long dueMillis = (delayMs > Long.MAX_VALUE - now) ? Long.MAX_VALUE : now + delayMs;
+                        journal.recordRetry(id, retryCount + completedTries, dueMillis);
+                    } catch (RuntimeException e) {
+                        // the journal keeps the previous state, so on recovery this retry would just run early
+                    }
+                }
+            };
+            RetryListener existing = runner.getRetryListener();
+            PersevereRunner journallingRunner = runner.withRetryListener(
+                    existing == null ? journalling : RetryListeners.compose(existing, journalling));
+            CompletableFuture<ExecutionResult<T>> started =
+                    journallingRunner.persevereAsync(action, delayStrategy, maxRetries).toCompletableFuture();
+            chain.set(started);
+            if (isCancelled()) {
+                started.cancel(false);
+            }
+            started.whenComplete(this);
+        }
+
+        /**
+         * Called when the underlying call completes.
+         */
+        @Override
+        public void accept(ExecutionResult<T> result, Throwable throwable) {
+            journalComplete(id);
+            if (throwable != null) {
+                completeExceptionally(throwable);
+            } else if (completedTries == 0) {
+                complete(result);
+            } else if (result.success) {
+                complete(ExecutionResult.success(result.result, result.retries + completedTries));
+            } else {
+                complete(ExecutionResult.<T>failure(result.exception, result.retries + completedTries));
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                Future<?> current = chain.get();
+                if (current != null) {
+                    current.cancel(mayInterruptIfRunning);
+                }
+                journalComplete(id);
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * Carries on a recovered call's delays from where they were before the restart.
+     * Passes feedback on to the underlying strategy if it wants it.
+     */
+    private static final class ResumedDelayStrategy implements FeedbackDelayStrategy {
+        private final DelayStrategy delegate;
+        private final int completedTries;
+
+        ResumedDelayStrategy(DelayStrategy delegate, int completedTries) {
+            this.delegate = delegate;
+            this.completedTries = completedTries;
+        }
+
+        @Override
+        public long getNextDelayMs(int completedRetries) {
+            return getNextDelayMs(completedRetries, null, 0L);
+        }
+
+        @Override
+        public long getNextDelayMs(int completedRetries, Exception lastException, long elapsedNanos) {
+            return delegate.getNextDelayMs(completedRetries + completedTries, lastException, elapsedNanos);
+        }
+
+        @Override
+        public void onAttemptSucceeded(long attemptNanos) {
+            if (delegate instanceof FeedbackDelayStrategy) {
+                ((FeedbackDelayStrategy) delegate).onAttemptSucceeded(attemptNanos);
+            }
+        }
+
+        @Override
+        public void onAttemptFailed(Exception exception, long attemptNanos) {
+            if (delegate instanceof FeedbackDelayStrategy) {
+                ((FeedbackDelayStrategy) delegate).onAttemptFailed(exception, attemptNanos);
+            }
+        }
+    }
+
+    private static final class JournalEntry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final DurableAction<?> action;
+        final DelayStrategy delayStrategy;
+        final int maxRetries;
+
+        JournalEntry(DurableAction<?> action, DelayStrategy delayStrategy, int maxRetries) {
+            this.action = action;
+            this.delayStrategy = delayStrategy;
+            this.maxRetries = maxRetries;
+        }
+    }
+
+}
@@ -0,0 +1,468 @@
+package com.github.cb372.persevere.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * A local, memory-mapped, append-only log of pending retries, so that they survive a restart.
+ * Use it via a {@link DurableRunner}.
+ *
+ * Each call is written once in full when it starts (the serialized action and delay strategy).
+ * After that, each scheduled retry only appends a small fixed-size record with the new retry count and due time,
+ * and completion appends a tombstone, so the cost per retry is a few dozen bytes copied into the page cache.
+ *
+ * Because the log is memory-mapped, a record survives a crash of the JVM as soon as it has been appended.
+ * To survive a crash of the machine it must also be flushed to disk. Flushes are batched:
+ * a background thread forces the log to disk every flush interval if anything has been appended,
+ * so at most one interval's worth of records can be lost. A flush interval of zero flushes after every record instead.
+ *
+ * When the log is full, it is compacted: the pending entries are rewritten to a fresh file,
+ * which atomically replaces the old one. The file grows if the pending entries need more than half of it.
+ *
+ * The file format is a header (magic number and version) followed by records, each prefixed by
+ * its length and a CRC32 of its contents. On opening, records are read up to the first one that is incomplete or corrupt.
+ */
+public final class RetryJournal implements Closeable {
+    public static final int DEFAULT_CAPACITY_BYTES = 16 * 1024 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 100L;
+
+    private static final int MAGIC = 0x50525631;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    // length + CRC
+    private static final int RECORD_HEADER_SIZE = 8;
+    // type + id
+    private static final int RECORD_PREFIX_SIZE = 9;
+    // retry count + due time
+    private static final int RETRY_STATE_SIZE = 12;
+
+    private static final byte PENDING = 1;
+    private static final byte RETRY = 2;
+    private static final byte COMPLETE = 3;
+
+    private final File file;
+    private final int minCapacity;
+    private final long flushIntervalMs;
+    private final boolean flushEveryRecord;
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private final CRC32 crc = new CRC32();
+
+    // everything below is guarded by this
+    private final Map<Long, Entry> pending = new HashMap<Long, Entry>();
+    private List<PendingRetry> recovered;
+    private long nextId = 1L;
+    private FileChannel channel;
+    private volatile MappedByteBuffer buffer;
+    private int position;
+    private boolean closed = false;
+    private ScheduledExecutorService flusher;
+
+    /**
+     * Open the journal in the given file with the default capacity and flush interval,
+     * creating it if it does not exist.
+     */
+    public static RetryJournal open(File file) throws IOException {
+        return open(file, DEFAULT_CAPACITY_BYTES, DEFAULT_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Open the journal in the given file, creating it if it does not exist.
+     * Any pending retries found in the file are made available to {@link DurableRunner#recover()}.
+     *
+     * @param file the journal file
+     * @param capacityBytes the initial size of the file. It grows if necessary.
+     * @param flushInterval how often to force appended records to disk. Zero means after every record.
+     * @param unit the unit of the flush interval
+     */
+    public static RetryJournal open(File file, int capacityBytes, long flushInterval, TimeUnit unit) throws IOException {
+        if (capacityBytes < 4096) {
+            throw new IllegalArgumentException("Capacity must be at least 4096 bytes");
+        }
+        if (flushInterval < 0) {
+            throw new IllegalArgumentException("Flush interval must not be negative");
+        }
+        RetryJournal journal = new RetryJournal(file, capacityBytes, unit.toMillis(flushInterval));
+        boolean opened = false;
+        try {
+            journal.load();
+            // last, so that nothing can fail once the flusher thread is running
+            journal.startFlusher();
+            opened = true;
+        } finally {
+            if (!opened) {
+                journal.abandon();
+            }
+        }
+        return journal;
+    }
+
+    private RetryJournal(File file, int minCapacity, long flushIntervalMs) {
+        this.file = file;
+        this.minCapacity = minCapacity;
+        this.flushIntervalMs = flushIntervalMs;
+        this.flushEveryRecord = flushIntervalMs == 0;
+    }
+
+    private synchronized void startFlusher() {
+        if (flushEveryRecord) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "persevere-journal-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushIfDirty();
+            }
+        }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Release whatever a failed {@link #open} had got hold of, without hiding the original failure.
+     */
+    private synchronized void abandon() {
+        closed = true;
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // the failure that got us here is more interesting
+            }
+        }
+    }
+
+    /**
+     * @return the number of calls that are pending, i.e. have started but not yet completed
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Force everything appended so far to disk.
+     */
+    public void flush() {
+        dirty.set(false);
+        buffer.force();
+    }
+
+    /**
+     * Rewrite the pending entries to a fresh file, discarding the records of completed calls.
+     * This happens automatically when the journal is full.
+     */
+    public synchronized void compact() throws IOException {
+        checkOpen();
+        compact(0);
+    }
+
+    /**
+     * Flush and close the journal. Calls still in progress are not affected, but they are no longer journalled,
+     * so they will be recovered the next time the journal is opened.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        buffer.force();
+        channel.close();
+    }
+
+    synchronized long recordPending(byte[] entry, int tryCount, long dueMillis) {
+        checkOpen();
+        long id = nextId++;
+        append(PENDING, id, tryCount, dueMillis, entry);
+        pending.put(id, new Entry(entry, tryCount, dueMillis));
+        return id;
+    }
+
+    /**
+     * Retries are recorded after they are scheduled, so a retry may be recorded after the one that follows it.
+     * A record that does not advance the try count is stale, and is ignored.
+     */
+    synchronized void recordRetry(long id, int tryCount, long dueMillis) {
+        Entry entry = pending.get(id);
+        if (closed || entry == null || tryCount <= entry.tryCount) {
+            return;
+        }
+        append(RETRY, id, tryCount, dueMillis, null);
+        entry.tryCount = tryCount;
+        entry.dueMillis = dueMillis;
+    }
+
+    synchronized void recordComplete(long id) {
+        if (closed || pending.remove(id) == null) {
+            return;
+        }
+        append(COMPLETE, id, 0, 0L, null);
+    }
+
+    /**
+     * @return the entries that were pending when the journal was opened. They are only returned once.
+     */
+    synchronized List<PendingRetry> takeRecovered() {
+        List<PendingRetry> result = recovered;
+        recovered = Collections.emptyList();
+        return result;
+    }
+
+    private void append(byte type, long id, int tryCount, long dueMillis, byte[] entry) {
+        int bodyLength = RECORD_PREFIX_SIZE
+                + (type == COMPLETE ? 0 : RETRY_STATE_SIZE)
+                + (entry == null ? 0 : entry.length);
+        int recordLength = RECORD_HEADER_SIZE + bodyLength;
+        if (position + recordLength > buffer.capacity()) {
+            try {
+                compact(recordLength);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to compact retry journal " + file, e);
+            }
+        }
+        MappedByteBuffer buf = buffer;
+        int start = position;
+        buf.position(start + RECORD_HEADER_SIZE);
+        buf.put(type).putLong(id);
+        if (type != COMPLETE) {
+            buf.putInt(tryCount).putLong(dueMillis);
+        }
+        if (entry != null) {
+            buf.put(entry);
+        }
+        buf.putInt(start + 4, checksum(buf, start + RECORD_HEADER_SIZE, bodyLength));
+        // the length goes in last, so a torn record reads as the end of the log
+        buf.putInt(start, bodyLength);
+        position = start + recordLength;
+
+        if (flushEveryRecord) {
+            buf.force();
+        } else {
+            dirty.set(true);
+        }
+    }
+
+    private int checksum(ByteBuffer buf, int offset, int length) {
+        ByteBuffer body = buf.duplicate();
+        body.limit(offset + length).position(offset);
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    private void flushIfDirty() {
+        if (dirty.compareAndSet(true, false)) {
+            buffer.force();
+        }
+    }
+
+    private void load() throws IOException {
+        List<PendingRetry> found = new ArrayList<PendingRetry>();
+        if (file.exists() && file.length() > 0) {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                MappedByteBuffer existing = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                readRecords(existing);
+            } finally {
+                raf.close();
+            }
+            for (Map.Entry<Long, Entry> e : pending.entrySet()) {
+                found.add(new PendingRetry(e.getKey(), e.getValue().entry, e.getValue().tryCount, e.getValue().dueMillis));
+            }
+        }
+        recovered = found;
+        // start from a clean file, so that no torn or stale records are left beyond the end of the log
+        compact(0);
+    }
+
+    private void readRecords(ByteBuffer buf) throws IOException {
+        if (buf.capacity() < FILE_HEADER_SIZE || buf.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a retry journal");
+        }
+        if (buf.getInt(4) != VERSION) {
+            throw new IOException(file + " has unsupported journal version " + buf.getInt(4));
+        }
+        int pos = FILE_HEADER_SIZE;
+        while (pos + RECORD_HEADER_SIZE <= buf.capacity()) {
+            int bodyLength = buf.getInt(pos);
+            if (bodyLength < RECORD_PREFIX_SIZE || bodyLength > buf.capacity() - pos - RECORD_HEADER_SIZE) {
+                break;
+            }
+            int bodyStart = pos + RECORD_HEADER_SIZE;
+            if (checksum(buf, bodyStart, bodyLength) != buf.getInt(pos + 4)) {
+                break;
+            }
+            byte type = buf.get(bodyStart);
+            long id = buf.getLong(bodyStart + 1);
+            nextId = Math.max(nextId, id + 1);
+            if (type == PENDING || type == RETRY) {
+                int tryCount = buf.getInt(bodyStart + RECORD_PREFIX_SIZE);
+                long dueMillis = buf.getLong(bodyStart + RECORD_PREFIX_SIZE + 4);
+                if (type == PENDING) {
+                    byte[] entry = new byte[bodyLength - RECORD_PREFIX_SIZE - RETRY_STATE_SIZE];
+                    ByteBuffer body = buf.duplicate();
+                    body.position(bodyStart + RECORD_PREFIX_SIZE + RETRY_STATE_SIZE);
+                    body.get(entry);
+                    pending.put(id, new Entry(entry, tryCount, dueMillis));
+                } else {
+                    Entry entry = pending.get(id);
+                    // ignore a stale retry, in case one was written by an older version
+                    if (entry != null && tryCount > entry.tryCount) {
+                        entry.tryCount = tryCount;
+                        entry.dueMillis = dueMillis;
+                    }
+                }
+            } else if (type == COMPLETE) {
+                pending.remove(id);
+            } else {
+                break;
+            }
+            pos = bodyStart + bodyLength;
+        }
+    }
+
+    /**
+     * Write the pending entries to a fresh file, with room for at least the given number of extra bytes,
+     * and atomically move it over the old one.
+     */
+    private void compact(int extraBytes) throws IOException {
+        long liveBytes = FILE_HEADER_SIZE + (long) extraBytes;
+        for (Entry entry : pending.values()) {
+            liveBytes += RECORD_HEADER_SIZE + RECORD_PREFIX_SIZE + RETRY_STATE_SIZE + entry.entry.length;
+        }
+        long capacity = minCapacity;
+        while (capacity < 2 * liveBytes) {
+            capacity *= 2;
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Retry journal " + file + " is too large to compact");
+        }
+
+        File compacted = new File(file.getPath() + ".compact");
+        RandomAccessFile raf = new RandomAccessFile(compacted, "rw");
+        FileChannel newChannel = raf.getChannel();
+        MappedByteBuffer newBuffer;
+        try {
+            raf.setLength(0L);
+            raf.setLength(capacity);
+            newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            newBuffer.putInt(0, MAGIC);
+            newBuffer.putInt(4, VERSION);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+
+        FileChannel oldChannel = channel;
+        channel = newChannel;
+        buffer = newBuffer;
+        position = FILE_HEADER_SIZE;
+        for (Map.Entry<Long, Entry> e : pending.entrySet()) {
+            writeWithoutFlush(e.getKey(), e.getValue());
+        }
+        newBuffer.force();
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // the rename is only durable once the directory entry itself has reached the disk
+        forceDirectory(file.getAbsoluteFile().getParentFile());
+        if (oldChannel != null) {
+            oldChannel.close();
+        }
+        dirty.set(false);
+    }
+
+    private static void forceDirectory(File directory) throws IOException {
+        FileChannel dirChannel;
+        try {
+            dirChannel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            // some platforms (e.g. Windows) can't open a directory, but they make renames durable themselves
+            return;
+        }
+        try {
+            dirChannel.force(true);
+        } finally {
+            dirChannel.close();
+        }
+    }
+
+    private void writeWithoutFlush(long id, Entry entry) {
+        MappedByteBuffer buf = buffer;
+        int start = position;
+        int bodyLength = RECORD_PREFIX_SIZE + RETRY_STATE_SIZE + entry.entry.length;
+        buf.position(start + RECORD_HEADER_SIZE);
+        buf.put(PENDING).putLong(id).putInt(entry.tryCount).putLong(entry.dueMillis).put(entry.entry);
+        buf.putInt(start + 4, checksum(buf, start + RECORD_HEADER_SIZE, bodyLength));
+        buf.putInt(start, bodyLength);
+        position = start + RECORD_HEADER_SIZE + bodyLength;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Retry journal " + file + " has been closed");
+        }
+    }
+
+    /**
+     * The state of a pending call. Guarded by the journal's lock.
+     */
+    private static final class Entry {
+        final byte[] entry;
+        int tryCount;
+        long dueMillis;
+
+        Entry(byte[] entry, int tryCount, long dueMillis) {
+            this.entry = entry;
+            this.tryCount = tryCount;
+            this.dueMillis = dueMillis;
+        }
+    }
+
+    /**
+     * A call that was pending when the journal was opened.
+     */
+    static final class PendingRetry {
+        final long id;
+        final byte[] entry;
+        final int tryCount;
+        final long dueMillis;
+
+        PendingRetry(long id, byte[] entry, int tryCount, long dueMillis) {
+            this.id = id;
+            this.entry = entry;
+            this.tryCount = tryCount;
+            this.dueMillis = dueMillis;
+        }
+    }
+
+}
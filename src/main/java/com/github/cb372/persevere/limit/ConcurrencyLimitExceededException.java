@@ -0,0 +1,15 @@
+package com.github.cb372.persevere.limit;
+
+/**
+ * The cause of the {@link com.github.cb372.persevere.DeadlineExceededException} in a failed
+ * {@link com.github.cb372.persevere.ExecutionResult} when the call ran out of time
+ * waiting for the {@link ConcurrencyLimiter} to have room.
+ */
+public final class ConcurrencyLimitExceededException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public ConcurrencyLimitExceededException(int limit) {
+        super("Concurrency limit of " + limit + " in-flight attempts was reached");
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.github.cb372.persevere.limit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bulkhead that caps the number of attempts in flight against a dependency,
+ * and adapts the cap to how the dependency is coping, using AIMD (additive increase, multiplicative decrease).
+ *
+ * <ul>
+ *   <li>Each attempt that succeeds within the latency threshold while the limit is being used
+ *       (at least half of it in flight) raises the limit by one.</li>
+ *   <li>Each attempt that fails, or takes longer than the latency threshold, cuts the limit by the backoff ratio.</li>
+ * </ul>
+ *
+ * So the limit grows while the dependency is healthy, and shrinks quickly when it starts to brown out,
+ * shedding load from both your threads and the dependency.
+ *
+ * Share one limiter between all actions calling the same dependency. It is lock-free.
+ */
+public final class ConcurrencyLimiter {
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNanos;
+    private final AtomicInteger limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * @param initialLimit the limit to start with
+     * @param minLimit the limit will never be cut below this
+     * @param maxLimit the limit will never be raised above this
+     * @param backoffRatio the factor (between 0 and 1) by which the limit is cut when an attempt fails or is too slow
+     * @param latencyThreshold attempts slower than this are treated as a sign of overload
+     * @param unit the unit of latencyThreshold
+     */
+    public ConcurrencyLimiter(int initialLimit,
+                              int minLimit,
+                              int maxLimit,
+                              double backoffRatio,
+                              long latencyThreshold, TimeUnit unit) {
+        if (minLimit <= 0) {
+            throw new IllegalArgumentException("Min limit must be greater than zero");
+        }
+        if (maxLimit < minLimit) {
+            throw new IllegalArgumentException("Max limit must not be less than min limit");
+        }
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Initial limit must be between min limit and max limit");
+        }
+        if (backoffRatio <= 0.0 || backoffRatio >= 1.0) {
+            throw new IllegalArgumentException("Backoff ratio must be greater than 0 and less than 1");
+        }
+        if (latencyThreshold <= 0) {
+            throw new IllegalArgumentException("Latency threshold must be greater than zero");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyThresholdNanos = unit.toNanos(latencyThreshold);
+        this.limit = new AtomicInteger(initialLimit);
+    }
+
+    /**
+     * A limiter that starts at the given limit, may range between 1 and maxLimit,
+     * and cuts the limit by 10% whenever an attempt fails or takes longer than the latency threshold.
+     */
+    public static ConcurrencyLimiter aimd(int initialLimit, int maxLimit, long latencyThreshold, TimeUnit unit) {
+        return new ConcurrencyLimiter(initialLimit, 1, maxLimit, 0.9, latencyThreshold, unit);
+    }
+
+    /**
+     * @return the current limit on attempts in flight
+     */
+    public int getLimit() {
+        return limit.get();
+    }
+
+    /**
+     * @return the number of attempts currently in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Ask whether an attempt may be made now.
+     * If this returns true, the attempt must be reported using
+     * {@link #onSuccess(long)}, {@link #onFailure()} or {@link #release()} when it finishes.
+     *
+     * @return true if the attempt is permitted
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit.get()) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Report that a permitted attempt succeeded.
+     *
+     * @param latencyNanos how long the attempt took
+     */
+    public void onSuccess(long latencyNanos) {
+        int current = inFlight.getAndDecrement();
+        if (latencyNanos > latencyThresholdNanos) {
+            decrease();
+        } else {
+            increase(current);
+        }
+    }
+
+    /**
+     * Report that a permitted attempt failed, e.g. because it threw an exception or timed out.
+     */
+    public void onFailure() {
+        inFlight.decrementAndGet();
+        decrease();
+    }
+
+    /**
+     * Report that a permitted attempt finished without telling us anything about the dependency's health,
+     * e.g. it gave up or was cancelled.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    private void increase(int inFlightBefore) {
+        while (true) {
+            int current = limit.get();
+            if (current >= maxLimit || inFlightBefore * 2 < current) {
+                // at the max, or not using enough of the limit to know if a higher one would be OK
+                return;
+            }
+            if (limit.compareAndSet(current, current + 1)) {
+                return;
+            }
+        }
+    }
+
+    private void decrease() {
+        while (true) {
+            int current = limit.get();
+            int next = Math.max(minLimit, (int) (current * backoffRatio));
+            if (next == current || limit.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+}
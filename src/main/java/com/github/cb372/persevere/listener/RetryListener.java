@@ -0,0 +1,59 @@
+package com.github.cb372.persevere.listener;
+
+/**
+ * Receives notifications about what Persevere is doing: every attempt, retry and final outcome.
+ *
+ * Listeners are called synchronously on the thread performing the attempt (or completing it, for async actions),
+ * so implementations must be fast, thread-safe and must not throw.
+ * Extend {@link RetryListenerAdapter} if you are only interested in some of the events.
+ */
+public interface RetryListener {
+
+    /**
+     * An attempt is about to be made.
+     *
+     * @param retryCount 0 for the first attempt, 1 for the first retry, etc.
+     */
+    public void onAttemptStarted(int retryCount);
+
+    /**
+     * An attempt threw an exception (or, for an async action, its stage completed exceptionally).
+     *
+     * @param retryCount 0 for the first attempt, 1 for the first retry, etc.
+     * @param exception the exception thrown by the attempt
+     * @param attemptNanos how long the attempt took
+     */
+    public void onAttemptFailed(int retryCount, Exception exception, long attemptNanos);
+
+    /**
+     * A retry has been scheduled.
+     *
+     * @param retryCount the retry count of the scheduled retry, i.e. 1 for the first retry
+     * @param delayMs how long the retry will wait before starting
+     */
+    public void onRetryScheduled(int retryCount, long delayMs);
+
+    /**
+     * The action succeeded.
+     *
+     * @param retries the number of retries performed before the successful attempt
+     * @param totalNanos the time from the call to Persevere until the action succeeded
+     */
+    public void onSuccess(int retries, long totalNanos);
+
+    /**
+     * The action failed and will not be retried, either because it gave up, ran out of retries
+     * or was stopped by a retry budget, circuit breaker or deadline.
+     *
+     * @param retries the number of retries performed
+     * @param exception the exception in the final result
+     * @param totalNanos the time from the call to Persevere until the action failed
+     */
+    public void onFailure(int retries, Exception exception, long totalNanos);
+
+    /**
+     * The call was cancelled by the caller.
+     */
+    public void onCancelled();
+
+}
@@ -0,0 +1,33 @@
+package com.github.cb372.persevere.listener;
+
+/**
+ * A {@link RetryListener} that ignores every event.
+ * Extend this and override the events you are interested in.
+ */
+public abstract class RetryListenerAdapter implements RetryListener {
+
+    @Override
+    public void onAttemptStarted(int retryCount) {
+    }
+
+    @Override
+    public void onAttemptFailed(int retryCount, Exception exception, long attemptNanos) {
+    }
+
+    @Override
+    public void onRetryScheduled(int retryCount, long delayMs) {
+    }
+
+    @Override
+    public void onSuccess(int retries, long totalNanos) {
+    }
+
+    @Override
+    public void onFailure(int retries, Exception exception, long totalNanos) {
+    }
+
+    @Override
+    public void onCancelled() {
+    }
+
+}
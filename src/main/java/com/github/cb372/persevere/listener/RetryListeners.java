@@ -0,0 +1,96 @@
+package com.github.cb372.persevere.listener;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+public final class RetryListeners {
+
+    private RetryListeners() {
+        // static methods only
+    }
+
+    /**
+     * A listener that logs failed attempts and scheduled retries at DEBUG,
+     * and final failures at WARN, to the given logger.
+     */
+    public static RetryListener logging(final Logger logger) {
+        return new RetryListenerAdapter() {
+            @Override
+            public void onAttemptFailed(int retryCount, Exception exception, long attemptNanos) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Attempt {} failed after {}ms: {}",
+                            retryCount, TimeUnit.NANOSECONDS.toMillis(attemptNanos), exception.toString());
+                }
+            }
+
+            @Override
+            public void onRetryScheduled(int retryCount, long delayMs) {
+                logger.debug("Scheduled retry {} in {}ms", retryCount, delayMs);
+            }
+
+            @Override
+            public void onFailure(int retries, Exception exception, long totalNanos) {
+                if (logger.isWarnEnabled()) {
+                    logger.warn("Action failed after {} retries and {}ms", retries, TimeUnit.NANOSECONDS.toMillis(totalNanos), exception);
+                }
+            }
+
+            @Override
+            public void onCancelled() {
+                logger.debug("Action was cancelled");
+            }
+        };
+    }
+
+    /**
+     * A listener that passes every event on to all of the given listeners, in order.
+     */
+    public static RetryListener compose(final RetryListener... listeners) {
+        final RetryListener[] copy = listeners.clone();
+        return new RetryListener() {
+            @Override
+            public void onAttemptStarted(int retryCount) {
+                for (RetryListener listener : copy) {
+                    listener.onAttemptStarted(retryCount);
+                }
+            }
+
+            @Override
+            public void onAttemptFailed(int retryCount, Exception exception, long attemptNanos) {
+                for (RetryListener listener : copy) {
+                    listener.onAttemptFailed(retryCount, exception, attemptNanos);
+                }
+            }
+
+            @Override
+            public void onRetryScheduled(int retryCount, long delayMs) {
+                for (RetryListener listener : copy) {
+                    listener.onRetryScheduled(retryCount, delayMs);
+                }
+            }
+
+            @Override
+            public void onSuccess(int retries, long totalNanos) {
+                for (RetryListener listener : copy) {
+                    listener.onSuccess(retries, totalNanos);
+                }
+            }
+
+            @Override
+            public void onFailure(int retries, Exception exception, long totalNanos) {
+                for (RetryListener listener : copy) {
+                    listener.onFailure(retries, exception, totalNanos);
+                }
+            }
+
+            @Override
+            public void onCancelled() {
+                for (RetryListener listener : copy) {
+                    listener.onCancelled();
+                }
+            }
+        };
+    }
+
+}
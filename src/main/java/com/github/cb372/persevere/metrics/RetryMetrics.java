@@ -0,0 +1,135 @@
+package com.github.cb372.persevere.metrics;
+
+import com.github.cb372.persevere.listener.RetryListener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link RetryListener} that records counters and latency histograms, for exporting to your metrics system.
+ *
+ * Everything is recorded with {@link LongAdder}s and lock-free {@link Histogram}s,
+ * so recording adds very little latency even when shared by many threads.
+ */
+public final class RetryMetrics implements RetryListener {
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder failedAttempts = new LongAdder();
+    private final LongAdder retriesScheduled = new LongAdder();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder cancellations = new LongAdder();
+    private final ConcurrentMap<Class<?>, LongAdder> failedAttemptsByException = new ConcurrentHashMap<Class<?>, LongAdder>();
+
+    private final Histogram attemptLatencyNanos = new Histogram();
+    private final Histogram callLatencyNanos = new Histogram();
+    private final Histogram backoffMs = new Histogram();
+    private final Histogram retriesPerCall = new Histogram();
+
+    @Override
+    public void onAttemptStarted(int retryCount) {
+        attempts.increment();
+    }
+
+    @Override
+    public void onAttemptFailed(int retryCount, Exception exception, long attemptNanos) {
+        failedAttempts.increment();
+        attemptLatencyNanos.record(attemptNanos);
+        LongAdder counter = failedAttemptsByException.get(exception.getClass());
+        if (counter == null) {
+            LongAdder newCounter = new LongAdder();
+            counter = failedAttemptsByException.putIfAbsent(exception.getClass(), newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.increment();
+    }
+
+    @Override
+    public void onRetryScheduled(int retryCount, long delayMs) {
+        retriesScheduled.increment();
+        backoffMs.record(delayMs);
+    }
+
+    @Override
+    public void onSuccess(int retries, long totalNanos) {
+        successes.increment();
+        callLatencyNanos.record(totalNanos);
+        retriesPerCall.record(retries);
+    }
+
+    @Override
+    public void onFailure(int retries, Exception exception, long totalNanos) {
+        failures.increment();
+        callLatencyNanos.record(totalNanos);
+        retriesPerCall.record(retries);
+    }
+
+    @Override
+    public void onCancelled() {
+        cancellations.increment();
+    }
+
+    /** @return the number of attempts started, including retries */
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    /** @return the number of attempts that failed */
+    public long getFailedAttempts() {
+        return failedAttempts.sum();
+    }
+
+    /** @return the number of retries scheduled */
+    public long getRetriesScheduled() {
+        return retriesScheduled.sum();
+    }
+
+    /** @return the number of calls that succeeded */
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    /** @return the number of calls that failed without being retried any further */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /** @return the number of calls cancelled by the caller */
+    public long getCancellations() {
+        return cancellations.sum();
+    }
+
+    /** @return a snapshot of the number of failed attempts, by exception class */
+    public Map<Class<?>, Long> getFailedAttemptsByException() {
+        Map<Class<?>, Long> snapshot = new HashMap<Class<?>, Long>();
+        for (Map.Entry<Class<?>, LongAdder> entry : failedAttemptsByException.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        return snapshot;
+    }
+
+    /** @return how long failed attempts took, in nanoseconds */
+    public Histogram getFailedAttemptLatencyNanos() {
+        return attemptLatencyNanos;
+    }
+
+    /** @return how long calls took from start to final outcome, in nanoseconds */
+    public Histogram getCallLatencyNanos() {
+        return callLatencyNanos;
+    }
+
+    /** @return the delays before each retry, in milliseconds. Their sum is the total time spent in backoff. */
+    public Histogram getBackoffMs() {
+        return backoffMs;
+    }
+
+    /** @return the number of retries made by each completed call */
+    public Histogram getRetriesPerCall() {
+        return retriesPerCall;
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.github.cb372.persevere.policy;
+
+/**
+ * Chooses the delay before retrying based on the exception that the attempt failed with,
+ * e.g. to honour a Retry-After header returned by a server.
+ *
+ * @param <E> the type of exception
+ */
+public interface RetryAfter<E extends Exception> {
+
+    /**
+     * @param exception the exception thrown by the failed attempt
+     * @param completedRetries How many retries have been completed. e.g. 0 -> the pause between the first try and the first retry.
+     * @return required delay in ms, or a negative value to fall back to the call's {@link com.github.cb372.persevere.delay.DelayStrategy}
+     */
+    public long getDelayMs(E exception, int completedRetries);
+
+}
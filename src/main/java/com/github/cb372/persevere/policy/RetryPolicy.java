@@ -0,0 +1,204 @@
+package com.github.cb372.persevere.policy;
+
+import com.github.cb372.persevere.action.GiveUp;
+import com.github.cb372.persevere.delay.DelayStrategy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+/**
+ * Decides which exceptions are worth retrying, and how long to wait before doing so,
+ * so that actions don't need to wrap hopeless errors in {@link GiveUp}.
+ *
+ * A policy is an ordered list of rules, each matching an exception type (and optionally a predicate),
+ * built up using the {@code retryOn...} and {@code giveUpOn...} methods. Each of these returns a new policy.
+ * The first matching rule wins. Exceptions that match no rule are retried using the call's delay strategy,
+ * and {@link GiveUp} is never retried.
+ *
+ * <pre>
+ * RetryPolicy policy = RetryPolicy.retryAll()
+ *     .retryOn(ThrottledException.class, serverRetryAfter)
+ *     .giveUpOn(IllegalArgumentException.class)
+ *     .giveUpOn(HttpException.class, isClientError);
+ * </pre>
+ *
+ * The rules that could apply to each exception class are worked out once and cached,
+ * so classifying an exception usually costs a single map lookup.
+ */
+public final class RetryPolicy {
+    private static final RetryPolicy RETRY_ALL = new RetryPolicy(new Rule[0]);
+
+    private final Rule[] rules;
+    private final ConcurrentMap<Class<?>, Rule[]> rulesByClass = new ConcurrentHashMap<Class<?>, Rule[]>();
+
+    private RetryPolicy(Rule[] rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * A policy that retries every exception except {@link GiveUp}, which is Persevere's default behaviour.
+     * Add rules to it to change that.
+     */
+    public static RetryPolicy retryAll() {
+        return RETRY_ALL;
+    }
+
+    /**
+     * @return a copy of this policy that does not retry exceptions of the given type
+     */
+    public RetryPolicy giveUpOn(Class<? extends Exception> type) {
+        return with(new Rule(type, null, true, null, null));
+    }
+
+    /**
+     * @return a copy of this policy that does not retry exceptions of the given type that match the predicate
+     */
+    public <E extends Exception> RetryPolicy giveUpOn(Class<E> type, Predicate<? super E> predicate) {
+        return with(new Rule(type, predicate, true, null, null));
+    }
+
+    /**
+     * Retry exceptions of the given type using the call's delay strategy.
+     * Useful to make an exception to a broader {@code giveUpOn} rule added afterwards.
+     *
+     * @return a copy of this policy that retries exceptions of the given type
+     */
+    public RetryPolicy retryOn(Class<? extends Exception> type) {
+        return with(new Rule(type, null, false, null, null));
+    }
+
+    /**
+     * @return a copy of this policy that retries exceptions of the given type using the given delay strategy
+     *         instead of the call's one
+     */
+    public RetryPolicy retryOn(Class<? extends Exception> type, DelayStrategy delayStrategy) {
+        if (delayStrategy == null) {
+            throw new IllegalArgumentException("Please provide a DelayStrategy");
+        }
+        return with(new Rule(type, null, false, delayStrategy, null));
+    }
+
+    /**
+     * @return a copy of this policy that retries exceptions of the given type
+     *         after a delay chosen from the exception itself
+     */
+    public <E extends Exception> RetryPolicy retryOn(Class<E> type, RetryAfter<? super E> retryAfter) {
+        if (retryAfter == null) {
+            throw new IllegalArgumentException("Please provide a RetryAfter");
+        }
+        return with(new Rule(type, null, false, null, retryAfter));
+    }
+
+    /**
+     * @param exception the exception thrown by a failed attempt
+     * @return true if the exception should not be retried
+     */
+    public boolean isFatal(Exception exception) {
+        if (exception instanceof GiveUp) {
+            return true;
+        }
+        Rule rule = ruleFor(exception);
+        return rule != null && rule.fatal;
+    }
+
+    /**
+     * @param exception the exception thrown by a failed attempt, which must not be fatal
+     * @param completedRetries How many retries have been completed
+     * @param defaultDelayStrategy the call's delay strategy, used unless a rule says otherwise
+     * @return how long to wait before retrying, in ms
+     */
+    public long getNextDelayMs(Exception exception, int completedRetries, DelayStrategy defaultDelayStrategy) {
+        return getNextDelayMs(exception, completedRetries, 0L, defaultDelayStrategy);
+    }
+
+    /**
+     * Like {@link #getNextDelayMs(Exception, int, DelayStrategy)}, passing on how long ago the call started
+     * to the delay strategy.
+     */
+    public long getNextDelayMs(Exception exception, int completedRetries, long elapsedNanos, DelayStrategy defaultDelayStrategy) {
+        Rule rule = ruleFor(exception);
+        if (rule != null) {
+            if (rule.delayStrategy != null) {
+                return rule.delayStrategy.getNextDelayMs(completedRetries, exception, elapsedNanos);
+            }
+            if (rule.retryAfter != null) {
+                @SuppressWarnings("unchecked")
+                long delayMs = ((RetryAfter<Exception>) rule.retryAfter).getDelayMs(exception, completedRetries);
+                if (delayMs >= 0) {
+                    return delayMs;
+                }
+            }
+        }
+        return defaultDelayStrategy.getNextDelayMs(completedRetries, exception, elapsedNanos);
+    }
+
+    private RetryPolicy with(Rule rule) {
+        Rule[] newRules = Arrays.copyOf(rules, rules.length + 1);
+        newRules[rules.length] = rule;
+        return new RetryPolicy(newRules);
+    }
+
+    /**
+     * @return the first rule that matches the exception, or null if none does
+     */
+    private Rule ruleFor(Exception exception) {
+        Rule[] candidates = candidatesFor(exception.getClass());
+        for (Rule rule : candidates) {
+            if (rule.matches(exception)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The rules whose type matches the given class, in order, stopping at the first one without a predicate
+     * because nothing after it can ever match.
+     */
+    private Rule[] candidatesFor(Class<?> exceptionClass) {
+        Rule[] candidates = rulesByClass.get(exceptionClass);
+        if (candidates == null) {
+            List<Rule> matching = new ArrayList<Rule>();
+            for (Rule rule : rules) {
+                if (rule.type.isAssignableFrom(exceptionClass)) {
+                    matching.add(rule);
+                    if (rule.predicate == null) {
+                        break;
+                    }
+                }
+            }
+            candidates = matching.toArray(new Rule[matching.size()]);
+            rulesByClass.putIfAbsent(exceptionClass, candidates);
+        }
+        return candidates;
+    }
+
+    private static final class Rule {
+        final Class<? extends Exception> type;
+        final Predicate<?> predicate;
+        final boolean fatal;
+        final DelayStrategy delayStrategy;
+        final RetryAfter<?> retryAfter;
+
+        Rule(Class<? extends Exception> type, Predicate<?> predicate, boolean fatal, DelayStrategy delayStrategy, RetryAfter<?> retryAfter) {
+            if (type == null) {
+                throw new IllegalArgumentException("Please provide an exception type");
+            }
+            this.type = type;
+            this.predicate = predicate;
+            this.fatal = fatal;
+            this.delayStrategy = delayStrategy;
+            this.retryAfter = retryAfter;
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean matches(Exception exception) {
+            return predicate == null || ((Predicate<Exception>) predicate).test(exception);
+        }
+    }
+
+}
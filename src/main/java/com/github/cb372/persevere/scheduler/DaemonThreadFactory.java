@@ -0,0 +1,28 @@
+package com.github.cb372.persevere.scheduler;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads named with the given prefix followed by a counter, e.g. "persevere-timer-1",
+ * so that Persevere's own threads never stop the JVM from exiting.
+ */
+public final class DaemonThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    public DaemonThreadFactory(String prefix) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("Please provide a thread name prefix");
+        }
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.github.cb372.persevere.scheduler;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Scheduler} that delegates to a {@link ScheduledExecutorService}.
+ * This is the default scheduler.
+ */
+public final class ExecutorServiceScheduler implements Scheduler {
+    private final ScheduledExecutorService executor;
+
+    public ExecutorServiceScheduler(ScheduledExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Please provide a ScheduledExecutorService");
+        }
+        this.executor = executor;
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        return executor.submit(task);
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return executor.schedule(task, delay, unit);
+    }
+
+}
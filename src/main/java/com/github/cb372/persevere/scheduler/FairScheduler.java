@@ -0,0 +1,311 @@
+package com.github.cb372.persevere.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link Scheduler} that decides which ready task to run next by priority and tenant,
+ * rather than first come first served, so that interactive traffic keeps its latency
+ * while bulk jobs are retrying heavily.
+ *
+ * Tasks that implement {@link Prioritized} (as the tasks created by a
+ * {@link com.github.cb372.persevere.impl.PersevereRunner PersevereRunner} do) are dispatched as follows:
+ * <ol>
+ *     <li>Higher priorities first.</li>
+ *     <li>Within a priority, first attempts ahead of retries, so that one tenant's retry storm
+ *     cannot delay everybody's new calls. This can be turned off.</li>
+ *     <li>Within that, tenants take turns, each running up to its weight in tasks per turn (deficit round robin),
+ *     so tenants share the workers in proportion to their weights however many tasks each one has queued.</li>
+ * </ol>
+ * Other tasks count as first attempts at {@link Prioritized#DEFAULT_PRIORITY} for the default tenant.
+ *
+ * Ordering is strict, so a steady stream of higher-priority work can starve lower-priority work.
+ *
+ * Delays are handled by a single timer thread, which moves tasks into the ready queues when they are due.
+ */
+public final class FairScheduler implements Scheduler {
+    private static final Object DEFAULT_TENANT = new Object();
+
+    private final boolean retriesYieldToFirstAttempts;
+    private final ScheduledThreadPoolExecutor timer;
+    private final Thread[] workers;
+    private final ConcurrentMap<Object, Integer> weights = new ConcurrentHashMap<Object, Integer>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    // guarded by lock. Keyed by rank, highest first. Only ranks with queued tasks have a level.
+    private final NavigableMap<Integer, Level> levels = new TreeMap<Integer, Level>().descendingMap();
+    private int queued = 0;
+    private volatile boolean shutdown = false;
+
+    /**
+     * Create a scheduler with the given number of worker threads, where first attempts go ahead of retries.
+     */
+    public FairScheduler(int threads) {
+        this(threads, true);
+    }
+
+    /**
+     * @param threads the number of worker threads
+     * @param retriesYieldToFirstAttempts whether first attempts go ahead of retries of the same priority
+     */
+    public FairScheduler(int threads, boolean retriesYieldToFirstAttempts) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads must be >= 1");
+        }
+        this.retriesYieldToFirstAttempts = retriesYieldToFirstAttempts;
+        this.timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("persevere-fair-timer-"));
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.workers = new Thread[threads];
+        DaemonThreadFactory workerFactory = new DaemonThreadFactory("persevere-fair-worker-");
+        Runnable work = new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        };
+        for (int i = 0; i < threads; i++) {
+            workers[i] = workerFactory.newThread(work);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Set a tenant's share of the workers, relative to other tenants with tasks of the same rank.
+     * Tenants have a weight of 1 unless set otherwise.
+     */
+    public void setTenantWeight(Object tenant, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be >= 1");
+        }
+        weights.put(tenant == null ? DEFAULT_TENANT : tenant, weight);
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        FairTask fairTask = new FairTask(task);
+        enqueue(fairTask);
+        return fairTask;
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        final FairTask fairTask = new FairTask(task);
+        if (delay <= 0) {
+            enqueue(fairTask);
+            return fairTask;
+        }
+        fairTask.timerFuture = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                enqueue(fairTask);
+            }
+        }, delay, unit);
+        return fairTask;
+    }
+
+    /**
+     * @return the number of tasks that are due but waiting for a worker
+     */
+    public int getQueuedCount() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop the timer and the workers. Tasks that are already running are allowed to finish,
+     * but queued tasks will not run.
+     */
+    public void shutdown() {
+        shutdown = true;
+        timer.shutdown();
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(FairTask task) {
+        if (shutdown) {
+            task.cancel(false);
+            throw new RejectedExecutionException("FairScheduler has been shut down");
+        }
+        lock.lock();
+        try {
+            Level level = levels.get(task.rank);
+            if (level == null) {
+                level = new Level();
+                levels.put(task.rank, level);
+            }
+            level.offer(task);
+            queued++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            FairTask task;
+            lock.lock();
+            try {
+                while (queued == 0 && !shutdown) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (shutdown) {
+                    return;
+                }
+                task = next();
+                queued--;
+            } finally {
+                lock.unlock();
+            }
+            // a cancelled task does nothing
+            task.run();
+        }
+    }
+
+    /**
+     * Must be called with the lock held, when there is at least one task queued.
+     */
+    private FairTask next() {
+        Map.Entry<Integer, Level> highest = levels.firstEntry();
+        if (highest == null) {
+            throw new IllegalStateException("No task queued");
+        }
+        Level level = highest.getValue();
+        FairTask task = level.poll();
+        if (level.isEmpty()) {
+            // forget the rank until it has tasks again, so that one-off priorities don't pile up
+            levels.remove(highest.getKey());
+        }
+        return task;
+    }
+
+    /**
+     * @return the number of ranks that currently have tasks queued. For testing.
+     */
+    int getLevelCount() {
+        lock.lock();
+        try {
+            return levels.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int weightOf(Object tenant) {
+        Integer weight = weights.get(tenant);
+        return weight == null ? 1 : weight;
+    }
+
+    /**
+     * The tasks of one rank, queued per tenant. The tenants with queued tasks take turns (deficit round robin).
+     * Guarded by the scheduler's lock.
+     */
+    private final class Level {
+        private final Map<Object, TenantQueue> tenants = new HashMap<Object, TenantQueue>();
+        private final ArrayDeque<TenantQueue> turns = new ArrayDeque<TenantQueue>();
+
+        boolean isEmpty() {
+            return turns.isEmpty();
+        }
+
+        void offer(FairTask task) {
+            TenantQueue tenantQueue = tenants.get(task.tenant);
+            if (tenantQueue == null) {
+                tenantQueue = new TenantQueue(task.tenant);
+                tenants.put(task.tenant, tenantQueue);
+                turns.offer(tenantQueue);
+            }
+            tenantQueue.tasks.offer(task);
+        }
+
+        FairTask poll() {
+            TenantQueue tenantQueue = turns.peek();
+            FairTask task = tenantQueue.tasks.poll();
+            tenantQueue.servedThisTurn++;
+            if (tenantQueue.tasks.isEmpty()) {
+                // the tenant has nothing more to do, so forget it until it does
+                turns.poll();
+                tenants.remove(tenantQueue.tenant);
+            } else if (tenantQueue.servedThisTurn >= weightOf(tenantQueue.tenant)) {
+                turns.poll();
+                tenantQueue.servedThisTurn = 0;
+                turns.offer(tenantQueue);
+            }
+            return task;
+        }
+    }
+
+    private static final class TenantQueue {
+        final Object tenant;
+        final ArrayDeque<FairTask> tasks = new ArrayDeque<FairTask>();
+        int servedThisTurn = 0;
+
+        TenantQueue(Object tenant) {
+            this.tenant = tenant;
+        }
+    }
+
+    /**
+     * A task, classified when it is handed to the scheduler. Cancelling it removes it from the timer;
+     * if it is already queued, a worker will skip it.
+     */
+    private final class FairTask extends FutureTask<Void> {
+        final int rank;
+        final Object tenant;
+        volatile Future<?> timerFuture;
+
+        FairTask(Runnable task) {
+            super(task, null);
+            int priority = Prioritized.DEFAULT_PRIORITY;
+            Object taskTenant = null;
+            boolean retry = false;
+            if (task instanceof Prioritized) {
+                Prioritized prioritized = (Prioritized) task;
+                priority = prioritized.getPriority();
+                taskTenant = prioritized.getTenant();
+                retry = prioritized.isRetry();
+            }
+            this.tenant = taskTenant == null ? DEFAULT_TENANT : taskTenant;
+            if (retriesYieldToFirstAttempts) {
+                // two ranks per priority, with first attempts above retries. Done in a long to avoid overflow.
+                long twice = 2L * priority + (retry ? 0 : 1);
+                this.rank = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, twice));
+            } else {
+                this.rank = priority;
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Future<?> t = timerFuture;
+            if (cancelled && t != null) {
+                t.cancel(false);
+            }
+            return cancelled;
+        }
+    }
+
+}
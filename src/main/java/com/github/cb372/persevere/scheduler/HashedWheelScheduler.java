@@ -0,0 +1,278 @@
+package com.github.cb372.persevere.scheduler;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Scheduler} backed by a hashed timing wheel, suitable for very large numbers of pending retries.
+ *
+ * Scheduling and cancelling a task are O(1) and lock-free: new tasks are pushed onto a concurrent queue,
+ * and a single timer thread moves them into the wheel's buckets and fires them.
+ * The price is precision: delays are rounded up to a whole number of ticks.
+ *
+ * The timer thread never runs tasks itself. Expired tasks are handed to the given {@link Executor},
+ * so a slow action cannot delay the firing of other tasks.
+ */
+public final class HashedWheelScheduler implements Scheduler {
+    private static final int MAX_TIMEOUTS_TRANSFERRED_PER_TICK = 100000;
+
+    private final Executor dispatcher;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    private final Thread workerThread;
+    private final long startTime;
+    private volatile boolean shutdown = false;
+
+    /**
+     * Create a scheduler with a tick of 10ms and 512 buckets.
+     *
+     * @param dispatcher the executor that will run tasks when they are due
+     */
+    public HashedWheelScheduler(Executor dispatcher) {
+        this(dispatcher, 10, TimeUnit.MILLISECONDS, 512);
+    }
+
+    /**
+     * @param dispatcher the executor that will run tasks when they are due
+     * @param tickDuration the resolution of the timer. Delays are rounded up to a multiple of this.
+     * @param unit the unit of tickDuration
+     * @param ticksPerWheel the number of buckets in the wheel. Will be rounded up to a power of two.
+     */
+    public HashedWheelScheduler(Executor dispatcher, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        this(dispatcher, tickDuration, unit, ticksPerWheel, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "persevere-wheel-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public HashedWheelScheduler(Executor dispatcher, long tickDuration, TimeUnit unit, int ticksPerWheel, ThreadFactory threadFactory) {
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("Please provide an Executor to run the tasks");
+        }
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("Tick duration must be greater than zero");
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("Ticks per wheel must be between 1 and 2^30");
+        }
+        this.dispatcher = dispatcher;
+        this.tickNanos = unit.toNanos(tickDuration);
+        int wheelSize = Integer.highestOneBit(ticksPerWheel);
+        if (wheelSize < ticksPerWheel) {
+            wheelSize <<= 1;
+        }
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = wheelSize - 1;
+        this.startTime = System.nanoTime();
+        this.workerThread = threadFactory.newThread(new Worker());
+        this.workerThread.start();
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        checkNotShutdown();
+        FutureTask<Void> future = new FutureTask<Void>(task, null);
+        dispatcher.execute(future);
+        return future;
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            return submit(task);
+        }
+        checkNotShutdown();
+        long deadline = System.nanoTime() - startTime + unit.toNanos(delay);
+        if (deadline < 0) {
+            // guard against overflow for very long delays
+            deadline = Long.MAX_VALUE;
+        }
+        Timeout timeout = new Timeout(task, deadline);
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stop the timer thread. Any tasks that have not yet fired will never be run.
+     * Tasks that have already been handed to the dispatcher are not affected.
+     */
+    public void shutdown() {
+        shutdown = true;
+        workerThread.interrupt();
+    }
+
+    private void checkNotShutdown() {
+        if (shutdown) {
+            throw new RejectedExecutionException("Scheduler has been shut down");
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private long tick = 0;
+
+        @Override
+        public void run() {
+            while (!shutdown) {
+                if (!waitForNextTick()) {
+                    break;
+                }
+                removeCancelledTimeouts();
+                transferPendingTimeouts();
+                wheel[(int) (tick & mask)].expireTimeouts();
+                tick++;
+            }
+        }
+
+        /**
+         * @return false if we were interrupted because the scheduler is shutting down
+         */
+        private boolean waitForNextTick() {
+            long deadline = tickNanos * (tick + 1);
+            while (true) {
+                long sleepNanos = deadline - (System.nanoTime() - startTime);
+                if (sleepNanos <= 0) {
+                    return true;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (shutdown) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        private void removeCancelledTimeouts() {
+            Timeout timeout;
+            while ((timeout = cancelledTimeouts.poll()) != null) {
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                }
+            }
+        }
+
+        private void transferPendingTimeouts() {
+            for (int i = 0; i < MAX_TIMEOUTS_TRANSFERRED_PER_TICK; i++) {
+                Timeout timeout = pendingTimeouts.poll();
+                if (timeout == null) {
+                    return;
+                }
+                if (timeout.isCancelled()) {
+                    continue;
+                }
+                long calculatedTick = timeout.deadline / tickNanos;
+                if (timeout.deadline % tickNanos != 0) {
+                    calculatedTick++;
+                }
+                // Subtract one, as we are about to expire the bucket for the current tick
+                timeout.remainingRounds = (calculatedTick - 1 - tick) / wheel.length;
+                long targetTick = Math.max(calculatedTick - 1, tick);
+                wheel[(int) (targetTick & mask)].add(timeout);
+            }
+        }
+    }
+
+    /**
+     * A doubly linked list of timeouts. Only ever accessed by the worker thread.
+     */
+    private final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void expireTimeouts() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    if (!timeout.isCancelled()) {
+                        try {
+                            dispatcher.execute(timeout);
+                        } catch (RejectedExecutionException e) {
+                            timeout.cancel(false);
+                        }
+                    }
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+    private final class Timeout extends FutureTask<Void> {
+        private final long deadline;
+
+        // the following fields are only accessed by the worker thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        Timeout(Runnable task, long deadline) {
+            super(task, null);
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                // let the worker unlink it from its bucket, so we don't hold on to it until it would have fired
+                cancelledTimeouts.add(this);
+            }
+            return cancelled;
+        }
+    }
+
+}
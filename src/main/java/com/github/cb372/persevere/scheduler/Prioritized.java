@@ -0,0 +1,27 @@
+package com.github.cb372.persevere.scheduler;
+
+/**
+ * Implemented by tasks that tell a {@link Scheduler} how urgent they are and on whose behalf they run,
+ * so that a scheduler such as {@link FairScheduler} can dispatch them accordingly.
+ * Other schedulers ignore it.
+ */
+public interface Prioritized {
+
+    public static final int DEFAULT_PRIORITY = 0;
+
+    /**
+     * @return the task's priority. Higher priorities run first.
+     */
+    public int getPriority();
+
+    /**
+     * @return the tenant the task runs on behalf of, or null for the default tenant
+     */
+    public Object getTenant();
+
+    /**
+     * @return true if the task is a retry, false if it is a call's first attempt
+     */
+    public boolean isRetry();
+
+}
@@ -0,0 +1,32 @@
+package com.github.cb372.persevere.scheduler;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the attempts of a retryable action, either immediately or after a delay.
+ *
+ * Implementations must be thread-safe, as tasks are submitted and scheduled
+ * from whichever thread completed the previous attempt.
+ */
+public interface Scheduler {
+
+    /**
+     * Run the given task as soon as possible.
+     *
+     * @param task the task to run
+     * @return a future that can be used to cancel the task
+     */
+    public Future<?> submit(Runnable task);
+
+    /**
+     * Run the given task after the given delay.
+     *
+     * @param task the task to run
+     * @param delay how long to wait before running the task
+     * @param unit the unit of the delay
+     * @return a future that can be used to cancel the task
+     */
+    public Future<?> schedule(Runnable task, long delay, TimeUnit unit);
+
+}
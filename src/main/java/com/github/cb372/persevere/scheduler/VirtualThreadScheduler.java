@@ -0,0 +1,123 @@
+package com.github.cb372.persevere.scheduler;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Scheduler} that runs every task on a new virtual thread, for blocking actions at very high concurrency.
+ *
+ * Delays are handled by a single platform timer thread, which never runs tasks itself:
+ * when a task is due, it is handed to a new virtual thread.
+ * So concurrency is not limited by a thread pool size, and a slow attempt never holds up the others.
+ *
+ * Virtual threads need Java 21 or newer. On older JVMs, tasks run on an unbounded pool of
+ * platform threads instead (see {@link #isUsingVirtualThreads()}), which still avoids queueing
+ * behind slow attempts but costs a platform thread per concurrent attempt.
+ */
+public final class VirtualThreadScheduler implements Scheduler {
+    private final ScheduledThreadPoolExecutor timer;
+    private final ExecutorService workers;
+    private final boolean usingVirtualThreads;
+
+    public VirtualThreadScheduler() {
+        ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+        this.usingVirtualThreads = virtualThreads != null;
+        this.workers = usingVirtualThreads ? virtualThreads : Executors.newCachedThreadPool(new DaemonThreadFactory("persevere-worker-"));
+        this.timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("persevere-timer-"));
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @return true if tasks run on virtual threads, false if this JVM does not support them
+     *         and tasks run on platform threads instead
+     */
+    public boolean isUsingVirtualThreads() {
+        return usingVirtualThreads;
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        return workers.submit(task);
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            return submit(task);
+        }
+        DelayedTask delayedTask = new DelayedTask(task);
+        delayedTask.timerFuture = timer.schedule(delayedTask.dispatch, delay, unit);
+        return delayedTask;
+    }
+
+    /**
+     * Stop the timer thread and stop accepting tasks.
+     * Tasks that are already running are allowed to finish.
+     */
+    public void shutdown() {
+        timer.shutdown();
+        workers.shutdown();
+    }
+
+    /**
+     * Look up {@code Executors.newVirtualThreadPerTaskExecutor()} reflectively,
+     * as this library is compiled for Java 9 and virtual threads only exist from Java 21.
+     *
+     * @return the executor, or null if virtual threads are not available
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            // e.g. Java 19 or 20 without --enable-preview
+            return null;
+        }
+    }
+
+    /**
+     * A task waiting on the timer. Cancelling it removes it from the timer,
+     * or interrupts it if it is already running on a worker thread.
+     */
+    private final class DelayedTask extends FutureTask<Void> {
+        volatile Future<?> timerFuture;
+
+        final Runnable dispatch = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    workers.execute(DelayedTask.this);
+                } catch (RejectedExecutionException e) {
+                    // shutting down
+                    cancel(false);
+                }
+            }
+        };
+
+        DelayedTask(Runnable task) {
+            super(task, null);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Future<?> t = timerFuture;
+            if (cancelled && t != null) {
+                t.cancel(false);
+            }
+            return cancelled;
+        }
+    }
+
+}
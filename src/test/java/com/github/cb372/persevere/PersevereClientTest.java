@@ -0,0 +1,191 @@
+package com.github.cb372.persevere;
+
+import com.github.cb372.persevere.action.GiveUp;
+import com.github.cb372.persevere.action.RetryableAction;
+import com.github.cb372.persevere.delay.DelayStrategies;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class PersevereClientTest {
+
+    private PersevereClient client;
+
+    @After
+    public void shutdownClient() {
+        if (client != null) {
+            client.shutdown();
+        }
+    }
+
+    @Test(timeout = 1000)
+    public void usesTheDefaultMaxRetries() throws ExecutionException, InterruptedException {
+        client = PersevereClient.builder()
+                .delayStrategy(DelayStrategies.fixedDelay(1))
+                .maxRetries(2)
+                .build();
+
+        final AtomicInteger attempts = new AtomicInteger();
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                attempts.incrementAndGet();
+                throw new IOException("Argh!");
+            }
+        };
+
+        ExecutionResult<String> result = client.persevere(action).get();
+
+        assertThat(result.success, is(false));
+        assertThat(result.retries, is(2));
+        assertThat(attempts.get(), is(3));
+    }
+
+    @Test(timeout = 1000)
+    public void asyncEntryPointsAcceptImplicitlyTypedLambdas() throws ExecutionException, InterruptedException {
+        client = PersevereClient.builder().build();
+
+        ExecutionResult<String> blocking = client.persevereAsync(n -> "blocking " + n).toCompletableFuture().get();
+        ExecutionResult<String> async =
+                client.persevereAsyncAction(n -> CompletableFuture.completedFuture("async " + n)).toCompletableFuture().get();
+        ExecutionResult<String> blockingWithDelay =
+                client.persevereAsync(n -> "blocking " + n, DelayStrategies.fixedDelay(1), 1).toCompletableFuture().get();
+        ExecutionResult<String> asyncWithDelay =
+                client.persevereAsyncAction(n -> CompletableFuture.completedFuture("async " + n), DelayStrategies.fixedDelay(1), 1).toCompletableFuture().get();
+
+        assertThat(blocking.result, is("blocking 0"));
+        assertThat(async.result, is("async 0"));
+        assertThat(blockingWithDelay.result, is("blocking 0"));
+        assertThat(asyncWithDelay.result, is("async 0"));
+    }
+
+    @Test(timeout = 1000)
+    public void runsAttemptsOnDaemonThreadsNamedAfterTheClient() throws ExecutionException, InterruptedException {
+        client = PersevereClient.builder()
+                .name("payments")
+                .threadPoolSize(1)
+                .build();
+
+        final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+        ExecutionResult<String> result = client.persevere(new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                thread.set(Thread.currentThread());
+                return "ok";
+            }
+        }).get();
+
+        assertThat(result.result, is("ok"));
+        assertThat(thread.get().getName(), startsWith("payments-"));
+        assertThat(thread.get().isDaemon(), is(true));
+    }
+
+    @Test(timeout = 1000)
+    public void shutdownLetsCallsInProgressFinishBeforeTerminating() throws Exception {
+        client = PersevereClient.builder()
+                .threadPoolSize(1)
+                .delayStrategy(DelayStrategies.fixedDelay(20))
+                .maxRetries(3)
+                .build();
+
+        final CountDownLatch firstAttemptMade = new CountDownLatch(1);
+        Future<ExecutionResult<String>> future = client.persevere(new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                firstAttemptMade.countDown();
+                if (retryCount < 2) {
+                    throw new IOException("Argh!");
+                }
+                return "done";
+            }
+        });
+        firstAttemptMade.await();
+
+        client.shutdown();
+        assertThat(client.isShutdown(), is(true));
+        assertThat(client.isTerminated(), is(false));
+
+        // the call carries on retrying after shutdown
+        assertThat(client.awaitTermination(1, TimeUnit.SECONDS), is(true));
+        assertThat(future.get().result, is("done"));
+        assertThat(future.get().retries, is(2));
+        assertThat(client.isTerminated(), is(true));
+    }
+
+    @Test(timeout = 1000)
+    public void terminatesImmediatelyIfNothingIsInProgress() throws InterruptedException {
+        client = PersevereClient.builder().build();
+        client.shutdown();
+
+        assertThat(client.awaitTermination(0, TimeUnit.MILLISECONDS), is(true));
+    }
+
+    @Test(timeout = 1000)
+    public void terminatesAfterShutdownEvenIfACallWasRejectedForInvalidArguments() throws InterruptedException {
+        client = PersevereClient.builder().build();
+        try {
+            client.persevere(new RetryableAction<String>() {
+                @Override
+                public String execute(int retryCount) throws GiveUp, Exception {
+                    return "never run";
+                }
+            }, DelayStrategies.retryImmediately(), 1, 0, TimeUnit.MILLISECONDS);
+            fail("Expected the call to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        client.shutdown();
+
+        assertThat(client.awaitTermination(0, TimeUnit.MILLISECONDS), is(true));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsCallsAfterShutdown() {
+        client = PersevereClient.builder().build();
+        client.shutdown();
+
+        client.persevere(new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                return "too late";
+            }
+        });
+    }
+
+    @Test(timeout = 1000)
+    public void doesNotShutDownAnExecutorItWasGiven() throws InterruptedException {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        try {
+            client = PersevereClient.builder().executor(executor).build();
+            client.shutdown();
+
+            assertThat(client.awaitTermination(1, TimeUnit.SECONDS), is(true));
+            assertThat(executor.isShutdown(), is(false));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsMoreThanOneSchedulerChoice() {
+        PersevereClient.builder()
+                .threadPoolSize(2)
+                .virtualThreads()
+                .build();
+    }
+
+}
@@ -1,21 +1,36 @@
 package com.github.cb372.persevere;
 
+import com.github.cb372.persevere.action.BatchRetryableAction;
 import com.github.cb372.persevere.action.GiveUp;
 import com.github.cb372.persevere.action.RetryableAction;
 import com.github.cb372.persevere.delay.DelayStrategies;
+import com.github.cb372.persevere.hedge.HedgingPolicies;
+import com.github.cb372.persevere.impl.PersevereRunner;
 import org.hamcrest.CoreMatchers;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
+import static org.hamcrest.CoreMatchers.both;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -86,4 +101,371 @@ public class PersevereTest {
         assertThat(future.isCancelled(), is(true));
         future.get(); // should throw exception
     }
+
+    @Test(timeout = 500)
+    public void asyncVariantCompletesTheStageWhenTheActionSucceeds() throws ExecutionException, InterruptedException {
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                if (retryCount < 1) {
+                    throw new IOException("Argh!");
+                }
+                return "hello";
+            }
+        };
+        CompletionStage<ExecutionResult<String>> stage = Persevere.persevereAsync(action, DelayStrategies.retryImmediately(), 2);
+        CompletableFuture<String> transformed = stage.thenApply(new Function<ExecutionResult<String>, String>() {
+            @Override
+            public String apply(ExecutionResult<String> result) {
+                return result.result + " after " + result.retries;
+            }
+        }).toCompletableFuture();
+
+        assertThat(transformed.get(), is("hello after 1"));
+    }
+
+    @Test(timeout = 500)
+    public void asyncEntryPointsAcceptImplicitlyTypedLambdas() throws ExecutionException, InterruptedException {
+        ExecutionResult<String> blocking =
+                Persevere.persevereAsync(n -> "blocking " + n, DelayStrategies.retryImmediately(), 2).toCompletableFuture().get();
+        ExecutionResult<String> async =
+                Persevere.persevereAsyncAction(n -> CompletableFuture.completedFuture("async " + n), DelayStrategies.retryImmediately(), 2).toCompletableFuture().get();
+        ExecutionResult<String> runnerBlocking =
+                Persevere.runner().persevereAsync(n -> "blocking " + n, DelayStrategies.retryImmediately(), 2, 1, TimeUnit.SECONDS).toCompletableFuture().get();
+        ExecutionResult<String> runnerAsync =
+                Persevere.runner().persevereAsyncAction(n -> CompletableFuture.completedFuture("async " + n), DelayStrategies.retryImmediately(), 2, 1, TimeUnit.SECONDS).toCompletableFuture().get();
+
+        assertThat(blocking.result, is("blocking 0"));
+        assertThat(async.result, is("async 0"));
+        assertThat(runnerBlocking.result, is("blocking 0"));
+        assertThat(runnerAsync.result, is("async 0"));
+    }
+
+    @Test(timeout = 1000, expected = CancellationException.class)
+    public void cancellingTheAsyncStageCancelsPendingRetries() throws ExecutionException, InterruptedException {
+        final AtomicInteger attempts = new AtomicInteger();
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                attempts.incrementAndGet();
+                throw new IOException("Argh!");
+            }
+        };
+        CompletableFuture<ExecutionResult<String>> future =
+                Persevere.persevereAsync(action, DelayStrategies.fixedDelay(200), 2).toCompletableFuture();
+        Thread.sleep(100);
+        future.cancel(true);
+        Thread.sleep(300);
+
+        assertThat(attempts.get(), is(1));
+        future.get(); // should throw exception
+    }
+
+    @Test(timeout = 1000)
+    public void givesUpWhenTheDeadlineWouldBeExceeded() throws ExecutionException, InterruptedException {
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                throw new IOException("Argh!");
+            }
+        };
+        Future<ExecutionResult<String>> future = Persevere.persevere(action, DelayStrategies.fixedDelay(100), -1, 350, TimeUnit.MILLISECONDS);
+        ExecutionResult<String> result = future.get();
+
+        assertThat(result.success, is(false));
+        assertThat(result.exception, instanceOf(DeadlineExceededException.class));
+        assertThat(result.retries, both(greaterThanOrEqualTo(2)).and(lessThanOrEqualTo(3)));
+    }
+
+    @Test(timeout = 1000)
+    public void hedgingStartsASecondAttemptIfTheFirstIsSlowAndCancelsTheLoser() throws ExecutionException, InterruptedException {
+        final AtomicInteger interrupted = new AtomicInteger();
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                if (retryCount == 0) {
+                    try {
+                        Thread.sleep(5000);
+                    } catch (InterruptedException e) {
+                        interrupted.incrementAndGet();
+                        throw e;
+                    }
+                }
+                return "attempt " + retryCount;
+            }
+        };
+        Future<ExecutionResult<String>> future = Persevere.hedge(action, HedgingPolicies.fixed(50), 2);
+        ExecutionResult<String> result = future.get();
+
+        assertThat(result.success, is(true));
+        assertThat(result.result, is("attempt 1"));
+        Thread.sleep(50);
+        assertThat(interrupted.get(), is(1));
+    }
+
+    @Test(timeout = 1000)
+    public void hedgingDoesNotInterruptTheWinningAttempt() throws ExecutionException, InterruptedException {
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                if (retryCount == 0) {
+                    Thread.sleep(5000);
+                }
+                return "attempt " + retryCount;
+            }
+        };
+        CompletableFuture<ExecutionResult<String>> future =
+                (CompletableFuture<ExecutionResult<String>>) Persevere.hedge(action, HedgingPolicies.fixed(50), 2);
+        // runs on the winning attempt's thread, after the losers have been cancelled
+        CompletableFuture<Boolean> winnerInterrupted = future.thenApply(new Function<ExecutionResult<String>, Boolean>() {
+            @Override
+            public Boolean apply(ExecutionResult<String> result) {
+                return Thread.currentThread().isInterrupted();
+            }
+        });
+
+        assertThat(winnerInterrupted.get(), is(false));
+        assertThat(future.get().result, is("attempt 1"));
+    }
+
+    @Test(timeout = 1000)
+    public void completingAHedgedCallFromOutsideCancelsTheAttempts() throws ExecutionException, InterruptedException {
+        final AtomicInteger interrupted = new AtomicInteger();
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    interrupted.incrementAndGet();
+                    throw e;
+                }
+                return "attempt " + retryCount;
+            }
+        };
+        CompletableFuture<ExecutionResult<String>> future =
+                (CompletableFuture<ExecutionResult<String>>) Persevere.hedge(action, HedgingPolicies.fixed(50), 2);
+        Thread.sleep(100);
+
+        future.complete(ExecutionResult.success("fallback", 0));
+        Thread.sleep(50);
+
+        assertThat(future.get().result, is("fallback"));
+        assertThat(interrupted.get(), is(2));
+    }
+
+    @Test(timeout = 1000)
+    public void aHedgedAttemptInterruptedByTheActionItselfCountsAsAFailure() throws ExecutionException, InterruptedException {
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                throw new InterruptedException("not a cancellation");
+            }
+        };
+        // the hedge delay is far longer than the test timeout, so each new attempt must be started by the failure
+        ExecutionResult<String> result = Persevere.hedge(action, HedgingPolicies.fixed(10000), 2).get();
+
+        assertThat(result.success, is(false));
+        assertThat(result.exception, instanceOf(InterruptedException.class));
+        assertThat(result.retries, is(1));
+    }
+
+    @Test(timeout = 1000)
+    public void abandonsAnAttemptThatExceedsTheAttemptTimeoutAndRetries() throws ExecutionException, InterruptedException {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                if (retryCount == 0) {
+                    try {
+                        Thread.sleep(5000); // hung
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+                }
+                return "hello";
+            }
+        };
+        PersevereRunner runner = Persevere.runner().withAttemptTimeout(100, TimeUnit.MILLISECONDS);
+        ExecutionResult<String> result = runner.persevere(action, DelayStrategies.retryImmediately(), 2).get();
+
+        assertThat(result.success, is(true));
+        assertThat(result.retries, is(1));
+        // the abandoned attempt may not have reached its catch block yet
+        assertThat(interrupted.await(500, TimeUnit.MILLISECONDS), is(true));
+    }
+
+    @Test(timeout = 1000)
+    public void failsWithAnAttemptTimeoutExceptionIfTheLastAttemptTimesOut() throws ExecutionException, InterruptedException {
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                Thread.sleep(5000);
+                return "hello";
+            }
+        };
+        PersevereRunner runner = Persevere.runner().withAttemptTimeout(50, TimeUnit.MILLISECONDS);
+        ExecutionResult<String> result = runner.persevere(action, DelayStrategies.retryImmediately(), 1).get();
+
+        assertThat(result.success, is(false));
+        assertThat(result.exception, instanceOf(AttemptTimeoutException.class));
+        assertThat(result.retries, is(1));
+    }
+
+    @Test(timeout = 2000)
+    public void batchRetriesEachItemIndependentlyAndReturnsResultsInOrder() throws ExecutionException, InterruptedException {
+        BatchRetryableAction<Integer, String> action = new BatchRetryableAction<Integer, String>() {
+            @Override
+            public String execute(Integer item, int retryCount) throws GiveUp, Exception {
+                if (item == 3) {
+                    throw new GiveUp("Bad item");
+                }
+                if (retryCount < item % 3) {
+                    throw new IOException("Argh!");
+                }
+                return "item " + item;
+            }
+        };
+        List<ExecutionResult<String>> results = Persevere.persevereBatch(
+                Arrays.asList(0, 1, 2, 3, 4), action, DelayStrategies.fixedDelay(20), 5, 2).get();
+
+        assertThat(results.size(), is(5));
+        assertThat(results.get(0), is(ExecutionResult.success("item 0", 0)));
+        assertThat(results.get(1), is(ExecutionResult.success("item 1", 1)));
+        assertThat(results.get(2), is(ExecutionResult.success("item 2", 2)));
+        assertThat(results.get(3).success, is(false));
+        assertThat(results.get(3).exception, instanceOf(GiveUp.class));
+        assertThat(results.get(4), is(ExecutionResult.success("item 4", 1)));
+    }
+
+    @Test(timeout = 2000)
+    public void batchNeverHasMoreAttemptsInFlightThanTheConcurrencyLimit() throws ExecutionException, InterruptedException {
+        Persevere.shutdown();
+        Persevere.init(8);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        BatchRetryableAction<Integer, Integer> action = new BatchRetryableAction<Integer, Integer>() {
+            @Override
+            public Integer execute(Integer item, int retryCount) throws GiveUp, Exception {
+                int n = inFlight.incrementAndGet();
+                int max;
+                while (n > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, n)) {
+                    // retry
+                }
+                Thread.sleep(1);
+                inFlight.decrementAndGet();
+                if (retryCount == 0 && item % 2 == 0) {
+                    throw new IOException("Argh!");
+                }
+                return item;
+            }
+        };
+        Integer[] inputs = new Integer[100];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = i;
+        }
+        List<ExecutionResult<Integer>> results = Persevere.persevereBatch(
+                Arrays.asList(inputs), action, DelayStrategies.retryImmediately(), 1, 3).get();
+
+        for (int i = 0; i < inputs.length; i++) {
+            assertThat(results.get(i).result, is(i));
+        }
+        assertThat(maxInFlight.get(), lessThanOrEqualTo(3));
+    }
+
+    @Test(timeout = 1000)
+    public void retriesAnActionOnVirtualThreads() throws ExecutionException, InterruptedException {
+        Persevere.shutdown();
+        Persevere.initVirtualThreads();
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                if (retryCount < 2) {
+                    throw new IOException("Argh!");
+                }
+                return "hello";
+            }
+        };
+        ExecutionResult<String> result = Persevere.persevere(action, DelayStrategies.fixedDelay(10), 2).get();
+
+        assertThat(result, is(ExecutionResult.success("hello", 2)));
+    }
+
+    @Test(timeout = 2000)
+    public void switchingToVirtualThreadsShutsDownThePoolThatPersevereCreated() throws ExecutionException, InterruptedException {
+        final AtomicReference<Thread> poolThread = new AtomicReference<Thread>();
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                poolThread.set(Thread.currentThread());
+                return "hello";
+            }
+        };
+        Persevere.persevere(action, DelayStrategies.retryImmediately(), 0).get();
+
+        Persevere.initVirtualThreads();
+
+        poolThread.get().join(1000);
+        assertThat(poolThread.get().isAlive(), is(false));
+    }
+
+    @Test(timeout = 1000)
+    public void inlineFirstAttemptRunsOnTheCallingThreadAndReturnsACompletedFuture() throws ExecutionException, InterruptedException {
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger attemptsOnCaller = new AtomicInteger();
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                if (Thread.currentThread() == caller) {
+                    attemptsOnCaller.incrementAndGet();
+                }
+                return "hello";
+            }
+        };
+        Future<ExecutionResult<String>> future = Persevere.runner().withInlineFirstAttempt()
+                .persevere(action, DelayStrategies.retryImmediately(), 2);
+
+        assertThat(future.isDone(), is(true));
+        assertThat(future.get(), is(ExecutionResult.success("hello", 0)));
+        assertThat(attemptsOnCaller.get(), is(1));
+    }
+
+    @Test(timeout = 1000)
+    public void inlineFirstAttemptSchedulesRetriesAsUsual() throws ExecutionException, InterruptedException {
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger attemptsOnCaller = new AtomicInteger();
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                if (Thread.currentThread() == caller) {
+                    attemptsOnCaller.incrementAndGet();
+                }
+                if (retryCount < 2) {
+                    throw new IOException("Argh!");
+                }
+                return "hello";
+            }
+        };
+        ExecutionResult<String> result = Persevere.runner().withInlineFirstAttempt()
+                .persevere(action, DelayStrategies.retryImmediately(), 2).get();
+
+        assertThat(result, is(ExecutionResult.success("hello", 2)));
+        assertThat(attemptsOnCaller.get(), is(1));
+    }
+
+    @Test(timeout = 1000)
+    public void inlineFirstAttemptFailsTheCallIfTheCallerIsInterrupted() throws ExecutionException, InterruptedException {
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                throw new InterruptedException();
+            }
+        };
+        Future<ExecutionResult<String>> future = Persevere.runner().withInlineFirstAttempt()
+                .persevere(action, DelayStrategies.retryImmediately(), 2);
+
+        assertThat(Thread.interrupted(), is(true));
+        assertThat(future.get().exception, instanceOf(InterruptedException.class));
+    }
 }
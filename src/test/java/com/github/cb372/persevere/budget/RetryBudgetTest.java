@@ -0,0 +1,49 @@
+package com.github.cb372.persevere.budget;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class RetryBudgetTest {
+
+    @Test
+    public void alwaysAllowsTheMinimumNumberOfRetries() {
+        RetryBudget budget = new RetryBudget(0.0, 3, 10, TimeUnit.SECONDS);
+        assertThat(budget.tryAcquireRetry(), is(true));
+        assertThat(budget.tryAcquireRetry(), is(true));
+        assertThat(budget.tryAcquireRetry(), is(true));
+        assertThat(budget.tryAcquireRetry(), is(false));
+    }
+
+    @Test
+    public void allowsRetriesInProportionToFirstAttempts() {
+        RetryBudget budget = new RetryBudget(0.2, 0, 10, TimeUnit.SECONDS);
+        for (int i = 0; i < 10; i++) {
+            budget.recordFirstAttempt();
+        }
+        assertThat(budget.tryAcquireRetry(), is(true));
+        assertThat(budget.tryAcquireRetry(), is(true));
+        assertThat(budget.tryAcquireRetry(), is(false));
+
+        for (int i = 0; i < 5; i++) {
+            budget.recordFirstAttempt();
+        }
+        assertThat(budget.tryAcquireRetry(), is(true));
+        assertThat(budget.tryAcquireRetry(), is(false));
+    }
+
+    @Test
+    public void forgetsRetriesOutsideTheWindow() throws InterruptedException {
+        RetryBudget budget = new RetryBudget(0.0, 1, 100, TimeUnit.MILLISECONDS);
+        assertThat(budget.tryAcquireRetry(), is(true));
+        assertThat(budget.tryAcquireRetry(), is(false));
+
+        Thread.sleep(150);
+
+        assertThat(budget.tryAcquireRetry(), is(true));
+    }
+
+}
@@ -0,0 +1,234 @@
+package com.github.cb372.persevere.cache;
+
+import com.github.cb372.persevere.action.GiveUp;
+import com.github.cb372.persevere.action.RetryableAction;
+import com.github.cb372.persevere.delay.DelayStrategies;
+import com.github.cb372.persevere.impl.PersevereRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class RetryingCacheTest {
+
+    private ScheduledThreadPoolExecutor executor;
+    private PersevereRunner runner;
+
+    @Before
+    public void setUp() {
+        executor = new ScheduledThreadPoolExecutor(2);
+        runner = new PersevereRunner(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the number of times it has been called, or fails when told to.
+     */
+    private static class CountingLoader implements RetryableAction<Integer> {
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicInteger attempts = new AtomicInteger();
+        volatile boolean failing = false;
+
+        @Override
+        public Integer execute(int retryCount) throws GiveUp, Exception {
+            attempts.incrementAndGet();
+            if (failing) {
+                throw new IOException("Argh!");
+            }
+            return loads.incrementAndGet();
+        }
+    }
+
+    private RetryingCache.Builder cacheBuilder() {
+        return RetryingCache.builder(runner)
+                .delayStrategy(DelayStrategies.fixedDelay(1))
+                .maxRetries(2)
+                .maxSize(100);
+    }
+
+    @Test(timeout = 1000)
+    public void servesAFreshValueFromTheCacheWithoutLoadingIt() throws Exception {
+        RetryingCache<String, Integer> cache = cacheBuilder().timeToLive(1, TimeUnit.MINUTES).build();
+        CountingLoader loader = new CountingLoader();
+
+        assertThat(cache.get("key", loader).toCompletableFuture().get(), is(CachedResult.fresh(1)));
+        assertThat(cache.get("key", loader).toCompletableFuture().get(), is(CachedResult.fresh(1)));
+        assertThat(loader.attempts.get(), is(1));
+    }
+
+    @Test(timeout = 1000)
+    public void oneCallerCannotPoisonACachedValueForOthers() throws Exception {
+        RetryingCache<String, Integer> cache = cacheBuilder().timeToLive(1, TimeUnit.MINUTES).build();
+        CountingLoader loader = new CountingLoader();
+        cache.get("key", loader).toCompletableFuture().get();
+
+        cache.get("key", loader).toCompletableFuture().obtrudeValue(CachedResult.fresh(666));
+        cache.get("key", loader).toCompletableFuture().obtrudeException(new IOException("Argh!"));
+
+        assertThat(cache.get("key", loader).toCompletableFuture().get(), is(CachedResult.fresh(1)));
+    }
+
+    @Test(timeout = 1000)
+    public void reloadsAnExpiredValue() throws Exception {
+        RetryingCache<String, Integer> cache = cacheBuilder().timeToLive(20, TimeUnit.MILLISECONDS).build();
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("key", loader).toCompletableFuture().get();
+        Thread.sleep(30);
+
+        assertThat(cache.get("key", loader).toCompletableFuture().get(), is(CachedResult.fresh(2)));
+    }
+
+    @Test(timeout = 1000)
+    public void fallsBackToTheStaleValueWhenReloadingFails() throws Exception {
+        RetryingCache<String, Integer> cache = cacheBuilder().timeToLive(20, TimeUnit.MILLISECONDS).build();
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("key", loader).toCompletableFuture().get();
+        Thread.sleep(30);
+        loader.failing = true;
+        CachedResult<Integer> result = cache.get("key", loader).toCompletableFuture().get();
+
+        assertThat(result.success, is(true));
+        assertThat(result.stale, is(true));
+        assertThat(result.value, is(1));
+        assertThat(result.exception instanceof IOException, is(true));
+        // 1 successful load, then the first attempt and 2 retries of the reload
+        assertThat(loader.attempts.get(), is(4));
+    }
+
+    @Test(timeout = 1000)
+    public void doesNotServeValuesStalerThanMaxStale() throws Exception {
+        RetryingCache<String, Integer> cache = cacheBuilder()
+                .timeToLive(10, TimeUnit.MILLISECONDS)
+                .maxStale(10, TimeUnit.MILLISECONDS)
+                .build();
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("key", loader).toCompletableFuture().get();
+        Thread.sleep(30);
+        loader.failing = true;
+        CachedResult<Integer> result = cache.get("key", loader).toCompletableFuture().get();
+
+        assertThat(result.success, is(false));
+    }
+
+    @Test(timeout = 1000)
+    public void failsIfThereIsNoValueToFallBackTo() throws Exception {
+        RetryingCache<String, Integer> cache = cacheBuilder().timeToLive(1, TimeUnit.MINUTES).build();
+        CountingLoader loader = new CountingLoader();
+        loader.failing = true;
+
+        CachedResult<Integer> result = cache.get("key", loader).toCompletableFuture().get();
+
+        assertThat(result.success, is(false));
+        assertThat(result.exception instanceof IOException, is(true));
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test(timeout = 1000)
+    public void refreshesAheadOfExpiryInTheBackground() throws Exception {
+        RetryingCache<String, Integer> cache = cacheBuilder()
+                .timeToLive(100, TimeUnit.MILLISECONDS)
+                .refreshAhead(0.2)
+                .build();
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("key", loader).toCompletableFuture().get();
+        Thread.sleep(30);
+        // still fresh, so served from the cache, but old enough to trigger a refresh
+        assertThat(cache.get("key", loader).toCompletableFuture().get(), is(CachedResult.fresh(1)));
+        while (loader.loads.get() < 2) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(5);
+
+        assertThat(cache.get("key", loader).toCompletableFuture().get(), is(CachedResult.fresh(2)));
+    }
+
+    @Test(timeout = 1000)
+    public void sharesTheCachedResultBetweenHits() throws Exception {
+        RetryingCache<String, Integer> cache = cacheBuilder().timeToLive(1, TimeUnit.MINUTES).build();
+        CountingLoader loader = new CountingLoader();
+        cache.get("key", loader).toCompletableFuture().get();
+
+        assertThat(cache.get("key", loader), is(sameInstance(cache.get("key", loader))));
+    }
+
+    @Test(timeout = 1000)
+    public void evictsKeysThatHaveNotBeenUsedRecentlyWhenFull() throws Exception {
+        RetryingCache<String, Integer> cache = cacheBuilder().maxSize(2).timeToLive(1, TimeUnit.MINUTES).build();
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("a", loader).toCompletableFuture().get();
+        cache.get("b", loader).toCompletableFuture().get();
+        // "a" is used again, so "b" should go first
+        cache.get("a", loader).toCompletableFuture().get();
+        cache.get("c", loader).toCompletableFuture().get();
+
+        assertThat(cache.size(), is(2));
+        int attemptsBefore = loader.attempts.get();
+        cache.get("a", loader).toCompletableFuture().get();
+        assertThat(loader.attempts.get(), is(attemptsBefore));
+    }
+
+    @Test(timeout = 1000)
+    public void dropsDeadValuesEvenWhenTheCacheIsNotFull() throws Exception {
+        RetryingCache<String, Integer> cache = cacheBuilder()
+                .timeToLive(10, TimeUnit.MILLISECONDS)
+                .maxStale(10, TimeUnit.MILLISECONDS)
+                .build();
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("a", loader).toCompletableFuture().get();
+        Thread.sleep(30);
+        // storing another value moves the clock hand past "a", which is too stale to be served
+        cache.get("b", loader).toCompletableFuture().get();
+
+        assertThat(cache.size(), is(1));
+        assertThat(cache.getQueuedCount(), is(1));
+    }
+
+    @Test(timeout = 1000)
+    public void dropsADeadValueWhenItIsLookedUp() throws Exception {
+        RetryingCache<String, Integer> cache = cacheBuilder()
+                .timeToLive(10, TimeUnit.MILLISECONDS)
+                .maxStale(10, TimeUnit.MILLISECONDS)
+                .build();
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("a", loader).toCompletableFuture().get();
+        Thread.sleep(30);
+        loader.failing = true;
+        cache.get("a", loader).toCompletableFuture().get();
+
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test(timeout = 1000)
+    public void invalidatingAndReloadingAKeyDoesNotGrowTheClock() throws Exception {
+        RetryingCache<String, Integer> cache = cacheBuilder().timeToLive(1, TimeUnit.MINUTES).build();
+        CountingLoader loader = new CountingLoader();
+
+        for (int i = 0; i < 100; i++) {
+            cache.get("key", loader).toCompletableFuture().get();
+            cache.invalidate("key");
+        }
+
+        assertThat(cache.getQueuedCount(), is(lessThanOrEqualTo(1)));
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.github.cb372.persevere.circuit;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.github.cb372.persevere.circuit.CircuitBreaker.NOT_PERMITTED;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+public class CircuitBreakerTest {
+    private final CircuitBreaker breaker = new CircuitBreaker(0.5, 4, 10, TimeUnit.SECONDS, 50, TimeUnit.MILLISECONDS, 2);
+
+    @Test
+    public void staysClosedUntilTheMinimumNumberOfCallsHaveBeenMade() {
+        breaker.onFailure(breaker.tryAcquirePermission());
+        breaker.onFailure(breaker.tryAcquirePermission());
+        breaker.onFailure(breaker.tryAcquirePermission());
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(breaker.tryAcquirePermission(), is(not(NOT_PERMITTED)));
+    }
+
+    @Test
+    public void opensWhenTheFailureRateReachesTheThreshold() {
+        breaker.onSuccess(breaker.tryAcquirePermission());
+        breaker.onSuccess(breaker.tryAcquirePermission());
+        breaker.onFailure(breaker.tryAcquirePermission());
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+
+        breaker.onFailure(breaker.tryAcquirePermission());
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.isRejecting(), is(true));
+        assertThat(breaker.tryAcquirePermission(), is(NOT_PERMITTED));
+    }
+
+    @Test
+    public void allowsALimitedNumberOfTrialsAfterTheOpenDurationAndClosesIfTheySucceed() throws InterruptedException {
+        trip();
+        Thread.sleep(60);
+
+        long first = breaker.tryAcquirePermission();
+        assertThat(first, is(not(NOT_PERMITTED)));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        long second = breaker.tryAcquirePermission();
+        assertThat(second, is(not(NOT_PERMITTED)));
+        assertThat(breaker.tryAcquirePermission(), is(NOT_PERMITTED));
+
+        breaker.onSuccess(first);
+        assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        breaker.onSuccess(second);
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void reopensIfATrialFails() throws InterruptedException {
+        trip();
+        Thread.sleep(60);
+
+        long trial = breaker.tryAcquirePermission();
+        assertThat(trial, is(not(NOT_PERMITTED)));
+        breaker.onFailure(trial);
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.tryAcquirePermission(), is(NOT_PERMITTED));
+    }
+
+    @Test
+    public void aReleasedTrialCanBeTakenByAnotherAttempt() throws InterruptedException {
+        trip();
+        Thread.sleep(60);
+        long trial = breaker.tryAcquirePermission();
+        assertThat(trial, is(not(NOT_PERMITTED)));
+        assertThat(breaker.tryAcquirePermission(), is(not(NOT_PERMITTED)));
+        assertThat(breaker.tryAcquirePermission(), is(NOT_PERMITTED));
+
+        breaker.releasePermission(trial);
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        assertThat(breaker.tryAcquirePermission(), is(not(NOT_PERMITTED)));
+    }
+
+    @Test
+    public void ignoresTheOutcomeOfAnAttemptPermittedBeforeTheStateChanged() throws InterruptedException {
+        long slowSuccess = breaker.tryAcquirePermission();
+        long slowFailure = breaker.tryAcquirePermission();
+        long slowRelease = breaker.tryAcquirePermission();
+        trip();
+        Thread.sleep(60);
+        assertThat(breaker.tryAcquirePermission(), is(not(NOT_PERMITTED)));
+        assertThat(breaker.tryAcquirePermission(), is(not(NOT_PERMITTED)));
+
+        // attempts that were permitted while CLOSED report back while the trials are in progress
+        breaker.onSuccess(slowSuccess);
+        breaker.onFailure(slowFailure);
+        breaker.releasePermission(slowRelease);
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        // neither trial was freed up
+        assertThat(breaker.tryAcquirePermission(), is(NOT_PERMITTED));
+    }
+
+    private void trip() {
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure(breaker.tryAcquirePermission());
+        }
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+    }
+
+}
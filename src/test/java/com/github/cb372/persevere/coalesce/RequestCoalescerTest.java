@@ -0,0 +1,161 @@
+package com.github.cb372.persevere.coalesce;
+
+import com.github.cb372.persevere.ExecutionResult;
+import com.github.cb372.persevere.action.GiveUp;
+import com.github.cb372.persevere.action.RetryableAction;
+import com.github.cb372.persevere.delay.DelayStrategies;
+import com.github.cb372.persevere.impl.PersevereRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class RequestCoalescerTest {
+
+    private ScheduledThreadPoolExecutor executor;
+    private RequestCoalescer<String> coalescer;
+
+    @Before
+    public void setUp() {
+        executor = new ScheduledThreadPoolExecutor(2);
+        coalescer = new RequestCoalescer<String>(new PersevereRunner(executor));
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 1000)
+    public void asyncEntryPointsAcceptImplicitlyTypedLambdas() throws Exception {
+        ExecutionResult<String> blocking = coalescer.persevereAsync("a", n -> "blocking " + n,
+                DelayStrategies.fixedDelay(1), 1).toCompletableFuture().get();
+        ExecutionResult<String> async = coalescer.persevereAsyncAction("b", n -> CompletableFuture.completedFuture("async " + n),
+                DelayStrategies.fixedDelay(1), 1).toCompletableFuture().get();
+
+        assertThat(blocking.result, is("blocking 0"));
+        assertThat(async.result, is("async 0"));
+    }
+
+    @Test(timeout = 1000)
+    public void concurrentCallsWithTheSameKeyShareOneRetryChain() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger attempts = new AtomicInteger();
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                attempts.incrementAndGet();
+                if (retryCount == 0) {
+                    release.await();
+                    throw new IOException("Argh!");
+                }
+                return "value";
+            }
+        };
+
+        List<Future<ExecutionResult<String>>> futures = new ArrayList<Future<ExecutionResult<String>>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(coalescer.persevere("key", action, DelayStrategies.fixedDelay(1), 3));
+        }
+        assertThat(coalescer.getInFlightCount(), is(1));
+        release.countDown();
+
+        ExecutionResult<String> first = futures.get(0).get();
+        assertThat(first.result, is("value"));
+        assertThat(first.retries, is(1));
+        for (Future<ExecutionResult<String>> future : futures) {
+            assertThat(future.get(), is(sameInstance(first)));
+        }
+        assertThat(attempts.get(), is(2));
+    }
+
+    @Test(timeout = 1000)
+    public void callsWithDifferentKeysAreNotCoalesced() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                attempts.incrementAndGet();
+                return "value";
+            }
+        };
+
+        Future<ExecutionResult<String>> a = coalescer.persevere("a", action, DelayStrategies.fixedDelay(1), 3);
+        Future<ExecutionResult<String>> b = coalescer.persevere("b", action, DelayStrategies.fixedDelay(1), 3);
+        a.get();
+        b.get();
+
+        assertThat(attempts.get(), is(2));
+    }
+
+    @Test(timeout = 1000)
+    public void aCallAfterCompletionStartsANewChain() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        RetryableAction<Integer> action = new RetryableAction<Integer>() {
+            @Override
+            public Integer execute(int retryCount) throws GiveUp, Exception {
+                return attempts.incrementAndGet();
+            }
+        };
+
+        assertThat(coalescer.persevere("key", action, DelayStrategies.fixedDelay(1), 3).get().result, is(1));
+        assertThat(coalescer.persevere("key", action, DelayStrategies.fixedDelay(1), 3).get().result, is(2));
+        assertThat(coalescer.getInFlightCount(), is(0));
+    }
+
+    @Test(timeout = 1000)
+    public void cancellingOneCallerDoesNotCancelTheSharedChain() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                release.await();
+                return "value";
+            }
+        };
+
+        Future<ExecutionResult<String>> cancelled = coalescer.persevere("key", action, DelayStrategies.fixedDelay(1), 3);
+        Future<ExecutionResult<String>> other = coalescer.persevere("key", action, DelayStrategies.fixedDelay(1), 3);
+        assertThat(cancelled.cancel(false), is(true));
+        release.countDown();
+
+        assertThat(other.get().result, is("value"));
+    }
+
+    @Test(timeout = 1000)
+    public void cancellingEveryCallerCancelsTheSharedChain() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                attempts.incrementAndGet();
+                throw new IOException("Argh!");
+            }
+        };
+
+        Future<ExecutionResult<String>> first = coalescer.persevere("key", action, DelayStrategies.fixedDelay(50), 10);
+        Future<ExecutionResult<String>> second = coalescer.persevere("key", action, DelayStrategies.fixedDelay(50), 10);
+        Thread.sleep(20);
+        first.cancel(false);
+        second.cancel(false);
+        int attemptsWhenCancelled = attempts.get();
+        Thread.sleep(150);
+
+        assertThat(attempts.get(), is(attemptsWhenCancelled));
+        assertThat(coalescer.getInFlightCount(), is(0));
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.github.cb372.persevere.delay;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.CoreMatchers.both;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class AdaptiveDelayStrategyTest {
+
+    private static final IOException ERROR = new IOException("Argh!");
+
+    @Test
+    public void usesTheMinDelayWhenHealthy() {
+        AdaptiveDelayStrategy strategy = DelayStrategies.adaptive(100, 2.0, 10000);
+        for (int i = 0; i < 100; i++) {
+            assertThat(strategy.getNextDelayMs(0), is(both(greaterThanOrEqualTo(50L)).and(lessThanOrEqualTo(100L))));
+        }
+    }
+
+    @Test
+    public void approachesTheMaxDelayAsEveryAttemptFails() {
+        AdaptiveDelayStrategy strategy = DelayStrategies.adaptive(100, 2.0, 10000);
+        for (int i = 0; i < 100; i++) {
+            strategy.onAttemptFailed(ERROR, 0L);
+        }
+
+        assertThat(strategy.getErrorRate(), is(closeTo(1.0, 0.001)));
+        for (int i = 0; i < 100; i++) {
+            assertThat(strategy.getNextDelayMs(0), is(both(greaterThanOrEqualTo(4950L)).and(lessThanOrEqualTo(10000L))));
+        }
+    }
+
+    @Test
+    public void shortensDelaysAgainOnceAttemptsSucceed() {
+        AdaptiveDelayStrategy strategy = DelayStrategies.adaptive(100, 2.0, 10000);
+        for (int i = 0; i < 100; i++) {
+            strategy.onAttemptFailed(ERROR, 0L);
+        }
+        for (int i = 0; i < 100; i++) {
+            strategy.onAttemptSucceeded(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        assertThat(strategy.getErrorRate(), is(closeTo(0.0, 0.001)));
+        assertThat(strategy.getNextDelayMs(0), is(lessThanOrEqualTo(101L)));
+    }
+
+    @Test
+    public void neverRetriesFasterThanTheDependencyResponds() {
+        AdaptiveDelayStrategy strategy = DelayStrategies.adaptive(10, 2.0, 10000);
+        for (int i = 0; i < 200; i++) {
+            strategy.onAttemptSucceeded(TimeUnit.MILLISECONDS.toNanos(400));
+        }
+
+        assertThat(strategy.getNextDelayMs(0), is(both(greaterThanOrEqualTo(199L)).and(lessThanOrEqualTo(400L))));
+    }
+
+    @Test
+    public void backsOffWithEachRetryOfTheSameCall() {
+        AdaptiveDelayStrategy strategy = DelayStrategies.adaptive(100, 2.0, 1000);
+
+        assertThat(strategy.getNextDelayMs(2), is(both(greaterThanOrEqualTo(200L)).and(lessThanOrEqualTo(400L))));
+        assertThat(strategy.getNextDelayMs(10), is(both(greaterThanOrEqualTo(500L)).and(lessThanOrEqualTo(1000L))));
+    }
+
+    @Test
+    public void backsOffWithEachRetryAfterATimeout() {
+        AdaptiveDelayStrategy strategy = DelayStrategies.adaptive(100, 2.0, 1000);
+
+        assertThat(strategy.getNextDelayMs(2, new TimeoutException(), 0L), is(both(greaterThanOrEqualTo(200L)).and(lessThanOrEqualTo(400L))));
+        assertThat(strategy.getNextDelayMs(2, new SocketTimeoutException(), 0L), is(both(greaterThanOrEqualTo(200L)).and(lessThanOrEqualTo(400L))));
+    }
+
+    @Test
+    public void doesNotBackOffWithEachRetryAfterAnExceptionThatIsNotASignOfOverload() {
+        AdaptiveDelayStrategy strategy = DelayStrategies.adaptive(100, 2.0, 1000);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(strategy.getNextDelayMs(5, ERROR, TimeUnit.SECONDS.toNanos(10)), is(both(greaterThanOrEqualTo(50L)).and(lessThanOrEqualTo(100L))));
+        }
+    }
+
+    @Test
+    public void backsOffWithEachRetryAfterAGivenOverloadException() {
+        AdaptiveDelayStrategy strategy = DelayStrategies.adaptive(100, 2.0, 1000, IOException.class);
+
+        assertThat(strategy.isOverload(ERROR), is(true));
+        assertThat(strategy.getNextDelayMs(2, ERROR, 0L), is(both(greaterThanOrEqualTo(200L)).and(lessThanOrEqualTo(400L))));
+    }
+
+    @Test
+    public void backsOffInProportionToTheTimeTheCallHasTakenWhenAttemptsAreSlow() {
+        AdaptiveDelayStrategy strategy = DelayStrategies.adaptive(100, 2.0, 10000);
+
+        // one retry would normally mean 200ms, but the call has already spent 3 seconds timing out
+        assertThat(strategy.getNextDelayMs(1, new TimeoutException(), TimeUnit.SECONDS.toNanos(3)),
+                is(both(greaterThanOrEqualTo(1500L)).and(lessThanOrEqualTo(3000L))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMaxDelayLessThanMinDelay() {
+        DelayStrategies.adaptive(100, 2.0, 50);
+    }
+
+}
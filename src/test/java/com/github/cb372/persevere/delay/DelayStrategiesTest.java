@@ -5,10 +5,17 @@ import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+
 import static org.hamcrest.CoreMatchers.both;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -35,6 +42,34 @@ public class DelayStrategiesTest {
         assertThat(strategy.getNextDelayMs(100), is(50L));
     }
 
+    @Test
+    public void builtInStrategiesHaveStableSerializedClassNames() throws Exception {
+        DelayStrategy[] strategies = {
+                DelayStrategies.fixedDelay(50),
+                DelayStrategies.random(100, 200),
+                DelayStrategies.exponential(100, 2.0, 1000),
+                DelayStrategies.fullJitter(100, 2.0, 1000),
+                DelayStrategies.equalJitter(100, 2.0, 1000),
+                DelayStrategies.decorrelatedJitter(100, 1000)
+        };
+        String[] names = { "FixedDelay", "RandomDelay", "Exponential", "FullJitter", "EqualJitter", "DecorrelatedJitter" };
+        for (int i = 0; i < strategies.length; i++) {
+            assertThat(strategies[i].getClass().getName(), is(DelayStrategies.class.getName() + "$" + names[i]));
+            assertThat(ObjectStreamClass.lookup(strategies[i].getClass()).getSerialVersionUID(), is(1L));
+            DelayStrategy copy = (DelayStrategy) roundTrip(strategies[i]);
+            assertThat(copy.getNextDelayMs(20), is(lessThanOrEqualTo(1000L)));
+        }
+        assertThat(((DelayStrategy) roundTrip(DelayStrategies.fixedDelay(50))).getNextDelayMs(3), is(50L));
+    }
+
+    private static Object roundTrip(Object o) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(o);
+        out.close();
+        return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    }
+
     @Test
     public void random() {
         DelayStrategy strategy = DelayStrategies.random(100, 200);
@@ -45,6 +80,7 @@ public class DelayStrategiesTest {
     }
 
     @Test
+    @SuppressWarnings("deprecation")
     public void exponential() {
         DelayStrategy strategy = DelayStrategies.exponential(10, 2.0);
         assertThat(strategy.getNextDelayMs(0), is(10L));
@@ -54,4 +90,52 @@ public class DelayStrategiesTest {
         assertThat(strategy.getNextDelayMs(4), is(160L));
     }
 
+    @Test
+    public void exponentialWithCap() {
+        DelayStrategy strategy = DelayStrategies.exponential(10, 2.0, 50);
+        assertThat(strategy.getNextDelayMs(0), is(10L));
+        assertThat(strategy.getNextDelayMs(1), is(20L));
+        assertThat(strategy.getNextDelayMs(2), is(40L));
+        assertThat(strategy.getNextDelayMs(3), is(50L));
+        assertThat(strategy.getNextDelayMs(100), is(50L));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void exponentialDoesNotOverflow() {
+        DelayStrategy strategy = DelayStrategies.exponential(10, 2.0);
+        assertThat(strategy.getNextDelayMs(62), greaterThanOrEqualTo(0L));
+        assertThat(strategy.getNextDelayMs(Integer.MAX_VALUE), is(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void fullJitter() {
+        DelayStrategy strategy = DelayStrategies.fullJitter(10, 2.0, 1000);
+        for (int i=0; i<1000; i++) {
+            long nextDelay = strategy.getNextDelayMs(i % 10);
+            long ceiling = Math.min(1000L, 10L << (i % 10));
+            assertThat(nextDelay, both(greaterThanOrEqualTo(0L)).and(lessThanOrEqualTo(ceiling)));
+        }
+    }
+
+    @Test
+    public void equalJitter() {
+        DelayStrategy strategy = DelayStrategies.equalJitter(10, 2.0, 1000);
+        for (int i=0; i<1000; i++) {
+            long nextDelay = strategy.getNextDelayMs(i % 10);
+            long ceiling = Math.min(1000L, 10L << (i % 10));
+            assertThat(nextDelay, both(greaterThanOrEqualTo(ceiling / 2)).and(lessThanOrEqualTo(ceiling)));
+        }
+    }
+
+    @Test
+    public void decorrelatedJitter() {
+        DelayStrategy strategy = DelayStrategies.decorrelatedJitter(10, 1000);
+        for (int i=0; i<1000; i++) {
+            long nextDelay = strategy.getNextDelayMs(i % 10);
+            assertThat(nextDelay, both(greaterThanOrEqualTo(10L)).and(lessThanOrEqualTo(1000L)));
+        }
+        assertThat(strategy.getNextDelayMs(0), is(10L));
+    }
+
 }
@@ -0,0 +1,245 @@
+package com.github.cb372.persevere.flow;
+
+import com.github.cb372.persevere.ExecutionResult;
+import com.github.cb372.persevere.action.BatchRetryableAction;
+import com.github.cb372.persevere.action.GiveUp;
+import com.github.cb372.persevere.delay.DelayStrategies;
+import com.github.cb372.persevere.impl.PersevereRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class RetryingProcessorTest {
+
+    private ScheduledThreadPoolExecutor executor;
+    private PersevereRunner runner;
+
+    @Before
+    public void setUp() {
+        executor = new ScheduledThreadPoolExecutor(4);
+        runner = new PersevereRunner(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Requests the given number of elements up front, and records everything it receives.
+     */
+    private static class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+        final List<T> received = new CopyOnWriteArrayList<T>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final long initialRequest;
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+        volatile boolean completed = false;
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(T item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+    }
+
+    @Test(timeout = 2000)
+    public void emitsResultsInOrderWhenOrdered() throws InterruptedException {
+        BatchRetryableAction<Integer, Integer> action = new BatchRetryableAction<Integer, Integer>() {
+            @Override
+            public Integer execute(Integer item, int retryCount) throws GiveUp, Exception {
+                if (item % 2 == 0 && retryCount == 0) {
+                    throw new IOException("Argh!");
+                }
+                return item * 10;
+            }
+        };
+        RetryingProcessor<Integer, Integer> processor =
+                new RetryingProcessor<Integer, Integer>(runner, action, DelayStrategies.fixedDelay(5), 3, 4, true);
+        RecordingSubscriber<ExecutionResult<Integer>> subscriber = new RecordingSubscriber<ExecutionResult<Integer>>(Long.MAX_VALUE);
+        processor.subscribe(subscriber);
+
+        SubmissionPublisher<Integer> publisher = new SubmissionPublisher<Integer>();
+        publisher.subscribe(processor);
+        for (int i = 0; i < 20; i++) {
+            publisher.submit(i);
+        }
+        publisher.close();
+        subscriber.done.await();
+
+        assertThat(subscriber.completed, is(true));
+        assertThat(subscriber.received.size(), is(20));
+        for (int i = 0; i < 20; i++) {
+            ExecutionResult<Integer> result = subscriber.received.get(i);
+            assertThat(result.result, is(i * 10));
+            assertThat(result.retries, is(i % 2 == 0 ? 1 : 0));
+        }
+    }
+
+    @Test(timeout = 2000)
+    public void emitsResultsAsTheyAreReadyWhenUnordered() throws InterruptedException {
+        BatchRetryableAction<Integer, Integer> action = new BatchRetryableAction<Integer, Integer>() {
+            @Override
+            public Integer execute(Integer item, int retryCount) throws GiveUp, Exception {
+                if (item == 0 && retryCount == 0) {
+                    throw new IOException("Argh!");
+                }
+                return item;
+            }
+        };
+        RetryingProcessor<Integer, Integer> processor =
+                new RetryingProcessor<Integer, Integer>(runner, action, DelayStrategies.fixedDelay(200), 3, 4, false);
+        RecordingSubscriber<ExecutionResult<Integer>> subscriber = new RecordingSubscriber<ExecutionResult<Integer>>(Long.MAX_VALUE);
+        processor.subscribe(subscriber);
+
+        SubmissionPublisher<Integer> publisher = new SubmissionPublisher<Integer>();
+        publisher.subscribe(processor);
+        for (int i = 0; i < 3; i++) {
+            publisher.submit(i);
+        }
+        publisher.close();
+        subscriber.done.await();
+
+        assertThat(subscriber.received.size(), is(3));
+        // the element that had to be retried comes out last
+        assertThat(subscriber.received.get(2).result, is(0));
+    }
+
+    @Test(timeout = 2000)
+    public void emitsFailedElementsAsFailuresWithoutFailingTheStream() throws InterruptedException {
+        BatchRetryableAction<String, String> action = new BatchRetryableAction<String, String>() {
+            @Override
+            public String execute(String item, int retryCount) throws GiveUp, Exception {
+                if (item.equals("bad")) {
+                    throw new GiveUp("Bad item");
+                }
+                return item;
+            }
+        };
+        RetryingProcessor<String, String> processor =
+                new RetryingProcessor<String, String>(runner, action, DelayStrategies.fixedDelay(1), 3, 2, true);
+        RecordingSubscriber<ExecutionResult<String>> subscriber = new RecordingSubscriber<ExecutionResult<String>>(Long.MAX_VALUE);
+        processor.subscribe(subscriber);
+
+        SubmissionPublisher<String> publisher = new SubmissionPublisher<String>();
+        publisher.subscribe(processor);
+        publisher.submit("good");
+        publisher.submit("bad");
+        publisher.close();
+        subscriber.done.await();
+
+        assertThat(subscriber.completed, is(true));
+        assertThat(subscriber.received.get(0).success, is(true));
+        assertThat(subscriber.received.get(1).success, is(false));
+    }
+
+    @Test(timeout = 2000)
+    public void onlyRequestsAsManyElementsAsItCanHold() throws InterruptedException {
+        final AtomicInteger processed = new AtomicInteger();
+        BatchRetryableAction<Integer, Integer> action = new BatchRetryableAction<Integer, Integer>() {
+            @Override
+            public Integer execute(Integer item, int retryCount) throws GiveUp, Exception {
+                processed.incrementAndGet();
+                return item;
+            }
+        };
+        RetryingProcessor<Integer, Integer> processor =
+                new RetryingProcessor<Integer, Integer>(runner, action, DelayStrategies.fixedDelay(1), 3, 3, true);
+        RecordingSubscriber<ExecutionResult<Integer>> subscriber = new RecordingSubscriber<ExecutionResult<Integer>>(2);
+        processor.subscribe(subscriber);
+
+        SubmissionPublisher<Integer> publisher = new SubmissionPublisher<Integer>();
+        publisher.subscribe(processor);
+        for (int i = 0; i < 20; i++) {
+            publisher.offer(i, null);
+        }
+        Thread.sleep(100);
+
+        assertThat(subscriber.received.size(), is(2));
+        // 3 held at first, plus one to replace each of the 2 emitted
+        assertThat(processed.get(), is(lessThanOrEqualTo(5)));
+        publisher.close();
+    }
+
+    @Test(timeout = 2000)
+    public void cancellingStopsPendingRetries() throws InterruptedException {
+        final AtomicInteger attempts = new AtomicInteger();
+        BatchRetryableAction<Integer, Integer> action = new BatchRetryableAction<Integer, Integer>() {
+            @Override
+            public Integer execute(Integer item, int retryCount) throws GiveUp, Exception {
+                attempts.incrementAndGet();
+                throw new IOException("Argh!");
+            }
+        };
+        RetryingProcessor<Integer, Integer> processor =
+                new RetryingProcessor<Integer, Integer>(runner, action, DelayStrategies.fixedDelay(50), 10, 2, true);
+        RecordingSubscriber<ExecutionResult<Integer>> subscriber = new RecordingSubscriber<ExecutionResult<Integer>>(Long.MAX_VALUE);
+        processor.subscribe(subscriber);
+
+        SubmissionPublisher<Integer> publisher = new SubmissionPublisher<Integer>();
+        publisher.subscribe(processor);
+        publisher.submit(1);
+        Thread.sleep(20);
+        subscriber.subscription.cancel();
+        int attemptsWhenCancelled = attempts.get();
+        Thread.sleep(150);
+
+        assertThat(attempts.get(), is(attemptsWhenCancelled));
+        assertThat(subscriber.received.isEmpty(), is(true));
+        publisher.close();
+    }
+
+    @Test(timeout = 2000)
+    public void rejectsASecondSubscriber() throws InterruptedException {
+        BatchRetryableAction<Integer, Integer> action = new BatchRetryableAction<Integer, Integer>() {
+            @Override
+            public Integer execute(Integer item, int retryCount) throws GiveUp, Exception {
+                return item;
+            }
+        };
+        RetryingProcessor<Integer, Integer> processor =
+                new RetryingProcessor<Integer, Integer>(runner, action, DelayStrategies.fixedDelay(1), 3, 2, true);
+        processor.subscribe(new RecordingSubscriber<ExecutionResult<Integer>>(1));
+        RecordingSubscriber<ExecutionResult<Integer>> second = new RecordingSubscriber<ExecutionResult<Integer>>(1);
+        processor.subscribe(second);
+
+        second.done.await(1, TimeUnit.SECONDS);
+        assertThat(second.error instanceof IllegalStateException, is(true));
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.github.cb372.persevere.hedge;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class HedgingPoliciesTest {
+
+    @Test
+    public void fixed() {
+        HedgingPolicy policy = HedgingPolicies.fixed(50);
+        assertThat(policy.getHedgeDelayMs(), is(50L));
+        policy.recordLatency(TimeUnit.SECONDS.toNanos(1));
+        assertThat(policy.getHedgeDelayMs(), is(50L));
+    }
+
+    @Test
+    public void percentileUsesTheFallbackUntilEnoughSamplesHaveBeenRecorded() {
+        HedgingPolicy policy = HedgingPolicies.percentile(0.9, 100, 10);
+        for (int i = 1; i <= 9; i++) {
+            policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertThat(policy.getHedgeDelayMs(), is(100L));
+
+        policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(10));
+        assertThat(policy.getHedgeDelayMs(), is(9L));
+    }
+
+}
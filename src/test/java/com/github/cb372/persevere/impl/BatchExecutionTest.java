@@ -0,0 +1,163 @@
+package com.github.cb372.persevere.impl;
+
+import com.github.cb372.persevere.ExecutionResult;
+import com.github.cb372.persevere.action.BatchRetryableAction;
+import com.github.cb372.persevere.action.GiveUp;
+import com.github.cb372.persevere.delay.DelayStrategies;
+import com.github.cb372.persevere.scheduler.ExecutorServiceScheduler;
+import com.github.cb372.persevere.scheduler.Scheduler;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class BatchExecutionTest {
+    private final ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(4);
+    private final AtomicInteger submitted = new AtomicInteger();
+    private final AtomicInteger scheduled = new AtomicInteger();
+    private final Scheduler scheduler = new Scheduler() {
+        private final Scheduler delegate = new ExecutorServiceScheduler(executor);
+
+        @Override
+        public Future<?> submit(Runnable task) {
+            submitted.incrementAndGet();
+            return delegate.submit(task);
+        }
+
+        @Override
+        public Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+            scheduled.incrementAndGet();
+            return delegate.schedule(task, delay, unit);
+        }
+    };
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void itemsFailingTogetherAreRetriedByASharedScheduledTask() throws Exception {
+        List<Integer> inputs = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            inputs.add(i);
+        }
+        BatchRetryableAction<Integer, Integer> action = new BatchRetryableAction<Integer, Integer>() {
+            @Override
+            public Integer execute(Integer item, int retryCount) throws GiveUp, Exception {
+                if (retryCount == 0) {
+                    throw new RuntimeException("yelp!");
+                }
+                return item;
+            }
+        };
+
+        List<ExecutionResult<Integer>> results = new BatchExecution<Integer, Integer>(
+                inputs, action, scheduler, 1, DelayStrategies.fixedDelay(100), 4, null, null, null, null, null).start().get();
+
+        for (int i = 0; i < inputs.size(); i++) {
+            assertThat(results.get(i), is(ExecutionResult.success(i, 1)));
+        }
+        // 1000 retries, but only a handful of scheduled tasks and worker submissions
+        assertThat(scheduled.get(), lessThanOrEqualTo(20));
+        assertThat(submitted.get(), lessThanOrEqualTo(4 * (scheduled.get() + 1)));
+    }
+
+    @Test
+    public void emptyBatchCompletesImmediately() throws Exception {
+        BatchRetryableAction<Integer, Integer> action = new BatchRetryableAction<Integer, Integer>() {
+            @Override
+            public Integer execute(Integer item, int retryCount) throws GiveUp, Exception {
+                return item;
+            }
+        };
+
+        List<ExecutionResult<Integer>> results = new BatchExecution<Integer, Integer>(
+                new ArrayList<Integer>(), action, scheduler, 1, DelayStrategies.retryImmediately(), 4, null, null, null, null, null).start().get();
+
+        assertThat(results.size(), is(0));
+        assertThat(submitted.get(), is(0));
+    }
+
+    @Test(timeout = 5000)
+    public void cancellingTheBatchStopsPendingRetries() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        List<Integer> inputs = new ArrayList<Integer>();
+        for (int i = 0; i < 10; i++) {
+            inputs.add(i);
+        }
+        BatchRetryableAction<Integer, Integer> action = new BatchRetryableAction<Integer, Integer>() {
+            @Override
+            public Integer execute(Integer item, int retryCount) throws GiveUp, Exception {
+                attempts.incrementAndGet();
+                throw new RuntimeException("yelp!");
+            }
+        };
+
+        Future<List<ExecutionResult<Integer>>> future = new BatchExecution<Integer, Integer>(
+                inputs, action, scheduler, 5, DelayStrategies.fixedDelay(200), 4, null, null, null, null, null).start();
+        Thread.sleep(50);
+        future.cancel(true);
+        Thread.sleep(400);
+
+        assertThat(attempts.get(), is(10));
+    }
+
+    @Test(timeout = 5000)
+    public void failsTheItemsIfTheSchedulerRejectsTheWorkers() throws Exception {
+        executor.shutdown();
+        List<Integer> inputs = new ArrayList<Integer>();
+        for (int i = 0; i < 10; i++) {
+            inputs.add(i);
+        }
+        BatchRetryableAction<Integer, Integer> action = new BatchRetryableAction<Integer, Integer>() {
+            @Override
+            public Integer execute(Integer item, int retryCount) throws GiveUp, Exception {
+                return item;
+            }
+        };
+
+        List<ExecutionResult<Integer>> results = new BatchExecution<Integer, Integer>(
+                inputs, action, scheduler, 1, DelayStrategies.retryImmediately(), 4, null, null, null, null, null).start().get();
+
+        for (ExecutionResult<Integer> result : results) {
+            assertThat(result.success, is(false));
+            assertThat(result.exception, instanceOf(RejectedExecutionException.class));
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void anEnormousDelayIsNotTreatedAsAlreadyDue() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        List<Integer> inputs = new ArrayList<Integer>();
+        inputs.add(1);
+        BatchRetryableAction<Integer, Integer> action = new BatchRetryableAction<Integer, Integer>() {
+            @Override
+            public Integer execute(Integer item, int retryCount) throws GiveUp, Exception {
+                attempts.incrementAndGet();
+                throw new RuntimeException("yelp!");
+            }
+        };
+
+        Future<List<ExecutionResult<Integer>>> future = new BatchExecution<Integer, Integer>(
+                inputs, action, scheduler, 1, DelayStrategies.fixedDelay(Long.MAX_VALUE), 4, null, null, null, null, null).start();
+        Thread.sleep(300);
+
+        assertThat(attempts.get(), is(1));
+        assertThat(future.isDone(), is(false));
+        future.cancel(true);
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.github.cb372.persevere.impl;
+
+import com.github.cb372.persevere.ExecutionResult;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+public class PersevereFutureTest {
+    private final PersevereFuture<String> future = new PersevereFuture<String>();
+
+    @Test
+    public void cancel_cancelsTheCurrentTask() {
+        Future<?> task = mock(Future.class);
+        future.setCurrentTaskFuture(task);
+
+        assertThat(future.cancel(true), is(true));
+
+        verify(task).cancel(true);
+        assertThat(future.isCancelled(), is(true));
+    }
+
+    @Test
+    public void taskPublishedAfterCancellation_isCancelled() {
+        future.cancel(false);
+        Future<?> task = mock(Future.class);
+
+        future.setCurrentTaskFuture(task);
+
+        verify(task).cancel(false);
+    }
+
+    @Test
+    public void cancelAfterCompletion_returnsFalse() throws Exception {
+        future.markComplete(ExecutionResult.success("hello", 0));
+
+        assertThat(future.cancel(true), is(false));
+        assertThat(future.get(), is(ExecutionResult.success("hello", 0)));
+    }
+
+    @Test
+    public void completeAfterCancellation_isIgnored() {
+        future.cancel(true);
+        future.markComplete(ExecutionResult.success("hello", 0));
+
+        assertThat(future.isCancelled(), is(true));
+    }
+
+    @Test
+    public void completingFromOutside_cancelsTheCurrentTask() throws Exception {
+        Future<?> task = mock(Future.class);
+        future.setCurrentTaskFuture(task);
+
+        assertThat(future.complete(ExecutionResult.success("fallback", 0)), is(true));
+
+        verify(task).cancel(false);
+        assertThat(future.get(), is(ExecutionResult.success("fallback", 0)));
+    }
+
+    @Test
+    public void completingExceptionallyFromOutside_cancelsTheCurrentTask() {
+        Future<?> task = mock(Future.class);
+        future.setCurrentTaskFuture(task);
+
+        assertThat(future.completeExceptionally(new RuntimeException("Argh!")), is(true));
+
+        verify(task).cancel(false);
+        assertThat(future.isCompletedExceptionally(), is(true));
+    }
+
+    @Test
+    public void timingOut_cancelsTheCurrentTask() throws Exception {
+        Future<?> task = mock(Future.class);
+        future.setCurrentTaskFuture(task);
+
+        future.orTimeout(10, TimeUnit.MILLISECONDS);
+        try {
+            future.get();
+            fail("Expected the future to time out");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(TimeoutException.class)));
+        }
+
+        verify(task).cancel(false);
+    }
+
+    @Test
+    public void taskPublishedAfterCompletionFromOutside_isCancelled() {
+        future.complete(ExecutionResult.success("fallback", 0));
+        Future<?> task = mock(Future.class);
+
+        future.setCurrentTaskFuture(task);
+
+        verify(task).cancel(false);
+    }
+
+    @Test
+    public void completingFromOutsideAfterMarkComplete_isIgnored() throws Exception {
+        future.markComplete(ExecutionResult.success("hello", 0));
+
+        assertThat(future.complete(ExecutionResult.success("fallback", 0)), is(false));
+        assertThat(future.get(), is(ExecutionResult.success("hello", 0)));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void obtrudeValue_isNotSupported() {
+        future.markComplete(ExecutionResult.success("hello", 0));
+
+        future.obtrudeValue(ExecutionResult.success("fallback", 0));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void obtrudeException_isNotSupported() {
+        future.markComplete(ExecutionResult.success("hello", 0));
+
+        future.obtrudeException(new RuntimeException("Argh!"));
+    }
+
+}
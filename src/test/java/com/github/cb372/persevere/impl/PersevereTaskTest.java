@@ -1,16 +1,42 @@
 package com.github.cb372.persevere.impl;
 
 
+import com.github.cb372.persevere.DeadlineExceededException;
 import com.github.cb372.persevere.ExecutionResult;
+import com.github.cb372.persevere.action.AsyncRetryableAction;
 import com.github.cb372.persevere.action.RetryableAction;
+import com.github.cb372.persevere.budget.RetryBudget;
+import com.github.cb372.persevere.budget.RetryBudgetExhaustedException;
+import com.github.cb372.persevere.circuit.CircuitBreaker;
+import com.github.cb372.persevere.circuit.CircuitOpenException;
 import com.github.cb372.persevere.delay.DelayStrategies;
 import com.github.cb372.persevere.delay.DelayStrategy;
+import com.github.cb372.persevere.delay.FeedbackDelayStrategy;
+import com.github.cb372.persevere.limit.ConcurrencyLimitExceededException;
+import com.github.cb372.persevere.limit.ConcurrencyLimiter;
+import com.github.cb372.persevere.listener.RetryListener;
+import com.github.cb372.persevere.policy.RetryPolicy;
+import com.github.cb372.persevere.scheduler.ExecutorServiceScheduler;
+import com.github.cb372.persevere.scheduler.Prioritized;
+import com.github.cb372.persevere.scheduler.Scheduler;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import static com.github.cb372.persevere.action.GiveUp.giveUp;
+import static org.hamcrest.CoreMatchers.both;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
@@ -24,6 +50,7 @@ public class PersevereTaskTest {
     private final int maxRetries = 5;
     private final PersevereFuture<String> future = mock(PersevereFuture.class);
     private final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+    private final Scheduler scheduler = new ExecutorServiceScheduler(executor);
     private final Exception exception = new RuntimeException("yelp!");
 
     @Test
@@ -31,7 +58,7 @@ public class PersevereTaskTest {
         RetryableAction<String> action = mock(RetryableAction.class);
         when(action.execute(0)).thenReturn("hello");
 
-        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, executor, maxRetries, DelayStrategies.retryImmediately());
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, scheduler, maxRetries, DelayStrategies.retryImmediately());
         PersevereTask<String> task = new PersevereTask<String>(config, 0);
         task.run();
 
@@ -44,7 +71,7 @@ public class PersevereTaskTest {
         RetryableAction<String> action = mock(RetryableAction.class);
         when(action.execute(0)).thenThrow(exception);
 
-        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, executor, maxRetries, DelayStrategies.retryImmediately());
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, scheduler, maxRetries, DelayStrategies.retryImmediately());
         PersevereTask<String> task = new PersevereTask<String>(config, 0);
         task.run();
 
@@ -58,7 +85,7 @@ public class PersevereTaskTest {
         Exception giveUp = giveUp();
         when(action.execute(0)).thenThrow(giveUp);
 
-        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, executor, maxRetries, DelayStrategies.retryImmediately());
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, scheduler, maxRetries, DelayStrategies.retryImmediately());
         PersevereTask<String> task = new PersevereTask<String>(config, 0);
         task.run();
 
@@ -72,7 +99,7 @@ public class PersevereTaskTest {
         RetryableAction<String> action = mock(RetryableAction.class);
         when(action.execute(retryCount)).thenReturn("hello");
 
-        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, executor, maxRetries, DelayStrategies.retryImmediately());
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, scheduler, maxRetries, DelayStrategies.retryImmediately());
         PersevereTask<String> task = new PersevereTask<String>(config, retryCount);
         task.run();
 
@@ -86,7 +113,7 @@ public class PersevereTaskTest {
         RetryableAction<String> action = mock(RetryableAction.class);
         when(action.execute(retryCount)).thenThrow(exception);
 
-        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, executor, maxRetries, DelayStrategies.retryImmediately());
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, scheduler, maxRetries, DelayStrategies.retryImmediately());
         PersevereTask<String> task = new PersevereTask<String>(config, retryCount);
         task.run();
 
@@ -102,13 +129,13 @@ public class PersevereTaskTest {
         when(action.execute(retryCount)).thenThrow(exception);
 
         DelayStrategy delayStrategy = mock(DelayStrategy.class);
-        when(delayStrategy.getNextDelayMs(retryCount)).thenReturn(300L);
+        when(delayStrategy.getNextDelayMs(eq(retryCount), same(exception), anyLong())).thenReturn(300L);
 
-        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, executor, maxRetries, delayStrategy);
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, scheduler, maxRetries, delayStrategy);
         PersevereTask<String> task = new PersevereTask<String>(config, retryCount);
         task.run();
 
-        verify(delayStrategy).getNextDelayMs(3);
+        verify(delayStrategy).getNextDelayMs(eq(3), same(exception), anyLong());
         verify(executor).schedule(any(Runnable.class), eq(300L), any(TimeUnit.class));
     }
 
@@ -118,7 +145,7 @@ public class PersevereTaskTest {
         RetryableAction<String> action = mock(RetryableAction.class);
         when(action.execute(0)).thenThrow(exception);
 
-        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, executor, maxRetriesZero, DelayStrategies.retryImmediately());
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, scheduler, maxRetriesZero, DelayStrategies.retryImmediately());
         PersevereTask<String> task = new PersevereTask<String>(config, 0);
         task.run();
 
@@ -133,11 +160,422 @@ public class PersevereTaskTest {
         RetryableAction<String> action = mock(RetryableAction.class);
         when(action.execute(retryCount)).thenThrow(exception);
 
-        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, executor, maxRetriesInfinite, DelayStrategies.retryImmediately());
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, scheduler, maxRetriesInfinite, DelayStrategies.retryImmediately());
         PersevereTask<String> task = new PersevereTask<String>(config, retryCount);
         task.run();
 
         verify(future, never()).markComplete(any(ExecutionResult.class));
         verify(executor).schedule(any(Runnable.class), eq(0L), eq(TimeUnit.MILLISECONDS));
     }
+
+    @Test
+    public void asyncActionSucceeds_passesASuccessfulResultToFutureWhenStageCompletes() throws Exception {
+        CompletableFuture<String> stage = new CompletableFuture<String>();
+        AsyncRetryableAction<String> action = mock(AsyncRetryableAction.class);
+        when(action.execute(0)).thenReturn(stage);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, scheduler, maxRetries, DelayStrategies.retryImmediately());
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        verify(future, never()).markComplete(any(ExecutionResult.class));
+
+        stage.complete("hello");
+
+        verify(future).markComplete(ExecutionResult.success("hello", 0));
+        verify(executor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void asyncActionCompletesExceptionally_schedulesARetry() throws Exception {
+        CompletableFuture<String> stage = new CompletableFuture<String>();
+        stage.completeExceptionally(exception);
+        AsyncRetryableAction<String> action = mock(AsyncRetryableAction.class);
+        when(action.execute(0)).thenReturn(stage);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, scheduler, maxRetries, DelayStrategies.retryImmediately());
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        verify(future, never()).markComplete(any(ExecutionResult.class));
+        verify(executor).schedule(any(Runnable.class), eq(0L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void asyncActionCompletesWithGiveUp_passesAFailureResultToFutureAndGivesUp() throws Exception {
+        Exception giveUp = giveUp();
+        CompletableFuture<String> stage = new CompletableFuture<String>();
+        stage.completeExceptionally(giveUp);
+        AsyncRetryableAction<String> action = mock(AsyncRetryableAction.class);
+        when(action.execute(0)).thenReturn(stage);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, scheduler, maxRetries, DelayStrategies.retryImmediately());
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        verify(future).markComplete(ExecutionResult.<String>failure(giveUp, 0));
+        verify(executor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void retryBudgetIsExhausted_passesAFailureResultToFutureWithoutRetrying() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        when(action.execute(0)).thenThrow(exception);
+        RetryBudget retryBudget = new RetryBudget(0.0, 0, 10, TimeUnit.SECONDS);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.retryImmediately(), retryBudget, null, PersevereTask.Config.NO_TIMEOUT, PersevereTask.Config.NO_TIMEOUT, null, null, null, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        ArgumentCaptor<ExecutionResult<String>> result = resultCaptor();
+        verify(future).markComplete(result.capture());
+        assertThat(result.getValue().success, is(false));
+        assertThat(result.getValue().exception, instanceOf(RetryBudgetExhaustedException.class));
+        assertThat(result.getValue().exception.getCause(), is((Throwable) exception));
+        verify(executor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void retryBudgetHasRoom_schedulesARetry() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        when(action.execute(0)).thenThrow(exception);
+        RetryBudget retryBudget = new RetryBudget(0.0, 1, 10, TimeUnit.SECONDS);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.retryImmediately(), retryBudget, null, PersevereTask.Config.NO_TIMEOUT, PersevereTask.Config.NO_TIMEOUT, null, null, null, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        verify(future, never()).markComplete(any(ExecutionResult.class));
+        verify(executor).schedule(any(Runnable.class), eq(0L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void circuitBreakerIsOpen_passesAFailureResultToFutureWithoutExecutingTheAction() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(0.5, 1, 10, TimeUnit.SECONDS, 10, TimeUnit.SECONDS, 1);
+        circuitBreaker.onFailure(circuitBreaker.tryAcquirePermission());
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.retryImmediately(), null, circuitBreaker, PersevereTask.Config.NO_TIMEOUT, PersevereTask.Config.NO_TIMEOUT, null, null, null, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 2);
+        task.run();
+
+        ArgumentCaptor<ExecutionResult<String>> result = resultCaptor();
+        verify(future).markComplete(result.capture());
+        assertThat(result.getValue().exception, instanceOf(CircuitOpenException.class));
+        assertThat(result.getValue().retries, is(2));
+        verify(action, never()).execute(anyInt());
+        verify(executor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void circuitBreakerIsClosed_recordsTheOutcomeOfTheAttempt() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        when(action.execute(0)).thenThrow(exception);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(0.5, 1, 10, TimeUnit.SECONDS, 10, TimeUnit.SECONDS, 1);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.retryImmediately(), null, circuitBreaker, PersevereTask.Config.NO_TIMEOUT, PersevereTask.Config.NO_TIMEOUT, null, null, null, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+        verify(executor).schedule(any(Runnable.class), eq(0L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void nextDelayWouldExceedTheDeadline_passesAFailureResultToFutureWithoutRetrying() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        when(action.execute(0)).thenThrow(exception);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.fixedDelay(1000), null, null, TimeUnit.MILLISECONDS.toNanos(500), PersevereTask.Config.NO_TIMEOUT, null, null, null, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        ArgumentCaptor<ExecutionResult<String>> result = resultCaptor();
+        verify(future).markComplete(result.capture());
+        assertThat(result.getValue().exception, instanceOf(DeadlineExceededException.class));
+        assertThat(result.getValue().exception.getCause(), is((Throwable) exception));
+        verify(executor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void nextDelayFitsWithinTheDeadline_schedulesARetry() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        when(action.execute(0)).thenThrow(exception);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.fixedDelay(100), null, null, TimeUnit.SECONDS.toNanos(10), PersevereTask.Config.NO_TIMEOUT, null, null, null, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        verify(future, never()).markComplete(any(ExecutionResult.class));
+        verify(executor).schedule(any(Runnable.class), eq(100L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void actionThrowsException_notifiesTheListenerOfTheFailedAttemptAndTheScheduledRetry() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        when(action.execute(0)).thenThrow(exception);
+        RetryListener listener = mock(RetryListener.class);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.fixedDelay(100), null, null, PersevereTask.Config.NO_TIMEOUT, PersevereTask.Config.NO_TIMEOUT, listener, null, null, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).onAttemptStarted(0);
+        inOrder.verify(listener).onAttemptFailed(eq(0), eq(exception), anyLong());
+        inOrder.verify(listener).onRetryScheduled(1, 100L);
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void actionSucceeds_notifiesTheListenerOfTheSuccess() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        when(action.execute(2)).thenReturn("hello");
+        RetryListener listener = mock(RetryListener.class);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.retryImmediately(), null, null, PersevereTask.Config.NO_TIMEOUT, PersevereTask.Config.NO_TIMEOUT, listener, null, null, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 2);
+        task.run();
+
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).onAttemptStarted(2);
+        inOrder.verify(listener).onSuccess(eq(2), anyLong());
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void actionThrowsGiveUp_notifiesTheListenerOfTheFinalFailure() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        Exception giveUp = giveUp();
+        when(action.execute(0)).thenThrow(giveUp);
+        RetryListener listener = mock(RetryListener.class);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.retryImmediately(), null, null, PersevereTask.Config.NO_TIMEOUT, PersevereTask.Config.NO_TIMEOUT, listener, null, null, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        verify(listener).onAttemptFailed(eq(0), eq(giveUp), anyLong());
+        verify(listener).onFailure(eq(0), eq(giveUp), anyLong());
+        verify(listener, never()).onRetryScheduled(anyInt(), anyLong());
+    }
+
+    @Test
+    public void concurrencyLimiterIsFull_waitsForAPermitWithoutUsingUpAnAttempt() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        when(action.execute(0)).thenReturn("hello");
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.aimd(1, 1, 1, TimeUnit.SECONDS);
+        limiter.tryAcquire();
+        CircuitBreaker circuitBreaker = new CircuitBreaker(0.5, 1, 10, TimeUnit.SECONDS, 10, TimeUnit.SECONDS, 1);
+        RetryListener listener = mock(RetryListener.class);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, 0, DelayStrategies.retryImmediately(), null, circuitBreaker, PersevereTask.Config.NO_TIMEOUT, PersevereTask.Config.NO_TIMEOUT, listener, limiter, null, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        verify(action, never()).execute(anyInt());
+        verify(future, never()).markComplete(any(ExecutionResult.class));
+        ArgumentCaptor<Long> delay = ArgumentCaptor.forClass(Long.class);
+        verify(executor).schedule(eq(task), delay.capture(), eq(TimeUnit.MILLISECONDS));
+        assertThat(delay.getValue(), is(both(greaterThanOrEqualTo(1L)).and(lessThanOrEqualTo(PersevereTask.MAX_PERMIT_BACKOFF_MS))));
+        verifyZeroInteractions(listener);
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+
+        // once there is room, the same attempt is made, even though it had no retries left
+        limiter.release();
+        task.run();
+
+        verify(future).markComplete(ExecutionResult.success("hello", 0));
+        assertThat(limiter.getInFlight(), is(0));
+    }
+
+    @Test
+    public void concurrencyLimiterIsFull_failsIfTheDeadlineWouldPassWhileWaiting() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.aimd(1, 1, 1, TimeUnit.SECONDS);
+        limiter.tryAcquire();
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.retryImmediately(), null, null, TimeUnit.MICROSECONDS.toNanos(500), PersevereTask.Config.NO_TIMEOUT, null, limiter, null, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        verify(action, never()).execute(anyInt());
+        ArgumentCaptor<ExecutionResult<String>> result = resultCaptor();
+        verify(future).markComplete(result.capture());
+        assertThat(result.getValue().exception, instanceOf(DeadlineExceededException.class));
+        assertThat(result.getValue().exception.getCause(), instanceOf(ConcurrencyLimitExceededException.class));
+    }
+
+    @Test
+    public void actionThrowsAnErrorWithAnAttemptTimeout_disarmsTheWatchdogAndFailsWithoutRetrying() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        Error error = new Error("Argh!");
+        when(action.execute(0)).thenThrow(error);
+        ScheduledFuture<?> timer = mock(ScheduledFuture.class);
+        doReturn(timer).when(executor).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.retryImmediately(), null, null, PersevereTask.Config.NO_TIMEOUT, TimeUnit.SECONDS.toNanos(1), null, null, null, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        verify(timer).cancel(false);
+        ArgumentCaptor<ExecutionResult<String>> result = resultCaptor();
+        verify(future).markComplete(result.capture());
+        assertThat(result.getValue().exception, instanceOf(ExecutionException.class));
+        assertThat(result.getValue().exception.getCause(), is((Throwable) error));
+        // only the watchdog was scheduled, not a retry
+        verify(executor, times(1)).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void actionThrowsAnError_releasesTheLimiterPermitAndTheHalfOpenTrial() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        Error error = new Error("Argh!");
+        when(action.execute(0)).thenThrow(error);
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.aimd(1, 1, 1, TimeUnit.SECONDS);
+        CircuitBreaker circuitBreaker = new CircuitBreaker(0.5, 1, 10, TimeUnit.SECONDS, 20, TimeUnit.MILLISECONDS, 1);
+        circuitBreaker.onFailure(circuitBreaker.tryAcquirePermission());
+        Thread.sleep(30);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.retryImmediately(), null, circuitBreaker, PersevereTask.Config.NO_TIMEOUT, PersevereTask.Config.NO_TIMEOUT, null, limiter, null, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        ArgumentCaptor<ExecutionResult<String>> result = resultCaptor();
+        verify(future).markComplete(result.capture());
+        assertThat(result.getValue().exception.getCause(), is((Throwable) error));
+        verify(executor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        assertThat(limiter.getInFlight(), is(0));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        assertThat(circuitBreaker.tryAcquirePermission(), is(not(CircuitBreaker.NOT_PERMITTED)));
+    }
+
+    @Test
+    public void permitBackoffGrowsButIsCapped() {
+        assertThat(PersevereTask.permitBackoffMs(1), is(1L));
+        assertThat(PersevereTask.permitBackoffMs(3), is(both(greaterThanOrEqualTo(4L)).and(lessThanOrEqualTo(7L))));
+        assertThat(PersevereTask.permitBackoffMs(1000), is(both(greaterThanOrEqualTo(64L)).and(lessThanOrEqualTo(PersevereTask.MAX_PERMIT_BACKOFF_MS))));
+    }
+
+    @Test
+    public void actionThrowsGiveUpDuringAHalfOpenTrial_givesTheTrialBack() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        when(action.execute(0)).thenThrow(giveUp());
+        CircuitBreaker circuitBreaker = new CircuitBreaker(0.5, 1, 10, TimeUnit.SECONDS, 20, TimeUnit.MILLISECONDS, 1);
+        circuitBreaker.onFailure(circuitBreaker.tryAcquirePermission());
+        Thread.sleep(30);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.retryImmediately(), null, circuitBreaker, PersevereTask.Config.NO_TIMEOUT, PersevereTask.Config.NO_TIMEOUT, null, null, null, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        verify(action).execute(0);
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        assertThat(circuitBreaker.tryAcquirePermission(), is(not(CircuitBreaker.NOT_PERMITTED)));
+    }
+
+    @Test
+    public void concurrencyLimiterHasRoom_releasesThePermitWhenTheAttemptFinishes() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        when(action.execute(0)).thenThrow(exception);
+        ConcurrencyLimiter limiter = ConcurrencyLimiter.aimd(2, 2, 1, TimeUnit.SECONDS);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.retryImmediately(), null, null, PersevereTask.Config.NO_TIMEOUT, PersevereTask.Config.NO_TIMEOUT, null, limiter, null, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        verify(action).execute(0);
+        verify(executor).schedule(any(Runnable.class), eq(0L), eq(TimeUnit.MILLISECONDS));
+        assertThat(limiter.getInFlight(), is(0));
+        assertThat(limiter.getLimit(), is(1));
+    }
+
+    @Test
+    public void retryPolicySaysTheExceptionIsFatal_passesAFailureResultToFutureWithoutRetrying() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        when(action.execute(0)).thenThrow(exception);
+        RetryPolicy policy = RetryPolicy.retryAll().giveUpOn(RuntimeException.class);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.retryImmediately(), null, null, PersevereTask.Config.NO_TIMEOUT, PersevereTask.Config.NO_TIMEOUT, null, null, policy, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        verify(future).markComplete(ExecutionResult.<String>failure(exception, 0));
+        verify(executor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void retryPolicyChoosesTheDelay_schedulesARetryWithThatDelay() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        when(action.execute(0)).thenThrow(exception);
+        RetryPolicy policy = RetryPolicy.retryAll().retryOn(RuntimeException.class, DelayStrategies.fixedDelay(250));
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, null, future, scheduler, maxRetries, DelayStrategies.retryImmediately(), null, null, PersevereTask.Config.NO_TIMEOUT, PersevereTask.Config.NO_TIMEOUT, null, null, policy, Prioritized.DEFAULT_PRIORITY, null);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        verify(future, never()).markComplete(any(ExecutionResult.class));
+        verify(executor).schedule(any(Runnable.class), eq(250L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void actionThrowsException_reschedulesTheSameTask() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        when(action.execute(0)).thenThrow(exception);
+        when(action.execute(1)).thenReturn("hello");
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, scheduler, maxRetries, DelayStrategies.retryImmediately());
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        verify(executor).schedule(same(task), eq(0L), eq(TimeUnit.MILLISECONDS));
+        task.run();
+        verify(future).markComplete(ExecutionResult.success("hello", 1));
+    }
+
+    @Test
+    public void taskIsCancelled_doesNotMakeAnyMoreAttempts() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, scheduler, maxRetries, DelayStrategies.retryImmediately());
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.cancel(false);
+        task.run();
+
+        verify(action, never()).execute(anyInt());
+        verify(future, never()).markComplete(any(ExecutionResult.class));
+    }
+
+    @Test
+    public void feedbackDelayStrategy_isToldTheOutcomeOfEachAttempt() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        when(action.execute(0)).thenThrow(exception);
+        when(action.execute(1)).thenReturn("hello");
+        FeedbackDelayStrategy delayStrategy = mock(FeedbackDelayStrategy.class);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, scheduler, maxRetries, delayStrategy);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+        task.run();
+
+        verify(delayStrategy).onAttemptFailed(same(exception), anyLong());
+        verify(delayStrategy).onAttemptSucceeded(anyLong());
+    }
+
+    @Test
+    public void feedbackDelayStrategy_isNotToldAboutGivingUp() throws Exception {
+        RetryableAction<String> action = mock(RetryableAction.class);
+        when(action.execute(0)).thenThrow(giveUp());
+        FeedbackDelayStrategy delayStrategy = mock(FeedbackDelayStrategy.class);
+
+        PersevereTask.Config<String> config = new PersevereTask.Config<String>(action, future, scheduler, maxRetries, delayStrategy);
+        PersevereTask<String> task = new PersevereTask<String>(config, 0);
+        task.run();
+
+        verify(delayStrategy, never()).onAttemptFailed(any(Exception.class), anyLong());
+    }
+
+    private static ArgumentCaptor<ExecutionResult<String>> resultCaptor() {
+        return ArgumentCaptor.forClass((Class<ExecutionResult<String>>) (Class<?>) ExecutionResult.class);
+    }
+
 }
@@ -0,0 +1,160 @@
+package com.github.cb372.persevere.journal;
+
+import com.github.cb372.persevere.ExecutionResult;
+import com.github.cb372.persevere.action.GiveUp;
+import com.github.cb372.persevere.delay.DelayStrategies;
+import com.github.cb372.persevere.delay.DelayStrategy;
+import com.github.cb372.persevere.impl.PersevereRunner;
+import com.github.cb372.persevere.policy.RetryPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DurableRunnerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScheduledThreadPoolExecutor executor;
+    private File file;
+
+    /**
+     * Fails until told to succeed. The state is static, because recovery works on a deserialized copy.
+     */
+    static class FlakyAction implements DurableAction<String> {
+        private static final long serialVersionUID = 1L;
+        static volatile boolean succeed = false;
+        static final AtomicInteger lastRetryCount = new AtomicInteger(-1);
+
+        @Override
+        public String execute(int retryCount) throws GiveUp, Exception {
+            lastRetryCount.set(retryCount);
+            if (!succeed) {
+                throw new IOException("Argh!");
+            }
+            return "done";
+        }
+    }
+
+    @Before
+    public void setUp() {
+        executor = new ScheduledThreadPoolExecutor(2);
+        file = new File(folder.getRoot(), "retries.journal");
+        FlakyAction.succeed = false;
+        FlakyAction.lastRetryCount.set(-1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 2000)
+    public void completedCallsAreRemovedFromTheJournal() throws Exception {
+        FlakyAction.succeed = true;
+        RetryJournal journal = RetryJournal.open(file);
+        DurableRunner durable = new DurableRunner(new PersevereRunner(executor), journal);
+
+        ExecutionResult<String> result = durable.persevere(new FlakyAction(), DelayStrategies.fixedDelay(1), 3).get();
+
+        assertThat(result.result, is("done"));
+        assertThat(journal.getPendingCount(), is(0));
+        journal.close();
+    }
+
+    @Test(timeout = 2000)
+    public void pendingRetriesAreRecoveredAfterARestart() throws Exception {
+        RetryJournal journal = RetryJournal.open(file);
+        DurableRunner durable = new DurableRunner(new PersevereRunner(executor), journal);
+        durable.persevere(new FlakyAction(), DelayStrategies.fixedDelay(50), 5);
+        while (FlakyAction.lastRetryCount.get() < 1) {
+            Thread.sleep(5);
+        }
+        // simulate a crash: the pending retries are lost along with the executor
+        executor.shutdownNow();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+        int retriesBeforeCrash = FlakyAction.lastRetryCount.get();
+
+        executor = new ScheduledThreadPoolExecutor(2);
+        FlakyAction.succeed = true;
+        RetryJournal reopened = RetryJournal.open(file);
+        DurableRunner recovering = new DurableRunner(new PersevereRunner(executor), reopened);
+        List<Future<ExecutionResult<Object>>> recovered = recovering.recover();
+
+        assertThat(recovered.size(), is(1));
+        ExecutionResult<Object> result = recovered.get(0).get();
+        assertThat(result.success, is(true));
+        assertThat((String) result.result, is("done"));
+        // the retry count carries on from before the crash
+        assertThat(result.retries, is(retriesBeforeCrash + 1));
+        assertThat(reopened.getPendingCount(), is(0));
+        assertThat(recovering.recover().isEmpty(), is(true));
+        reopened.close();
+        journal.close();
+    }
+
+    @Test(timeout = 2000)
+    public void journalsRetriesWhoseDelayComesFromARetryPolicy() throws Exception {
+        RetryJournal journal = RetryJournal.open(file);
+        RetryPolicy policy = RetryPolicy.retryAll().retryOn(IOException.class, DelayStrategies.fixedDelay(1000));
+        DurableRunner durable = new DurableRunner(new PersevereRunner(executor).withRetryPolicy(policy), journal);
+
+        long before = System.currentTimeMillis();
+        durable.persevere(new FlakyAction(), DelayStrategies.fixedDelay(1), 5);
+        while (FlakyAction.lastRetryCount.get() < 0) {
+            Thread.sleep(5);
+        }
+        // give the first attempt time to fail and schedule its retry
+        Thread.sleep(50);
+        executor.shutdownNow();
+        journal.close();
+
+        RetryJournal reopened = RetryJournal.open(file);
+        List<RetryJournal.PendingRetry> recovered = reopened.takeRecovered();
+        assertThat(recovered.size(), is(1));
+        assertThat(recovered.get(0).tryCount, is(1));
+        assertThat(recovered.get(0).dueMillis >= before + 1000, is(true));
+        reopened.close();
+    }
+
+    @Test(timeout = 2000)
+    public void cancelledCallsAreRemovedFromTheJournal() throws Exception {
+        RetryJournal journal = RetryJournal.open(file);
+        DurableRunner durable = new DurableRunner(new PersevereRunner(executor), journal);
+
+        Future<ExecutionResult<String>> future = durable.persevere(new FlakyAction(), DelayStrategies.fixedDelay(1000), 5);
+        future.cancel(false);
+
+        assertThat(journal.getPendingCount(), is(0));
+        journal.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsADelayStrategyThatCannotBeJournalled() throws IOException {
+        RetryJournal journal = RetryJournal.open(file);
+        try {
+            new DurableRunner(new PersevereRunner(executor), journal).persevere(new FlakyAction(), new DelayStrategy() {
+                @Override
+                public long getNextDelayMs(int completedRetries) {
+                    return 0;
+                }
+            }, 3);
+        } finally {
+            journal.close();
+        }
+    }
+
+}
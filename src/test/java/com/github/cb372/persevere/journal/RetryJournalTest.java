@@ -0,0 +1,178 @@
+package com.github.cb372.persevere.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class RetryJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void aRetryRecordedOutOfOrderDoesNotRollBackTheTryCount() throws IOException {
+        File file = new File(folder.getRoot(), "retries.journal");
+        RetryJournal journal = RetryJournal.open(file);
+        long id = journal.recordPending(new byte[]{1}, 0, 100L);
+        journal.recordRetry(id, 2, 300L);
+        // the thread that scheduled try 1 got round to recording it after try 2 had already been recorded
+        journal.recordRetry(id, 1, 200L);
+        journal.close();
+
+        RetryJournal reopened = RetryJournal.open(file);
+        RetryJournal.PendingRetry retry = reopened.takeRecovered().get(0);
+
+        assertThat(retry.tryCount, is(2));
+        assertThat(retry.dueMillis, is(300L));
+        reopened.close();
+    }
+
+    @Test
+    public void pendingEntriesAndTheirLatestRetryStateSurviveReopening() throws IOException {
+        File file = new File(folder.getRoot(), "retries.journal");
+        RetryJournal journal = RetryJournal.open(file);
+        long completed = journal.recordPending(new byte[]{1, 2, 3}, 0, 100L);
+        long retrying = journal.recordPending(new byte[]{4, 5}, 0, 200L);
+        journal.recordRetry(retrying, 1, 300L);
+        journal.recordRetry(retrying, 2, 400L);
+        journal.recordComplete(completed);
+        journal.close();
+
+        RetryJournal reopened = RetryJournal.open(file);
+        List<RetryJournal.PendingRetry> recovered = reopened.takeRecovered();
+
+        assertThat(recovered.size(), is(1));
+        RetryJournal.PendingRetry retry = recovered.get(0);
+        assertThat(retry.id, is(retrying));
+        assertArrayEquals(new byte[]{4, 5}, retry.entry);
+        assertThat(retry.tryCount, is(2));
+        assertThat(retry.dueMillis, is(400L));
+        assertThat(reopened.getPendingCount(), is(1));
+
+        // ids carry on from where they were
+        assertThat(reopened.recordPending(new byte[]{6}, 0, 0L) > retrying, is(true));
+        // recovered entries are only handed out once
+        assertThat(reopened.takeRecovered().isEmpty(), is(true));
+        reopened.close();
+    }
+
+    @Test
+    public void compactsWhenFullAndKeepsPendingEntries() throws IOException {
+        File file = new File(folder.getRoot(), "retries.journal");
+        RetryJournal journal = RetryJournal.open(file, 4096, 0, TimeUnit.MILLISECONDS);
+        long pending = journal.recordPending(new byte[100], 0, 1L);
+        // far more than fits in 4096 bytes, but almost all of it completed
+        for (int i = 0; i < 1000; i++) {
+            long id = journal.recordPending(new byte[100], 0, 1L);
+            journal.recordRetry(id, 1, 2L);
+            journal.recordComplete(id);
+        }
+        journal.recordRetry(pending, 5, 42L);
+        assertThat(file.length(), is(4096L));
+        journal.close();
+
+        RetryJournal reopened = RetryJournal.open(file, 4096, 0, TimeUnit.MILLISECONDS);
+        List<RetryJournal.PendingRetry> recovered = reopened.takeRecovered();
+        assertThat(recovered.size(), is(1));
+        assertThat(recovered.get(0).id, is(pending));
+        assertThat(recovered.get(0).tryCount, is(5));
+        reopened.close();
+    }
+
+    @Test
+    public void growsWhenThePendingEntriesNeedMoreRoom() throws IOException {
+        File file = new File(folder.getRoot(), "retries.journal");
+        RetryJournal journal = RetryJournal.open(file, 4096, 0, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 100; i++) {
+            journal.recordPending(new byte[100], 0, 1L);
+        }
+        journal.close();
+
+        RetryJournal reopened = RetryJournal.open(file, 4096, 0, TimeUnit.MILLISECONDS);
+        assertThat(reopened.takeRecovered().size(), is(100));
+        reopened.close();
+    }
+
+    @Test
+    public void ignoresATornRecordAtTheEnd() throws IOException {
+        File file = new File(folder.getRoot(), "retries.journal");
+        RetryJournal journal = RetryJournal.open(file);
+        long id = journal.recordPending(new byte[]{1}, 0, 1L);
+        journal.close();
+
+        // find the end of the log, and write a record header whose body doesn't match its checksum
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            int pos = 8;
+            while (raf.length() > pos + 8) {
+                raf.seek(pos);
+                int length = raf.readInt();
+                if (length == 0) {
+                    break;
+                }
+                pos += 8 + length;
+            }
+            raf.seek(pos);
+            raf.writeInt(22);
+            raf.writeInt(12345);
+            raf.writeByte(3);
+            raf.writeLong(id);
+        } finally {
+            raf.close();
+        }
+
+        RetryJournal reopened = RetryJournal.open(file);
+        List<RetryJournal.PendingRetry> recovered = reopened.takeRecovered();
+        assertThat(recovered.size(), is(1));
+        assertThat(recovered.get(0).id, is(id));
+        reopened.close();
+    }
+
+    @Test
+    public void doesNotLeaveAFlusherThreadBehindIfOpeningFails() throws Exception {
+        File file = folder.newFile("not-a-journal");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeLong(123456789L);
+        raf.close();
+        int flushersBefore = countFlusherThreads();
+
+        try {
+            RetryJournal.open(file, 4096, 10, TimeUnit.MILLISECONDS);
+        } catch (IOException expected) {
+            // ok
+        }
+
+        assertThat(countFlusherThreads() <= flushersBefore, is(true));
+    }
+
+    private static int countFlusherThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().equals("persevere-journal-flush")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesToOpenAFileThatIsNotAJournal() throws IOException {
+        File file = folder.newFile("not-a-journal");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeLong(123456789L);
+        raf.close();
+
+        RetryJournal.open(file);
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.github.cb372.persevere.limit;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ConcurrencyLimiterTest {
+    private final ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 2, 6, 0.5, 100, TimeUnit.MILLISECONDS);
+    private final long fast = TimeUnit.MILLISECONDS.toNanos(10);
+    private final long slow = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Test
+    public void rejectsAttemptsOnceTheLimitIsReached() {
+        for (int i = 0; i < 4; i++) {
+            assertThat(limiter.tryAcquire(), is(true));
+        }
+        assertThat(limiter.tryAcquire(), is(false));
+        assertThat(limiter.getInFlight(), is(4));
+
+        limiter.release();
+        assertThat(limiter.tryAcquire(), is(true));
+    }
+
+    @Test
+    public void fastSuccessesRaiseTheLimitUpToTheMax() {
+        for (int i = 0; i < 10; i++) {
+            fill();
+            limiter.onSuccess(fast);
+            drain();
+        }
+        assertThat(limiter.getLimit(), is(6));
+    }
+
+    @Test
+    public void successesDoNotRaiseTheLimitWhenMostOfItIsUnused() {
+        limiter.tryAcquire();
+        limiter.onSuccess(fast);
+        assertThat(limiter.getLimit(), is(4));
+    }
+
+    @Test
+    public void failuresAndSlowSuccessesCutTheLimitDownToTheMin() {
+        limiter.tryAcquire();
+        limiter.onFailure();
+        assertThat(limiter.getLimit(), is(2));
+
+        limiter.tryAcquire();
+        limiter.onSuccess(slow);
+        assertThat(limiter.getLimit(), is(2));
+        assertThat(limiter.getInFlight(), is(0));
+    }
+
+    private void fill() {
+        while (limiter.tryAcquire()) {
+            // keep going
+        }
+    }
+
+    private void drain() {
+        while (limiter.getInFlight() > 0) {
+            limiter.release();
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.github.cb372.persevere.metrics;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class HistogramTest {
+
+    @Test
+    public void emptyHistogram() {
+        Histogram histogram = new Histogram();
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getMax(), is(0L));
+        assertThat(histogram.getValueAtPercentile(0.99), is(0L));
+    }
+
+    @Test
+    public void smallValuesAreRecordedExactly() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 20; i++) {
+            histogram.record(i);
+        }
+        assertThat(histogram.getCount(), is(20L));
+        assertThat(histogram.getMax(), is(20L));
+        assertThat(histogram.getMean(), is(10.5));
+        assertThat(histogram.getValueAtPercentile(0.5), is(10L));
+        assertThat(histogram.getValueAtPercentile(0.9), is(18L));
+        assertThat(histogram.getValueAtPercentile(1.0), is(20L));
+    }
+
+    @Test
+    public void largeValuesAreRecordedToWithinAFewPercent() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000L);
+        }
+        long p99 = histogram.getValueAtPercentile(0.99);
+        assertThat(p99, greaterThanOrEqualTo(9900000L));
+        assertThat(p99, lessThanOrEqualTo(9900000L + 9900000L / 16));
+        assertThat(histogram.getValueAtPercentile(1.0), is(10000000L));
+    }
+
+    @Test
+    public void everyValueFallsWithinItsBucket() {
+        long[] values = { 0, 1, 31, 32, 33, 63, 64, 65, 1000, 123456789L, Long.MAX_VALUE };
+        for (long value : values) {
+            int index = Histogram.indexOf(value);
+            assertThat(Histogram.highestValueIn(index), greaterThanOrEqualTo(value));
+            if (index > 0) {
+                assertThat(Histogram.highestValueIn(index - 1), lessThanOrEqualTo(value - 1));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void percentileMustBeBetweenZeroAndOne() {
+        new Histogram().getValueAtPercentile(1.5);
+    }
+
+}
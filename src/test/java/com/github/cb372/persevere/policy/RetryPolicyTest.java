@@ -0,0 +1,85 @@
+package com.github.cb372.persevere.policy;
+
+import com.github.cb372.persevere.delay.DelayStrategies;
+import com.github.cb372.persevere.delay.DelayStrategy;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+import static com.github.cb372.persevere.action.GiveUp.giveUp;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class RetryPolicyTest {
+    private final DelayStrategy defaultDelay = DelayStrategies.fixedDelay(100);
+
+    @Test
+    public void retryAllRetriesEverythingExceptGiveUp() {
+        RetryPolicy policy = RetryPolicy.retryAll();
+        assertThat(policy.isFatal(new IOException()), is(false));
+        assertThat(policy.isFatal(giveUp()), is(true));
+        assertThat(policy.getNextDelayMs(new IOException(), 0, defaultDelay), is(100L));
+    }
+
+    @Test
+    public void giveUpOnMatchesSubclasses() {
+        RetryPolicy policy = RetryPolicy.retryAll().giveUpOn(IOException.class);
+        assertThat(policy.isFatal(new FileNotFoundException()), is(true));
+        assertThat(policy.isFatal(new TimeoutException()), is(false));
+    }
+
+    @Test
+    public void theFirstMatchingRuleWins() {
+        RetryPolicy policy = RetryPolicy.retryAll()
+                .retryOn(FileNotFoundException.class)
+                .giveUpOn(Exception.class);
+        assertThat(policy.isFatal(new FileNotFoundException()), is(false));
+        assertThat(policy.isFatal(new IOException()), is(true));
+    }
+
+    @Test
+    public void predicatesAreCheckedForEachException() {
+        RetryPolicy policy = RetryPolicy.retryAll().giveUpOn(IOException.class, new Predicate<IOException>() {
+            @Override
+            public boolean test(IOException e) {
+                return "fatal".equals(e.getMessage());
+            }
+        });
+        assertThat(policy.isFatal(new IOException("fatal")), is(true));
+        assertThat(policy.isFatal(new IOException("transient")), is(false));
+        assertThat(policy.isFatal(new IOException("fatal")), is(true));
+    }
+
+    @Test
+    public void retryOnWithADelayStrategyOverridesTheDefault() {
+        RetryPolicy policy = RetryPolicy.retryAll().retryOn(TimeoutException.class, DelayStrategies.fixedDelay(5));
+        assertThat(policy.getNextDelayMs(new TimeoutException(), 0, defaultDelay), is(5L));
+        assertThat(policy.getNextDelayMs(new IOException(), 0, defaultDelay), is(100L));
+    }
+
+    @Test
+    public void retryAfterChoosesTheDelayFromTheException() {
+        RetryPolicy policy = RetryPolicy.retryAll().retryOn(ThrottledException.class, new RetryAfter<ThrottledException>() {
+            @Override
+            public long getDelayMs(ThrottledException exception, int completedRetries) {
+                return exception.retryAfterMs;
+            }
+        });
+        assertThat(policy.getNextDelayMs(new ThrottledException(2500), 0, defaultDelay), is(2500L));
+        // negative means fall back to the default
+        assertThat(policy.getNextDelayMs(new ThrottledException(-1), 0, defaultDelay), is(100L));
+    }
+
+    private static class ThrottledException extends Exception {
+        private static final long serialVersionUID = 1L;
+        final long retryAfterMs;
+
+        ThrottledException(long retryAfterMs) {
+            this.retryAfterMs = retryAfterMs;
+        }
+    }
+
+}
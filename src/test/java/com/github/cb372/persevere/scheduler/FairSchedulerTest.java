@@ -0,0 +1,209 @@
+package com.github.cb372.persevere.scheduler;
+
+import com.github.cb372.persevere.ExecutionResult;
+import com.github.cb372.persevere.action.GiveUp;
+import com.github.cb372.persevere.action.RetryableAction;
+import com.github.cb372.persevere.delay.DelayStrategies;
+import com.github.cb372.persevere.impl.PersevereRunner;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class FairSchedulerTest {
+
+    private FairScheduler scheduler;
+    private final List<String> ran = new CopyOnWriteArrayList<String>();
+
+    @After
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    private class Task implements Runnable, Prioritized {
+        private final String name;
+        private final int priority;
+        private final Object tenant;
+        private final boolean retry;
+
+        Task(String name, int priority, Object tenant, boolean retry) {
+            this.name = name;
+            this.priority = priority;
+            this.tenant = tenant;
+            this.retry = retry;
+        }
+
+        @Override
+        public void run() {
+            ran.add(name);
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public Object getTenant() {
+            return tenant;
+        }
+
+        @Override
+        public boolean isRetry() {
+            return retry;
+        }
+    }
+
+    /**
+     * Occupy the only worker until the returned latch is released, so that tasks queue up behind it.
+     */
+    private CountDownLatch blockTheWorker() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        started.await();
+        return release;
+    }
+
+    private void awaitRan(int count) throws InterruptedException {
+        while (ran.size() < count) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test(timeout = 1000)
+    public void runsHigherPrioritiesFirst() throws InterruptedException {
+        scheduler = new FairScheduler(1);
+        CountDownLatch release = blockTheWorker();
+        scheduler.submit(new Task("low", 0, null, false));
+        scheduler.submit(new Task("high", 10, null, false));
+        scheduler.submit(new Task("medium", 5, null, false));
+        release.countDown();
+        awaitRan(3);
+
+        assertThat(ran, is(Arrays.asList("high", "medium", "low")));
+    }
+
+    @Test(timeout = 1000)
+    public void runsFirstAttemptsAheadOfRetries() throws InterruptedException {
+        scheduler = new FairScheduler(1);
+        CountDownLatch release = blockTheWorker();
+        scheduler.submit(new Task("retry", 0, null, true));
+        scheduler.submit(new Task("first", 0, null, false));
+        release.countDown();
+        awaitRan(2);
+
+        assertThat(ran, is(Arrays.asList("first", "retry")));
+    }
+
+    @Test(timeout = 1000)
+    public void canTreatRetriesLikeFirstAttempts() throws InterruptedException {
+        scheduler = new FairScheduler(1, false);
+        CountDownLatch release = blockTheWorker();
+        scheduler.submit(new Task("retry", 0, null, true));
+        scheduler.submit(new Task("first", 0, null, false));
+        release.countDown();
+        awaitRan(2);
+
+        assertThat(ran, is(Arrays.asList("retry", "first")));
+    }
+
+    @Test(timeout = 1000)
+    public void tenantsTakeTurns() throws InterruptedException {
+        scheduler = new FairScheduler(1);
+        CountDownLatch release = blockTheWorker();
+        for (int i = 0; i < 5; i++) {
+            scheduler.submit(new Task("a", 0, "bulk", false));
+        }
+        scheduler.submit(new Task("b", 0, "interactive", false));
+        scheduler.submit(new Task("b", 0, "interactive", false));
+        release.countDown();
+        awaitRan(7);
+
+        assertThat(ran, is(Arrays.asList("a", "b", "a", "b", "a", "a", "a")));
+    }
+
+    @Test(timeout = 1000)
+    public void tenantsShareInProportionToTheirWeights() throws InterruptedException {
+        scheduler = new FairScheduler(1);
+        scheduler.setTenantWeight("big", 3);
+        CountDownLatch release = blockTheWorker();
+        for (int i = 0; i < 4; i++) {
+            scheduler.submit(new Task("s", 0, "small", false));
+        }
+        for (int i = 0; i < 6; i++) {
+            scheduler.submit(new Task("B", 0, "big", false));
+        }
+        release.countDown();
+        awaitRan(10);
+
+        assertThat(ran, is(Arrays.asList("s", "B", "B", "B", "s", "B", "B", "B", "s", "s")));
+    }
+
+    @Test(timeout = 1000)
+    public void forgetsAPriorityOnceItHasNothingQueued() throws InterruptedException {
+        scheduler = new FairScheduler(1);
+        CountDownLatch release = blockTheWorker();
+        for (int i = 0; i < 100; i++) {
+            scheduler.submit(new Task("t" + i, i, null, i % 2 == 0));
+        }
+        assertThat(scheduler.getLevelCount(), is(100));
+        release.countDown();
+        awaitRan(100);
+
+        assertThat(scheduler.getLevelCount(), is(0));
+    }
+
+    @Test(timeout = 1000)
+    public void runsDelayedTasksWhenDueAndCanCancelThem() throws Exception {
+        scheduler = new FairScheduler(2);
+        Future<?> cancelled = scheduler.schedule(new Task("cancelled", 0, null, false), 50, TimeUnit.MILLISECONDS);
+        scheduler.schedule(new Task("delayed", 0, null, false), 20, TimeUnit.MILLISECONDS);
+        cancelled.cancel(false);
+        awaitRan(1);
+        Thread.sleep(80);
+
+        assertThat(ran, is(Arrays.asList("delayed")));
+    }
+
+    @Test(timeout = 1000)
+    public void worksWithPersevereRunner() throws Exception {
+        scheduler = new FairScheduler(2);
+        PersevereRunner runner = new PersevereRunner(scheduler).withPriority(10).withTenant("acme");
+        RetryableAction<String> action = new RetryableAction<String>() {
+            @Override
+            public String execute(int retryCount) throws GiveUp, Exception {
+                if (retryCount < 2) {
+                    throw new IOException("Argh!");
+                }
+                return "hello";
+            }
+        };
+
+        ExecutionResult<String> result = runner.persevere(action, DelayStrategies.fixedDelay(5), 3).get();
+
+        assertThat(result, is(ExecutionResult.success("hello", 2)));
+    }
+
+}
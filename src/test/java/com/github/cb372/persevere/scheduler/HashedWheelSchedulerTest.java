@@ -0,0 +1,91 @@
+package com.github.cb372.persevere.scheduler;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class HashedWheelSchedulerTest {
+    private final ExecutorService dispatcher = Executors.newFixedThreadPool(2);
+    private final HashedWheelScheduler scheduler = new HashedWheelScheduler(dispatcher, 5, TimeUnit.MILLISECONDS, 8);
+
+    @After
+    public void shutdown() {
+        scheduler.shutdown();
+        dispatcher.shutdown();
+    }
+
+    @Test(timeout = 1000)
+    public void runsATaskAfterTheDelay() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+
+        latch.await();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(50L));
+    }
+
+    @Test(timeout = 1000)
+    public void runsTasksWhoseDelayIsLongerThanOneRotationOfTheWheel() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        // 8 ticks of 5ms = 40ms per rotation
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+
+        latch.await();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(100L));
+    }
+
+    @Test(timeout = 1000)
+    public void doesNotRunACancelledTask() throws InterruptedException {
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        Future<?> future = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                ran.set(true);
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+
+        assertThat(future.cancel(false), is(true));
+        Thread.sleep(100);
+
+        assertThat(ran.get(), is(false));
+        assertThat(future.isCancelled(), is(true));
+    }
+
+    @Test(timeout = 2000)
+    public void runsManyTasks() throws InterruptedException {
+        int count = 10000;
+        final CountDownLatch latch = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    latch.countDown();
+                }
+            }, i % 100, TimeUnit.MILLISECONDS);
+        }
+
+        latch.await();
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.github.cb372.persevere.scheduler;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class VirtualThreadSchedulerTest {
+    private final VirtualThreadScheduler scheduler = new VirtualThreadScheduler();
+
+    @After
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Test(timeout = 1000)
+    public void runsATaskAfterTheDelay() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+
+        latch.await();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(50L));
+    }
+
+    @Test(timeout = 2000)
+    public void blockingTasksDoNotQueueBehindEachOther() throws InterruptedException {
+        final int tasks = 500;
+        final CountDownLatch allStarted = new CountDownLatch(tasks);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < tasks; i++) {
+            scheduler.submit(new Runnable() {
+                @Override
+                public void run() {
+                    allStarted.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // finish
+                    }
+                }
+            });
+        }
+
+        // every task is blocked at the same time, so none of them is waiting for a free thread
+        allStarted.await();
+        release.countDown();
+    }
+
+    @Test(timeout = 1000)
+    public void doesNotRunACancelledTask() throws InterruptedException {
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        Future<?> future = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                ran.set(true);
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+
+        assertThat(future.cancel(false), is(true));
+        Thread.sleep(100);
+        assertThat(ran.get(), is(false));
+    }
+
+    @Test(timeout = 1000)
+    public void cancellingARunningTaskInterruptsIt() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        Future<?> future = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+
+        started.await();
+        future.cancel(true);
+        interrupted.await();
+    }
+
+}